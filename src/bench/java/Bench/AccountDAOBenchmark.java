@@ -0,0 +1,68 @@
+package Bench;
+
+// Java Built-in Imports
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Imports from JMH
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Imports of classes from this project
+import DAO.AccountDAO;
+import Model.Account;
+import Util.ConnectionUtil;
+
+/**
+ * AccountDAO login lookups by username against account tables of several sizes, for accounts that exist and for an
+ * unknown username. The password check itself is PasswordHashBenchmark's.
+ *
+ * Run with: mvn -P bench test-compile exec:exec -Dbench.args="AccountDAOBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = BenchDatabase.URL_ARG)
+public class AccountDAOBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    int tableSize;
+
+    AccountDAO accountDAO;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchDatabase.seed(tableSize, 1);
+        accountDAO = new AccountDAO();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ConnectionUtil.releaseConnection();
+    }
+
+    @Benchmark
+    public Account getAccountByUsername() {
+        int n = 2 + ThreadLocalRandom.current().nextInt(tableSize - 1);
+        return accountDAO.getAccountByUsername("user" + n);
+    }
+
+    @Benchmark
+    public Account getAccountByUsernameMissing() {
+        int n = 2 + ThreadLocalRandom.current().nextInt(tableSize - 1);
+        return accountDAO.getAccountByUsername("nobody" + n);
+    }
+}
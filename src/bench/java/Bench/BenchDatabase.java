@@ -0,0 +1,73 @@
+package Bench;
+
+// Java Built-in Imports
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+// Imports of classes from this project
+import Util.ConnectionUtil;
+
+/**
+ * Builds the tables the benchmarks run against.
+ *
+ * Benchmarks fork with URL_ARG, so they work on a private in-memory database and never touch ./h2/db.
+ */
+public class BenchDatabase {
+
+    /**
+     * JVM argument for @Fork(jvmArgsAppend = ...) that points ConnectionUtil at an in-memory database
+     */
+    public static final String URL_ARG = "-Ddb.url=jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1";
+
+    private BenchDatabase() {
+    }
+
+    /**
+     * Resets the database to the test fixture (account 1 "testuser1" with message 1), then adds accounts until
+     * there are accounts of them and messages until there are messages, spread evenly over the accounts.
+     * Account n has username "user" + n and password "password" + n, stored in plaintext like the rows from before
+     * passwords were hashed; a login through AccountService replaces each with its hash the first time.
+     *
+     * @param accounts the number of accounts wanted, at least 1
+     * @param messages the number of messages wanted, at least 1
+     */
+    public static void seed(int accounts, int messages) {
+        ConnectionUtil.resetTestDatabase();
+        Connection connection = ConnectionUtil.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO account (username, password) VALUES (?, ?)")) {
+                for (int n = 2; n <= accounts; n++) {
+                    insert.setString(1, "user" + n);
+                    insert.setString(2, "password" + n);
+                    insert.addBatch();
+                    if (n % 1000 == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)")) {
+                for (int n = 2; n <= messages; n++) {
+                    insert.setInt(1, 1 + n % accounts);
+                    insert.setString(2, "benchmark message number " + n);
+                    insert.setLong(3, 1669947792L + n);
+                    insert.addBatch();
+                    if (n % 1000 == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not seed the benchmark database", e);
+        } finally {
+            ConnectionUtil.releaseConnection();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package Bench;
+
+// Java Built-in Imports
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Imports from JMH and Jackson
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Imports of classes from this project
+import Model.Message;
+import Util.JsonCodec;
+
+/**
+ * Compares the controller's old JSON path with the shared codec, for the body of a POST /messages round trip and
+ * for a page of messages.
+ *
+ * legacy*: a new ObjectMapper per request, the body read from a String and the response encoded to a String that is
+ * then turned into bytes. shared*: the shared codec's pre-built reader and writer, reading bytes and encoding
+ * straight into the output stream.
+ *
+ * Run with: mvn -P bench test-compile exec:exec -Dbench.args="JsonCodecBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+    byte[] requestBody;
+    Message message;
+    List<Message> page;
+
+    // Stands in for the response stream, reset before each write
+    ByteArrayOutputStream response = new ByteArrayOutputStream(64 * 1024);
+
+    @Setup
+    public void setUp() {
+        requestBody = "{\"posted_by\":1,\"message_text\":\"hello message\",\"time_posted_epoch\":1669947792}"
+                .getBytes(StandardCharsets.UTF_8);
+        message = new Message(1, 1, "hello message", 1669947792);
+        page = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            page.add(new Message(i, 1 + i % 10, "message text number " + i, 1669947792L + i));
+        }
+    }
+
+    @Benchmark
+    public byte[] legacyMessageRoundTrip() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        Message read = mapper.readValue(new String(requestBody, StandardCharsets.UTF_8), Message.class);
+        response.reset();
+        response.write(mapper.writeValueAsString(read).getBytes(StandardCharsets.UTF_8));
+        return response.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] sharedMessageRoundTrip() throws IOException {
+        Message read = JsonCodec.MESSAGE_READER.readValue(requestBody);
+        response.reset();
+        JsonCodec.writeTo(read, response);
+        return response.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] legacyPage() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        response.reset();
+        response.write(mapper.writeValueAsString(page).getBytes(StandardCharsets.UTF_8));
+        return response.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] sharedPage() throws IOException {
+        response.reset();
+        JsonCodec.writeTo(page, response);
+        return response.toByteArray();
+    }
+}
@@ -0,0 +1,255 @@
+package Bench;
+
+// Java Built-in Imports
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Imports from Javalin
+import io.javalin.Javalin;
+
+// Imports of classes from this project
+import Controller.SocialMediaController;
+
+/**
+ * An open-loop HTTP load generator for every route in startAPI().
+ *
+ * It seeds a private in-memory database, starts the API on a random port and sends requests at a fixed arrival rate
+ * for a set time, whether or not earlier requests have finished, the way independent users would. Each request's
+ * latency is measured from when it was due to be sent, so time spent waiting behind a slow server is counted
+ * rather than hidden. After a warm-up whose results are discarded, it prints the throughput, error count and
+ * p50/p90/p99/p99.9 latency of each endpoint.
+ *
+ * Run with: mvn -P bench test-compile exec:exec@load -Dload.args="--rate 500 --duration 30"
+ *
+ * Options:
+ *   --rate N          requests per second across all endpoints (default 200)
+ *   --duration N      seconds measured (default 30)
+ *   --warmup N        seconds sent first and not measured (default 5)
+ *   --accounts N      accounts seeded before the run (default 100)
+ *   --messages N      messages seeded before the run (default 10000)
+ *   --mix a=w,b=w     relative weight of each endpoint (default DEFAULT_MIX); endpoints left out are not sent
+ */
+public class LoadTest {
+
+    static final String DEFAULT_MIX = "register=5,login=10,post=20,getAll=2,getById=30,getUser=13,patch=10,delete=10";
+
+    /**
+     * Latencies and outcomes of one endpoint.
+     */
+    static class EndpointStats {
+        final String name;
+        final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        final LongAdder errors = new LongAdder();
+
+        EndpointStats(String name) {
+            this.name = name;
+        }
+    }
+
+    private final int accounts;
+    private final Map<String, Integer> mix;
+    private final Random random = new Random(42);
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final String baseUrl;
+
+    // Grows with every post, so gets, patches and deletes aim at ids that may exist
+    private final AtomicInteger maxMessageId;
+    private final AtomicInteger registered = new AtomicInteger();
+
+    LoadTest(String baseUrl, int accounts, int messages, Map<String, Integer> mix) {
+        this.baseUrl = baseUrl;
+        this.accounts = accounts;
+        this.maxMessageId = new AtomicInteger(messages);
+        this.mix = mix;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        int rate = Integer.parseInt(options.getOrDefault("rate", "200"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        int accounts = Integer.parseInt(options.getOrDefault("accounts", "100"));
+        int messages = Integer.parseInt(options.getOrDefault("messages", "10000"));
+        Map<String, Integer> mix = parseMix(options.getOrDefault("mix", DEFAULT_MIX));
+
+        BenchDatabase.seed(accounts, messages);
+        Javalin app = new SocialMediaController().startAPI().start(0);
+        try {
+            LoadTest loadTest = new LoadTest("http://localhost:" + app.port(), accounts, messages, mix);
+            System.out.printf("Warming up for %d s at %d requests/s%n", warmup, rate);
+            loadTest.run(rate, warmup);
+            System.out.printf("Measuring for %d s at %d requests/s%n", duration, rate);
+            Map<String, EndpointStats> stats = loadTest.run(rate, duration);
+            report(stats, duration);
+        } finally {
+            app.stop();
+        }
+    }
+
+    static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split("=");
+            weights.put(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * Sends requests at rate per second for seconds, then waits for the stragglers.
+     *
+     * @return the stats of each endpoint in the mix
+     */
+    Map<String, EndpointStats> run(int rate, int seconds) throws InterruptedException {
+        Map<String, EndpointStats> stats = new LinkedHashMap<>();
+        for (String name : mix.keySet()) {
+            stats.put(name, new EndpointStats(name));
+        }
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        String[] names = mix.keySet().toArray(new String[0]);
+
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long total = (long) rate * seconds;
+        long start = System.nanoTime();
+        ConcurrentLinkedQueue<CompletableFuture<?>> inFlight = new ConcurrentLinkedQueue<>();
+
+        for (long i = 0; i < total; i++) {
+            // Each request has a due time fixed in advance; the schedule never waits for responses
+            long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            int pick = random.nextInt(totalWeight);
+            String name = names[0];
+            for (String candidate : names) {
+                pick -= mix.get(candidate);
+                if (pick < 0) {
+                    name = candidate;
+                    break;
+                }
+            }
+            EndpointStats endpoint = stats.get(name);
+            CompletableFuture<HttpResponse<String>> response = client.sendAsync(request(name),
+                    HttpResponse.BodyHandlers.ofString());
+            inFlight.add(response.whenComplete((r, e) -> {
+                endpoint.latencies.add(System.nanoTime() - due);
+                if (e != null || r.statusCode() >= 300) {
+                    endpoint.errors.increment();
+                } else if (endpoint.name.equals("post")) {
+                    maxMessageId.incrementAndGet();
+                }
+            }));
+        }
+
+        for (CompletableFuture<?> future : inFlight) {
+            try {
+                future.join();
+            } catch (RuntimeException e) {
+                // Counted as an error already
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @param endpoint the name of an endpoint in the mix
+     * @return a request for it with random but valid parameters
+     */
+    private HttpRequest request(String endpoint) {
+        int account = 1 + random.nextInt(accounts);
+        int messageId = 1 + random.nextInt(maxMessageId.get());
+        switch (endpoint) {
+            case "register":
+                return post("/register", "{\"username\":\"load" + System.nanoTime() + "-"
+                        + registered.incrementAndGet() + "\",\"password\":\"password\"}");
+            case "login":
+                // Account 1 is the fixture's testuser1; BenchDatabase names the others user<n>/password<n>
+                return account == 1
+                        ? post("/login", "{\"username\":\"testuser1\",\"password\":\"password\"}")
+                        : post("/login", "{\"username\":\"user" + account + "\",\"password\":\"password" + account + "\"}");
+            case "post":
+                return post("/messages", "{\"posted_by\":" + account
+                        + ",\"message_text\":\"load test message\",\"time_posted_epoch\":1669947792}");
+            case "getAll":
+                return get("/messages?limit=100");
+            case "getById":
+                return get("/messages/" + messageId);
+            case "getUser":
+                return get("/accounts/" + account + "/messages");
+            case "patch":
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + messageId))
+                        .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\":\"patched\"}"))
+                        .header("Content-Type", "application/json")
+                        .build();
+            case "delete":
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + messageId)).DELETE().build();
+            default:
+                throw new IllegalArgumentException("Unknown endpoint in --mix: " + endpoint);
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).build();
+    }
+
+    private HttpRequest post(String path, String body) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * Prints one line per endpoint: requests, errors, throughput and latency percentiles in milliseconds.
+     * A patch or delete of an id that was already deleted answers 400 or an empty 200, so patch errors are
+     * expected once deletes are in the mix.
+     */
+    static void report(Map<String, EndpointStats> stats, int seconds) {
+        System.out.printf("%-10s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (EndpointStats endpoint : stats.values()) {
+            long[] sorted = endpoint.latencies.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            System.out.printf("%-10s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    endpoint.name, sorted.length, endpoint.errors.sum(), sorted.length / (double) seconds,
+                    percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                    percentile(sorted, 0.999), percentile(sorted, 1.0));
+        }
+    }
+
+    /**
+     * @return the latency at quantile q of sorted, in milliseconds, or 0 if there are no samples
+     */
+    static double percentile(long[] sorted, double q) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1_000_000.0;
+    }
+}
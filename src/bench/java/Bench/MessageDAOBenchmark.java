@@ -0,0 +1,83 @@
+package Bench;
+
+// Java Built-in Imports
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Imports from JMH
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Imports of classes from this project
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+
+/**
+ * MessageDAO queries against message tables of several sizes, spread over 100 accounts.
+ *
+ * insertMessage grows the table by the number of invocations, which is small next to the larger sizes.
+ *
+ * Run with: mvn -P bench test-compile exec:exec -Dbench.args="MessageDAOBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = BenchDatabase.URL_ARG)
+public class MessageDAOBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int tableSize;
+
+    MessageDAO messageDAO;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchDatabase.seed(100, tableSize);
+        messageDAO = new MessageDAO();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ConnectionUtil.releaseConnection();
+    }
+
+    @Benchmark
+    public List<Message> getAllMessages() {
+        return messageDAO.getAllMessages();
+    }
+
+    @Benchmark
+    public Message getMessageById() {
+        return messageDAO.getMessageById(1 + ThreadLocalRandom.current().nextInt(tableSize));
+    }
+
+    @Benchmark
+    public List<Message> getUserMessages() {
+        return messageDAO.getUserMessages(1 + ThreadLocalRandom.current().nextInt(100));
+    }
+
+    @Benchmark
+    public List<Message> getMessagesPage() {
+        return messageDAO.getMessagesPage(1 + ThreadLocalRandom.current().nextInt(100), false, 0, 0, 20);
+    }
+
+    @Benchmark
+    public Message insertMessage() {
+        return messageDAO.insertMessage(new Message(1, "inserted by the benchmark", 1669947792L));
+    }
+}
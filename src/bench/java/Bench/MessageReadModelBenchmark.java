@@ -0,0 +1,89 @@
+package Bench;
+
+// Java Built-in Imports
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Imports from JMH
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Imports of classes from this project
+import Model.Message;
+import Service.MessageService;
+import Util.ConnectionUtil;
+
+/**
+ * The reads CQRS mode serves from memory, in three set-ups:
+ *   jdbc       every read goes to H2 (both caches off)
+ *   cached     the default: getMessageById and getUserMessages through their caches, the rest from H2
+ *   readModel  messages.readModel=true, every read from the in-memory read model
+ *
+ * Run with: mvn -P bench test-compile exec:exec -Dbench.args="MessageReadModelBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = BenchDatabase.URL_ARG)
+public class MessageReadModelBenchmark {
+
+    @Param({"jdbc", "cached", "readModel"})
+    String mode;
+
+    @Param({"10000", "100000"})
+    int tableSize;
+
+    MessageService messageService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchDatabase.seed(100, tableSize);
+        // Every parameter combination runs in its own fork, so the properties only affect this trial
+        if (mode.equals("jdbc")) {
+            System.setProperty("messages.cache.size", "0");
+            System.setProperty("messages.timelineCache.maxMessages", "0");
+        } else if (mode.equals("readModel")) {
+            System.setProperty("messages.readModel", "true");
+        }
+        messageService = new MessageService();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ConnectionUtil.releaseConnection();
+    }
+
+    @Benchmark
+    public Message getMessageById() {
+        return messageService.getMessageById(1 + ThreadLocalRandom.current().nextInt(tableSize));
+    }
+
+    @Benchmark
+    public boolean messageExists() {
+        return messageService.messageExists(1 + ThreadLocalRandom.current().nextInt(tableSize));
+    }
+
+    @Benchmark
+    public List<Message> getUserMessages() {
+        return messageService.getUserMessages(1 + ThreadLocalRandom.current().nextInt(100));
+    }
+
+    @Benchmark
+    public List<Message> getAllMessages() {
+        return messageService.getAllMessages();
+    }
+}
@@ -0,0 +1,92 @@
+package Bench;
+
+// Java Built-in Imports
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Imports from JMH
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Imports of classes from this project
+import Model.Message;
+import Model.MessagePage;
+import Service.MessageService;
+import Service.PageCursor;
+import Util.ConnectionUtil;
+
+/**
+ * MessageService operations, including validation and its caches, against message tables of several sizes spread
+ * over 100 accounts. Reads hit the caches after warm-up, as they would under steady traffic.
+ *
+ * Run with: mvn -P bench test-compile exec:exec -Dbench.args="MessageServiceBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = BenchDatabase.URL_ARG)
+public class MessageServiceBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int tableSize;
+
+    MessageService messageService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchDatabase.seed(100, tableSize);
+        messageService = new MessageService();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ConnectionUtil.releaseConnection();
+    }
+
+    @Benchmark
+    public Message getMessageById() {
+        return messageService.getMessageById(1 + ThreadLocalRandom.current().nextInt(tableSize));
+    }
+
+    @Benchmark
+    public List<Message> getUserMessages() {
+        return messageService.getUserMessages(1 + ThreadLocalRandom.current().nextInt(100));
+    }
+
+    @Benchmark
+    public MessagePage getMessagesPage() {
+        return messageService.getMessagesPage(1 + ThreadLocalRandom.current().nextInt(100), 20, null,
+                PageCursor.Order.ID);
+    }
+
+    @Benchmark
+    public List<Message> getAllMessages() {
+        return messageService.getAllMessages();
+    }
+
+    @Benchmark
+    public Message addMessage() {
+        return messageService.addMessage(new Message(1 + ThreadLocalRandom.current().nextInt(100),
+                "added by the benchmark", 1669947792L));
+    }
+
+    @Benchmark
+    public Message updateMessage() {
+        return messageService.updateMessage(1 + ThreadLocalRandom.current().nextInt(tableSize),
+                new Message(0, "updated by the benchmark", 0));
+    }
+}
@@ -0,0 +1,59 @@
+package Bench;
+
+// Java Built-in Imports
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Imports from JMH
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Imports of classes from this project
+import Util.LatencyHistogram;
+import Util.Metrics;
+
+/**
+ * The cost the metrics add to each request: one histogram record, and the whole per-request cycle of the
+ * controller (two clock reads, start() and finish()), alone and with eight threads recording into the same route.
+ *
+ * Run with: mvn -P bench test-compile exec:exec -Dbench.args="MetricsBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    LatencyHistogram histogram = new LatencyHistogram();
+    Metrics.Route route = new Metrics().route("GET", "/messages/{message_id}");
+
+    @Benchmark
+    public void record() {
+        histogram.record(ThreadLocalRandom.current().nextInt(1_000, 10_000_000));
+    }
+
+    @Benchmark
+    public void requestCycle() {
+        long start = System.nanoTime();
+        route.start();
+        route.finish(200, System.nanoTime() - start);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void requestCycleContended() {
+        long start = System.nanoTime();
+        route.start();
+        route.finish(200, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,64 @@
+package Bench;
+
+// Java Built-in Imports
+import java.util.concurrent.TimeUnit;
+
+// Imports from JMH
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Imports of classes from this project
+import Util.PasswordHasher;
+
+/**
+ * Logins and registrations per second per core at several PBKDF2 costs. The hasher has one thread and JMH one
+ * caller, so each score is what a single core sustains, hand-off to the pool included; multiply by
+ * accounts.password.threads for a server. verifyLegacy is a login against a plaintext row before its rehash.
+ *
+ * Run with: mvn -P bench test-compile exec:exec -Dbench.args="PasswordHashBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHashBenchmark {
+
+    @Param({"10000", "100000", "210000"})
+    int iterations;
+
+    PasswordHasher passwordHasher;
+    String stored;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        passwordHasher = new PasswordHasher(iterations, 1, 100);
+        stored = passwordHasher.hash("password1");
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return passwordHasher.verify("password1", stored);
+    }
+
+    @Benchmark
+    public String hash() {
+        return passwordHasher.hash("password1");
+    }
+
+    @Benchmark
+    public boolean verifyLegacy() {
+        return passwordHasher.verify("password1", "password1");
+    }
+}
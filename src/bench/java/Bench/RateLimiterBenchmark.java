@@ -0,0 +1,73 @@
+package Bench;
+
+// Java Built-in Imports
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Imports from JMH
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Imports of classes from this project
+import Util.RateLimiter;
+
+/**
+ * The cost the per-account rate limit adds to a message write: one account hammering its own bucket (alone and
+ * from eight threads), one million accounts spread over the table, and a throttled account being turned away.
+ *
+ * Run with: mvn -P bench test-compile exec:exec -Dbench.args="RateLimiterBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterBenchmark {
+
+    static final int ACCOUNTS = 1_000_000;
+
+    // A burst no benchmark can use up, so every call admits; buckets stay partly used, so none is evicted
+    RateLimiter open = new RateLimiter(1, Integer.MAX_VALUE);
+
+    // A bucket that stays empty, so every call is throttled
+    RateLimiter exhausted = new RateLimiter(0.001, 1);
+
+    @Setup
+    public void setUp() {
+        for (int account = 0; account < ACCOUNTS; account++) {
+            open.tryAcquire(account);
+        }
+        exhausted.tryAcquire(1);
+    }
+
+    @Benchmark
+    public long oneAccount() {
+        return open.tryAcquire(1);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long oneAccountContended() {
+        return open.tryAcquire(1);
+    }
+
+    @Benchmark
+    public long manyAccounts() {
+        return open.tryAcquire(ThreadLocalRandom.current().nextInt(ACCOUNTS));
+    }
+
+    @Benchmark
+    public long throttled() {
+        return exhausted.tryAcquire(1);
+    }
+}
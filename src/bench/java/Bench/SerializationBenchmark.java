@@ -0,0 +1,76 @@
+package Bench;
+
+// Java Built-in Imports
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Imports from JMH and Jackson
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+// Imports of classes from this project
+import Model.Account;
+import Model.Message;
+import Util.JsonCodec;
+
+/**
+ * JSON round trips of Message and Account lists through the shared codec, for responses of several sizes: encode
+ * to bytes as a handler does, then decode as a client would.
+ *
+ * Run with: mvn -P bench test-compile exec:exec -Dbench.args="SerializationBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    static final ObjectReader ACCOUNT_LIST_READER = JsonCodec.readerFor(new TypeReference<List<Account>>() {}.getType());
+
+    @Param({"1", "100", "10000"})
+    int listSize;
+
+    List<Message> messages;
+    List<Account> accounts;
+    ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 1024);
+
+    @Setup
+    public void setUp() {
+        messages = new ArrayList<>();
+        accounts = new ArrayList<>();
+        for (int i = 1; i <= listSize; i++) {
+            messages.add(new Message(i, 1 + i % 100, "benchmark message number " + i, 1669947792L + i));
+            accounts.add(new Account(i, "user" + i, "password" + i));
+        }
+    }
+
+    @Benchmark
+    public List<Message> messageRoundTrip() throws IOException {
+        out.reset();
+        JsonCodec.writeTo(messages, out);
+        return JsonCodec.MESSAGE_LIST_READER.readValue(out.toByteArray());
+    }
+
+    @Benchmark
+    public List<Account> accountRoundTrip() throws IOException {
+        out.reset();
+        JsonCodec.writeTo(accounts, out);
+        return ACCOUNT_LIST_READER.readValue(out.toByteArray());
+    }
+}
@@ -0,0 +1,98 @@
+package Bench;
+
+// Java Built-in Imports
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Imports from JMH and Javalin
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import io.javalin.Javalin;
+
+// Imports of classes from this project
+import Controller.SocialMediaController;
+
+/**
+ * Measures how request throughput scales with the number of concurrent clients, with requests on Jetty's platform
+ * thread pool and on virtual threads.
+ *
+ * Each invocation sends one GET /accounts/1/messages?limit=20 per client, all at once, and waits for every response;
+ * the requests counter is the resulting requests per second. The platform pool is kept small (server.maxThreads=32)
+ * so that clients beyond it have to queue, and the connection pool is large enough not to be the limit.
+ *
+ * Virtual threads need Java 21: mvn -P bench,java21 test-compile exec:exec -Dbench.args="ServerThroughput"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dserver.maxThreads=32", "-Ddb.pool.maxSize=64", BenchDatabase.URL_ARG})
+public class ServerThroughputBenchmark {
+
+    @Param({"platform", "virtual"})
+    String mode;
+
+    @Param({"1", "16", "64", "256"})
+    int clients;
+
+    Javalin app;
+    HttpClient client;
+    HttpRequest request;
+
+    /**
+     * Requests completed, reported by JMH per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long requests;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchDatabase.seed(1, 1000);
+
+        app = new SocialMediaController().startAPI("virtual".equals(mode)).start(0);
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        request = HttpRequest.newBuilder(URI.create("http://localhost:" + app.port() + "/accounts/1/messages?limit=20"))
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        app.stop();
+    }
+
+    @Benchmark
+    public void concurrentRequests(Counters counters) {
+        List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+        }
+        for (CompletableFuture<HttpResponse<Void>> response : responses) {
+            if (response.join().statusCode() != 200) {
+                throw new IllegalStateException("Unexpected status " + response.join().statusCode());
+            }
+        }
+        counters.requests += clients;
+    }
+}
@@ -2,15 +2,49 @@ package Controller;
 
 // Imports from Javalin and Jackson
 import io.javalin.Javalin;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.Header;
+import io.javalin.http.HandlerType;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Java Built-in Imports
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 // Imports of Model and Service classes in this project
 import Model.Account;
 import Model.Message;
+import Model.MessageBatchResult;
+import Model.MessagePage;
 import Service.AccountService;
+import Service.MessageReadModel;
 import Service.MessageService;
+import Service.PageCursor;
+import Service.TimelineCache;
+import Util.ConcurrencyLimiter;
+import Util.ConnectionUtil;
+import Util.DbExecutor;
+import Util.JsonCodec;
+import Util.LruCache;
+import Util.Metrics;
+import Util.PasswordHasher;
+import Util.RateLimiter;
 
 /**
  * TODO: You will need to write your own endpoints and handlers for your controller. The endpoints you will need can be
@@ -18,11 +52,41 @@ import Service.MessageService;
  * refer to prior mini-project labs and lecture materials for guidance on how a controller may be built.
  */
 public class SocialMediaController {
+
+    // Largest number of messages accepted by a single POST /messages/batch
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("messages.batch.maxSize", 1000);
+
+    // Size of Jetty's platform thread pool, which runs the requests unless virtual threads are switched on
+    private static final int MAX_THREADS = Integer.getInteger("server.maxThreads", 250);
     
     // Reference variables declared
     AccountService accountService;
     MessageService messageService;
 
+    // Runs the handlers' service calls when server.asyncDb is true; null when they run on the request thread
+    DbExecutor dbExecutor;
+
+    // Writes the responses to the service calls run on dbExecutor: Jetty's thread pool, or new virtual threads
+    Executor responseExecutor;
+
+    // Per-route latency, status and in-flight metrics, served at GET /metrics
+    Metrics metrics = new Metrics();
+
+    // Adaptive concurrency limits for the GET routes and for the routes that write; null unless enabled
+    ConcurrencyLimiter readLimiter;
+    ConcurrencyLimiter writeLimiter;
+
+    // Per-account token buckets for the message writes; null when disabled
+    RateLimiter rateLimiter;
+
+    // Request attributes set when a routed request starts, read back in the after handler
+    private static final String METRICS_ROUTE = "metrics.route";
+    private static final String METRICS_START = "metrics.start";
+    private static final String LIMITER = "limiter";
+
+    // Request attribute holding the version tag a message read was checked against, sent with its body
+    private static final String ETAG = "etag";
+
     // No args constructor to instantiate both AccountService and MessageService
     public SocialMediaController(){
         accountService = new AccountService();
@@ -33,43 +97,455 @@ public class SocialMediaController {
     /**
      * In order for the test cases to work, you will need to write the endpoints in the startAPI() method, as the test
      * suite must receive a Javalin object from this method.
+     * Requests run on Jetty's platform thread pool, or each on its own virtual thread when the server.virtualThreads
+     * system property is true.
+     * With server.asyncDb=true, each handler parses its request on the request thread and hands the service call
+     * to a separate DbExecutor of db.executor.threads threads (default db.pool.maxSize) with a queue of
+     * db.executor.queueCapacity (default 100). A request that finds the queue full gets a 503. The response is
+     * then written on a Jetty thread, except for the streamed lists, which write from the DB thread as they read.
+     * With server.limiter.enabled=true, reads (GET) and writes each pass through an adaptive concurrency limit that
+     * starts at server.limiter.initialLimit (default 20) and moves between server.limiter.minLimit (default 2) and
+     * server.limiter.maxLimit (default server.maxThreads) as latency changes. A request over the limit gets a 503
+     * with Retry-After straight away. Every server.limiter.probeIntervalMillis (default 30000) the limit is held at
+     * the minimum for a few requests to measure the unloaded latency again, so a server under steady load sheds
+     * briefly each time; that is why the limits are off by default.
+     * With messages.rateLimit.perSecond above 0 (default 0, off), message writes are also limited per account to
+     * that rate, with bursts of messages.rateLimit.burst (default 200); an account over its rate gets a 429 with
+     * Retry-After. A batch then cannot hold more messages for one poster than a burst. An update is charged to its
+     * poster, found in memory when the message cache or read model holds the message and otherwise on the database.
+     * Passwords are hashed with accounts.password.iterations rounds of PBKDF2 (default 210000) on
+     * accounts.password.threads threads (default one per core) behind a queue of accounts.password.queueCapacity
+     * (default 100); a registration or login that finds the queue full gets a 503 with Retry-After.
      * @return a Javalin app object which defines the behavior of the Javalin controller.
      */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
-        app.post("/register", this::postAccountHandler); // Post for inserting accounts (registration)
-        app.post("/login", this::loginHandler); // Post for a user to verify login credentials
-        app.post("/messages", this::postMessageHandler); // Post for inserting messages
-        app.get("/messages", this::getAllMessagesHandler); // GET for retrieving all messages
-        app.get("/messages/{message_id}", this::getMessageByIdHandler); // GET for retrieving a message by message_id
-        app.delete("/messages/{message_id}", this::deleteMessageHandler); // DELETE a message by message_id
-        app.patch("/messages/{message_id}", this::updateMessageHandler); // Put for updating messages
-        app.get("/accounts/{account_id}/messages", this::getUserMessagesHandler); // GET all messages created by a certain user
+        return startAPI(Boolean.getBoolean("server.virtualThreads"));
+    }
+
+    /**
+     * @param virtualThreads run each request on its own virtual thread, so a handler blocked in JDBC holds no
+     *                       platform thread. Needs Java 21; on older runtimes the platform thread pool is used.
+     * @return a Javalin app object which defines the behavior of the Javalin controller.
+     */
+    public Javalin startAPI(boolean virtualThreads) {
+        Javalin app = Javalin.create(config -> {
+            // One shared codec for every JSON body, in ctx.json() as well as the handlers' direct writes
+            config.jsonMapper(JsonCodec.INSTANCE);
+            config.jetty.server(() -> createServer(virtualThreads));
+        });
+
+        if (Boolean.getBoolean("server.asyncDb")) {
+            dbExecutor = new DbExecutor("db-executor",
+                    Integer.getInteger("db.executor.threads", Integer.getInteger("db.pool.maxSize", 10)),
+                    Integer.getInteger("db.executor.queueCapacity", 100));
+            app.events(event -> event.serverStopped(dbExecutor::shutdown));
+        }
+        // Commits whatever the write-behind queue still holds before its daemon committer can be cut off
+        app.events(event -> event.serverStopped(messageService::shutdown));
+
+        // Opt-in: each probe of the minimum RTT holds the limit at its minimum, shedding whatever exceeds it
+        int maxLimit = Integer.getInteger("server.limiter.maxLimit", MAX_THREADS);
+        if (Boolean.getBoolean("server.limiter.enabled") && maxLimit > 0) {
+            int initialLimit = Integer.getInteger("server.limiter.initialLimit", 20);
+            int minLimit = Math.min(maxLimit, Integer.getInteger("server.limiter.minLimit", 2));
+            long probeInterval = Long.getLong("server.limiter.probeIntervalMillis", 30_000L);
+            readLimiter = new ConcurrencyLimiter("reads", initialLimit, minLimit, maxLimit, probeInterval);
+            writeLimiter = new ConcurrencyLimiter("writes", initialLimit, minLimit, maxLimit, probeInterval);
+        }
+
+        // Opt-in: a bucket smaller than MAX_BATCH_SIZE also caps how many messages a batch may hold for one poster
+        double writesPerSecond = Double.parseDouble(System.getProperty("messages.rateLimit.perSecond", "0"));
+        if (writesPerSecond > 0) {
+            rateLimiter = new RateLimiter(writesPerSecond, Integer.getInteger("messages.rateLimit.burst", 200));
+        }
+
+        route(app, HandlerType.POST, "/register", this::postAccountHandler); // Post for inserting accounts (registration)
+        route(app, HandlerType.POST, "/login", this::loginHandler); // Post for a user to verify login credentials
+        route(app, HandlerType.POST, "/messages", this::postMessageHandler); // Post for inserting messages
+        route(app, HandlerType.POST, "/messages/batch", this::postMessageBatchHandler); // Post for inserting many messages at once
+        route(app, HandlerType.GET, "/messages", this::getAllMessagesHandler); // GET for retrieving all messages
+        route(app, HandlerType.GET, "/messages/search", this::searchMessagesHandler); // GET messages by keyword (before {message_id}, which would match it too)
+        route(app, HandlerType.GET, "/messages/{message_id}", this::getMessageByIdHandler); // GET for retrieving a message by message_id
+        route(app, HandlerType.DELETE, "/messages/{message_id}", this::deleteMessageHandler); // DELETE a message by message_id
+        route(app, HandlerType.PATCH, "/messages/{message_id}", this::updateMessageHandler); // Put for updating messages
+        route(app, HandlerType.GET, "/accounts/{account_id}/messages", this::getUserMessagesHandler); // GET all messages created by a certain user
+        app.get("/metrics", this::metricsHandler); // GET metrics in Prometheus text format (not itself measured)
+        app.get("/metrics/queries", this::queryStatsHandler); // GET per-statement database stats (not itself measured)
+        registerGauges();
+
+        app.after(ctx -> {
+            // Record how the request went, then return the request thread's database connection to the pool
+            Metrics.Route route = ctx.attribute(METRICS_ROUTE);
+            if (route != null) {
+                long elapsed = System.nanoTime() - ctx.<Long>attribute(METRICS_START);
+                route.finish(ctx.statusCode(), elapsed);
+
+                // A 5xx means the server could not keep up (e.g. a connection checkout timed out)
+                ConcurrencyLimiter limiter = ctx.attribute(LIMITER);
+                if (limiter != null) {
+                    limiter.release(elapsed, ctx.statusCode() >= 500);
+                }
+            }
+            ConnectionUtil.releaseConnection();
+        });
 
         return app;
     }
 
 // --------------------------------------------------------------------------------------------
 
+    /**
+     * Builds the Jetty server. Selectors and acceptors always stay on the platform pool; with virtualThreads the
+     * pool hands every request to a new virtual thread instead of one of its own threads. The responses to the
+     * service calls run on the DB executor are written the same way.
+     * 
+     * @param virtualThreads whether to run requests on virtual threads
+     * @return the server for Javalin to add its connector and handlers to
+     */
+    private Server createServer(boolean virtualThreads) {
+        QueuedThreadPool threadPool = new QueuedThreadPool(MAX_THREADS, 8, 60_000);
+        threadPool.setName("JettyServerThreadPool");
+        responseExecutor = threadPool;
+        if (virtualThreads) {
+            if (VirtualThreads.areSupported()) {
+                threadPool.setUseVirtualThreads(true);
+                responseExecutor = VirtualThreads::executeOnVirtualThread;
+            } else {
+                System.out.println("Virtual threads need Java 21, running requests on platform threads instead.");
+            }
+        }
+        return new Server(threadPool);
+    }
+
+    /**
+     * Registers handler for method and path, measured by the route's metrics from the moment it is routed until
+     * the after handler runs, which in async mode is when its future has completed. The request first has to get
+     * past the read or write concurrency limit; one that does not is answered 503 with a Retry-After of a second,
+     * without running the handler.
+     * 
+     * @param app
+     * @param method
+     * @param path
+     * @param handler
+     */
+    private void route(Javalin app, HandlerType method, String path, Handler handler) {
+        Metrics.Route route = metrics.route(method.name(), path);
+        ConcurrencyLimiter limiter = method == HandlerType.GET ? readLimiter : writeLimiter;
+        app.addHandler(method, path, ctx -> {
+            ctx.attribute(METRICS_ROUTE, route);
+            ctx.attribute(METRICS_START, System.nanoTime());
+            route.start();
+            if (limiter != null) {
+                if (!limiter.tryAcquire()) {
+                    ctx.header(Header.RETRY_AFTER, "1");
+                    ctx.status(503);
+                    return;
+                }
+                ctx.attribute(LIMITER, limiter);
+            }
+            handler.handle(ctx);
+        });
+    }
+
+    /**
+     * Exposes the connection pool, the caches and the DB executor next to the request metrics.
+     */
+    private void registerGauges() {
+        metrics.gauge("db_pool_connections_active", "Connections leased to a thread.", false,
+                () -> ConnectionUtil.getPoolStats().getActive());
+        metrics.gauge("db_pool_connections_idle", "Open connections waiting in the pool.", false,
+                () -> ConnectionUtil.getPoolStats().getIdle());
+        metrics.gauge("db_pool_waiting_threads", "Threads waiting for a connection.", false,
+                () -> ConnectionUtil.getPoolStats().getWaiting());
+        metrics.gauge("db_pool_checkout_timeouts_total", "Checkouts that gave up waiting.", true,
+                () -> ConnectionUtil.getPoolStats().getTimeouts());
+
+        LruCache<Integer, Message> messageCache = messageService.getMessageCache();
+        if (messageCache != null) {
+            metrics.gauge("message_cache_hits_total", "getMessageById lookups served from memory.", true,
+                    messageCache::getHits);
+            metrics.gauge("message_cache_misses_total", "getMessageById lookups that read the database.", true,
+                    messageCache::getMisses);
+        }
+        metrics.gauge("search_index_messages", "Messages in the search index.", false,
+                () -> messageService.getSearchIndex().size());
+        metrics.gauge("search_index_posting_bytes", "Bytes held by the search index's posting lists.", false,
+                () -> messageService.getSearchIndex().getPostingBytes());
+        MessageReadModel readModel = messageService.getReadModel();
+        if (readModel != null) {
+            metrics.gauge("message_read_model_messages", "Messages held by the in-memory read model.", false,
+                    readModel::size);
+        }
+        TimelineCache timelineCache = messageService.getTimelineCache();
+        if (timelineCache != null) {
+            metrics.gauge("timeline_cache_hits_total", "Account timelines served from memory.", true,
+                    timelineCache::getHits);
+            metrics.gauge("timeline_cache_misses_total", "Account timelines loaded from the database.", true,
+                    timelineCache::getMisses);
+        }
+        for (ConcurrencyLimiter limiter : new ConcurrencyLimiter[] { readLimiter, writeLimiter }) {
+            if (limiter != null) {
+                metrics.gauge("concurrency_limit_" + limiter.getName(), "Requests allowed in flight at once.", false,
+                        limiter::getLimit);
+                metrics.gauge("concurrency_limit_" + limiter.getName() + "_rejected_total",
+                        "Requests turned away with 503 over the limit.", true, limiter::getRejected);
+            }
+        }
+        PasswordHasher passwordHasher = accountService.getPasswordHasher();
+        metrics.gauge("password_hash_queued", "Password hashes waiting for a hasher thread.", false,
+                passwordHasher::getQueued);
+        metrics.gauge("password_hash_rejected_total", "Registrations and logins turned away with 503.", true,
+                passwordHasher::getRejected);
+        if (rateLimiter != null) {
+            metrics.gauge("rate_limit_buckets", "Accounts with a partly used write token bucket.", false,
+                    rateLimiter::size);
+            metrics.gauge("rate_limit_throttled_total", "Message writes turned away with 429.", true,
+                    rateLimiter::getThrottled);
+        }
+        if (dbExecutor != null) {
+            metrics.gauge("db_executor_active", "Service calls running on the DB executor.", false,
+                    () -> dbExecutor.getStats().getActive());
+            metrics.gauge("db_executor_queued", "Service calls waiting for a DB executor thread.", false,
+                    () -> dbExecutor.getStats().getQueued());
+            metrics.gauge("db_executor_rejected_total", "Service calls turned away with 503.", true,
+                    () -> dbExecutor.getStats().getRejected());
+        }
+    }
+
+    /**
+     * @return the request metrics of every route
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param writes the limiter of the routes that write rather than of the GET routes
+     * @return the adaptive concurrency limiter, for its limit and counters; null when disabled
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter(boolean writes) {
+        return writes ? writeLimiter : readLimiter;
+    }
+
+    /**
+     * @return the executor running the service calls in async mode, for its stats; null otherwise
+     */
+    public DbExecutor getDbExecutor() {
+        return dbExecutor;
+    }
+
+// --------------------------------------------------------------------------------------------
+
+    /**
+     * The part of a handler that writes the response from the result of its service call.
+     */
+    @FunctionalInterface
+    private interface Responder<T> {
+        void respond(T result) throws IOException;
+    }
+
+    /**
+     * The part of a streaming handler that reads from the database while it writes the response.
+     */
+    @FunctionalInterface
+    private interface DbTask {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs call, then hands its result to respond. On the request thread the connection is released in between; in
+     * async mode call runs on the DB executor through ctx.future() and respond on a Jetty thread once it completes,
+     * so the JSON encoding and a slow client's writes hold neither a DB-executor thread nor a pooled connection. A
+     * full queue answers 503 without running either.
+     * 
+     * @param ctx
+     * @param call the service call; it must not touch ctx
+     * @param respond writes the response for the call's result
+     * @throws IOException
+     */
+    private <T> void onDb(Context ctx, Supplier<T> call, Responder<T> respond) throws IOException {
+        if (dbExecutor == null) {
+            T result = call.get();
+            ConnectionUtil.releaseConnection();
+            respond.respond(result);
+            return;
+        }
+
+        CompletableFuture<T> future;
+        try {
+            future = dbExecutor.submit(call);
+        } catch (RejectedExecutionException e) {
+            ctx.status(503);
+            return;
+        }
+        ctx.future(() -> future.thenAcceptAsync(result -> {
+            try {
+                respond.respond(result);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, responseExecutor));
+    }
+
+    /**
+     * Like onDb, for the streaming routes, whose cursor has to stay open while the response is written. In async
+     * mode the whole task therefore runs on the DB executor: a slow client reading a large list holds a DB-executor
+     * thread, and the connection leased to it, until the last byte is written. Clients that may read slowly should
+     * page with limit and cursor instead, which goes through onDb.
+     * 
+     * @param ctx
+     * @param task reads the rows and writes them out as they arrive
+     * @throws IOException
+     */
+    private void onDbStreaming(Context ctx, DbTask task) throws IOException {
+        if (dbExecutor == null) {
+            task.run();
+            return;
+        }
+
+        CompletableFuture<Void> future;
+        try {
+            future = dbExecutor.submit(() -> {
+                try {
+                    task.run();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return null;
+            });
+        } catch (RejectedExecutionException e) {
+            ctx.status(503);
+            return;
+        }
+        ctx.future(() -> future);
+    }
+
+// --------------------------------------------------------------------------------------------
+
+    /**
+     * Charges one message write to the poster's token bucket. A poster out of tokens is answered 429, with a
+     * Retry-After in whole seconds until the next token, and the write is not attempted.
+     * 
+     * @param ctx
+     * @param posted_by the account the write is made for
+     * @return true if the request was throttled and the handler has nothing more to do
+     */
+    private boolean throttled(Context ctx, int posted_by) {
+        if (rateLimiter == null) {
+            return false;
+        }
+        long waitNanos = rateLimiter.tryAcquire(posted_by);
+        if (waitNanos == 0) {
+            return false;
+        }
+        tooManyRequests(ctx, waitNanos);
+        return true;
+    }
+
+    /**
+     * Answers 429, with a Retry-After of waitNanos rounded up to whole seconds.
+     * 
+     * @param ctx
+     * @param waitNanos how long until the bucket has the tokens the write needed
+     */
+    private void tooManyRequests(Context ctx, long waitNanos) {
+        ctx.header(Header.RETRY_AFTER, Long.toString((waitNanos + 999_999_999L) / 1_000_000_000L));
+        ctx.status(429);
+    }
+
+    /**
+     * Charges a batch of message writes, one token per message, to the posters' token buckets, all of them or none.
+     * A batch with more messages for one poster than a bucket holds could never be admitted and is answered 400,
+     * to be split; otherwise a poster short of tokens gets the batch answered 429 as in throttled(ctx, posted_by).
+     * 
+     * @param ctx
+     * @param perPoster the number of messages in the batch for each poster
+     * @return true if the request was refused and the handler has nothing more to do
+     */
+    private boolean throttled(Context ctx, Map<Integer, Integer> perPoster) {
+        if (rateLimiter == null || perPoster.isEmpty()) {
+            return false;
+        }
+        int[] posters = new int[perPoster.size()];
+        int[] permits = new int[perPoster.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : perPoster.entrySet()) {
+            if (entry.getValue() > rateLimiter.getBurst()) {
+                ctx.status(400);
+                return true;
+            }
+            posters[i] = entry.getKey();
+            permits[i++] = entry.getValue();
+        }
+        long waitNanos = rateLimiter.tryAcquireAll(posters, permits);
+        if (waitNanos == 0) {
+            return false;
+        }
+        tooManyRequests(ctx, waitNanos);
+        return true;
+    }
+
     /**
      * HANDLER to post a new message (insert message into the database)
      * 
      * @param ctx app.post above makes ctx available for this method, handles http request and response
-     * @throws JsonProcessingException
+     * @throws IOException
      */
-    private void postMessageHandler(Context ctx) throws JsonProcessingException {
-        // Jackson ObjectMapper converst JSON of the POST request into a Message object
-        ObjectMapper mapper = new ObjectMapper();
-        Message message = mapper.readValue(ctx.body(), Message.class);
-        Message addedMessage = messageService.addMessage(message);
+    private void postMessageHandler(Context ctx) throws IOException {
+        // The shared Message reader converts JSON of the POST request into a Message object
+        Message message = JsonCodec.MESSAGE_READER.readValue(ctx.bodyAsBytes());
+        if (throttled(ctx, message.getPosted_by())) {
+            return;
+        }
+        onDb(ctx, () -> messageService.addMessage(message), addedMessage -> {
+            // If messageService returns a null (post unsuccessful) the API will return 400 message (client error).
+            if(addedMessage == null) {
+                ctx.status(400);
+            // else, write it out as JSON
+            } else {
+                writeJson(ctx, addedMessage);
+            }
+        });
+    }
+
+// --------------------------------------------------------------------------------------------
 
-        // If messageService returns a null (post unsuccessful) the API will return 400 message (client error).
-        if(addedMessage == null) {
+    /**
+     * HANDLER to post a batch of new messages, inserted together in one transaction
+     * 
+     * @param ctx app.post above makes ctx available for this method, handles http request and response
+     * @throws IOException
+     */
+    private void postMessageBatchHandler(Context ctx) throws IOException {
+        // The shared list reader converts the JSON array of the POST request into a list of Message objects
+        List<Message> parsed;
+        try {
+            parsed = JsonCodec.MESSAGE_LIST_READER.readValue(ctx.bodyAsBytes());
+        } catch (JsonProcessingException e) {
             ctx.status(400);
-        // else, convert to JSON, if issue arises, throw JsonProcessingException
-        } else {
-            ctx.json(mapper.writeValueAsString(addedMessage));
+            return;
+        }
+
+        // Reject a missing array or one that is too large to run as a single transaction
+        if (parsed == null || parsed.size() > MAX_BATCH_SIZE) {
+            ctx.status(400);
+            return;
+        }
+        List<Message> messages = parsed;
+
+        // One token per message, charged to its poster; every poster must have enough before any is charged
+        Map<Integer, Integer> perPoster = new HashMap<>();
+        for (Message message : messages) {
+            if (message != null) {
+                perPoster.merge(message.getPosted_by(), 1, Integer::sum);
+            }
+        }
+        if (throttled(ctx, perPoster)) {
+            return;
         }
+
+        // One result per message, in request order: its message_id, or the error that kept it out
+        onDb(ctx, () -> messageService.addMessages(messages), results -> writeJson(ctx, results));
     }
 
 // --------------------------------------------------------------------------------------------    
@@ -78,21 +554,29 @@ public class SocialMediaController {
      * HANDLER to post a new account (insert account into the database)
      * 
      * @param ctx app.post above makes ctx available for this method, handles http request and response
-     * @throws JsonProcessingException
+     * @throws IOException
      */
-    private void postAccountHandler(Context ctx) throws JsonProcessingException {
-        // Jackson ObjectMapper converts JSON of the POST request into a Account object
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(ctx.body(), Account.class);
-        Account addedAccount = accountService.addAccount(account);
-
-        // If accountService returns a null (post unsuccessful) the API will return 400 account (client error).
-        if(addedAccount.username == null) {
-            ctx.status(400);
-        // else, convert to JSON, if issue arises, throw JsonProcessingException
-        } else {
-            ctx.json(mapper.writeValueAsString(addedAccount));
-        }
+    private void postAccountHandler(Context ctx) throws IOException {
+        // The shared Account reader converts JSON of the POST request into a Account object
+        Account account = JsonCodec.ACCOUNT_READER.readValue(ctx.bodyAsBytes());
+        onDb(ctx, () -> {
+            try {
+                return accountService.addAccount(account);
+            } catch (RejectedExecutionException e) {
+                // Too many passwords already waiting to be hashed
+                return null;
+            }
+        }, addedAccount -> {
+            if (addedAccount == null) {
+                ctx.status(503).header(Header.RETRY_AFTER, "1");
+            // If accountService returns a null (post unsuccessful) the API will return 400 account (client error).
+            } else if(addedAccount.username == null) {
+                ctx.status(400);
+            // else, write it out as JSON
+            } else {
+                writeJson(ctx, addedAccount);
+            }
+        });
     }
     
 // --------------------------------------------------------------------------------------------
@@ -101,38 +585,288 @@ public class SocialMediaController {
      * Handles update requests
      * 
      * @param ctx
-     * @throws JsonProcessingException
+     * @throws IOException
      */
-    private void updateMessageHandler(Context ctx) throws JsonProcessingException {
+    private void updateMessageHandler(Context ctx) throws IOException {
         
-        // Object mapper to read request body
-        ObjectMapper mapper = new ObjectMapper();
-        Message message = mapper.readValue(ctx.body(), Message.class);
+        // Shared Message reader for the request body
+        Message message = JsonCodec.MESSAGE_READER.readValue(ctx.bodyAsBytes());
 
         // obtain message id, then use the id and message to update
         int message_id = Integer.parseInt(ctx.pathParam("message_id"));
-        Message updatedMessage = messageService.updateMessage(message_id, message);
+        // The body names no poster, so the message's poster is charged: before any database work when memory knows
+        // it, otherwise once the message has been read on the database path
+        Integer knownPoster = messageService.getKnownPoster(message_id);
+        if (knownPoster != null && throttled(ctx, knownPoster)) {
+            return;
+        }
 
-        System.out.println(updatedMessage);
+        AtomicLong retryAfterNanos = new AtomicLong();
+        onDb(ctx, () -> {
+            if (knownPoster == null && rateLimiter != null) {
+                Message existing = messageService.getMessageById(message_id);
+                if (existing == null) {
+                    return null;
+                }
+                long waitNanos = rateLimiter.tryAcquire(existing.getPosted_by());
+                if (waitNanos > 0) {
+                    retryAfterNanos.set(waitNanos);
+                    return null;
+                }
+            }
+            return messageService.updateMessage(message_id, message);
+        }, updatedMessage -> {
+            System.out.println(updatedMessage);
 
-        // If accountService returns a null (post unsuccessful) the API will return 400 account (client error).
-        if (updatedMessage == null) {
-            ctx.status(400);
-        // else, convert to JSON, if issue arises, throw JsonProcessingException 
-        } else {
-            ctx.json(mapper.writeValueAsString(updatedMessage));
-        }
+            if (retryAfterNanos.get() > 0) {
+                tooManyRequests(ctx, retryAfterNanos.get());
+            // If accountService returns a null (post unsuccessful) the API will return 400 account (client error).
+            } else if (updatedMessage == null) {
+                ctx.status(400);
+            // else, write it out as JSON
+            } else {
+                writeJson(ctx, updatedMessage);
+            }
+        });
     }
 
 // --------------------------------------------------------------------------------------------
 
     // HANDLER FOR retrieving all messages
     /**
+     * Returns every message, the messages posted in a time range when the since or until query parameter is present,
+     * or one page of messages when the limit or cursor query parameter is present. Each is tagged with an ETag and
+     * answered with a 304 when it is unchanged.
      * 
      * @param ctx the context object handles information HTTP requests and generates responses within Javalin.
      */
-    private void getAllMessagesHandler(Context ctx) {
-        ctx.json(messageService.getAllMessages());
+    private void getAllMessagesHandler(Context ctx) throws IOException {
+        if (isRangeRequest(ctx)) {
+            rangeMessages(ctx, null);
+        } else if (isPageRequest(ctx)) {
+            pageMessages(ctx, null);
+        } else {
+            streamMessages(ctx, null);
+        }
+    }
+
+// --------------------------------------------------------------------------------------------
+
+    /**
+     * Writes messages to the response as a JSON array while they are being read from the database, so a large list
+     * needs no more memory than a single message and the first bytes go out before the last row is read. In async
+     * mode that means the writes happen on the DB executor (see onDbStreaming).
+     * 
+     * @param ctx
+     * @param posted_by only write the messages of this account, or null for all messages
+     * @throws IOException
+     */
+    private void streamMessages(Context ctx, Integer posted_by) throws IOException {
+        if (notModified(ctx)) {
+            return;
+        }
+        onDbStreaming(ctx, () -> writeMessageStream(ctx, consumer -> messageService.streamMessages(posted_by, consumer)));
+    }
+
+    private void writeMessageStream(Context ctx, Consumer<Consumer<Message>> source) throws IOException {
+        tagResponse(ctx);
+        ctx.contentType(ContentType.APPLICATION_JSON);
+
+        // Not closed on failure: closing would end the array and pass a cut-off list for a complete one
+        JsonGenerator generator = JsonCodec.createGenerator(ctx.outputStream());
+        generator.writeStartArray();
+        try {
+            source.accept(message -> {
+                try {
+                    JsonCodec.MESSAGE_WRITER.writeValue(generator, message);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            // The client went away mid-stream; nothing more can be sent
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            // The read failed, maybe after part of the list went out: drop the connection so the client sees an
+            // incomplete response instead of a short 200
+            Request.getBaseRequest(ctx.req()).getHttpChannel().abort(e);
+            throw e;
+        }
+        generator.writeEndArray();
+        generator.close();
+    }
+
+// --------------------------------------------------------------------------------------------
+
+    /**
+     * Conditional GET for message reads. The version tag of MessageService is taken before the read so the body is
+     * never older than it. When If-None-Match is * or already names that tag, the response is a 304 without a body,
+     * decided before any database work. Otherwise the tag is kept for the response, and sent only with its body (see
+     * tagResponse), so an error answer carries no tag a client could cache it under.
+     * 
+     * Every message read answers 200 with a representation, an empty body for a message that does not exist, so *
+     * always matches.
+     * 
+     * @param ctx
+     * @return true if the response is a 304 and the handler has nothing more to do
+     */
+    private boolean notModified(Context ctx) {
+        String etag = "\"" + messageService.getVersionTag() + "\"";
+
+        String ifNoneMatch = ctx.header(Header.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            // A list of tags, any of which may match; weak tags compare by their value
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals(etag) || tag.equals("*")) {
+                    ctx.header(Header.ETAG, etag);
+                    ctx.status(304);
+                    return true;
+                }
+            }
+        }
+        ctx.attribute(ETAG, etag);
+        return false;
+    }
+
+    /**
+     * Adds the ETag that notModified() took for this request, if any, to a 200 response about to be written.
+     * 
+     * @param ctx
+     */
+    private void tagResponse(Context ctx) {
+        String etag = ctx.attribute(ETAG);
+        if (etag != null) {
+            ctx.header(Header.ETAG, etag);
+        }
+    }
+
+// --------------------------------------------------------------------------------------------
+
+    /**
+     * @param ctx
+     * @return true if the client asked for the messages of a time range
+     */
+    private boolean isRangeRequest(Context ctx) {
+        return ctx.queryParam("since") != null || ctx.queryParam("until") != null;
+    }
+
+    /**
+     * Streams the messages posted from since (inclusive) to until (exclusive), oldest first; either bound may be left
+     * out. A bound that is not a number, since after until, or a limit or cursor alongside them results in a 400.
+     * 
+     * @param ctx
+     * @param posted_by the account whose messages to return, or null for all messages
+     */
+    private void rangeMessages(Context ctx, Integer posted_by) throws IOException {
+        Long since;
+        Long until;
+        try {
+            String sinceParam = ctx.queryParam("since");
+            String untilParam = ctx.queryParam("until");
+            since = sinceParam == null ? null : Long.valueOf(sinceParam);
+            until = untilParam == null ? null : Long.valueOf(untilParam);
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            return;
+        }
+        // Checked here because a streamed response cannot turn into a 400 once it has started
+        if (isPageRequest(ctx) || (since != null && until != null && since > until)) {
+            ctx.status(400);
+            return;
+        }
+        if (notModified(ctx)) {
+            return;
+        }
+
+        onDbStreaming(ctx, () -> writeMessageStream(ctx,
+                consumer -> messageService.streamMessagesByTime(posted_by, since, until, consumer)));
+    }
+
+    /**
+     * @param ctx
+     * @return true if the client asked for a page rather than the whole list
+     */
+    private boolean isPageRequest(Context ctx) {
+        return ctx.queryParam("limit") != null || ctx.queryParam("cursor") != null;
+    }
+
+    /**
+     * Responds with one page of messages, using the limit, cursor and order (id or time) query parameters. Without
+     * an order the cursor's own order is used, so a next_cursor can be sent back as it is. An invalid parameter, or
+     * an order the cursor does not belong to, results in a 400.
+     * 
+     * @param ctx
+     * @param posted_by the account whose messages to page through, or null for all messages
+     */
+    private void pageMessages(Context ctx, Integer posted_by) throws IOException {
+        int limit;
+        PageCursor.Order order;
+        try {
+            String limitParam = ctx.queryParam("limit");
+            limit = limitParam == null ? 100 : Integer.parseInt(limitParam);
+            String orderParam = ctx.queryParam("order");
+            order = orderParam == null ? null : PageCursor.Order.valueOf(orderParam.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            ctx.status(400);
+            return;
+        }
+        String cursor = ctx.queryParam("cursor");
+        if (notModified(ctx)) {
+            return;
+        }
+
+        onDb(ctx, () -> {
+            try {
+                return messageService.getMessagesPage(posted_by, limit, cursor, order);
+            } catch (IllegalArgumentException e) {
+                // A malformed cursor or an out-of-range limit
+                return null;
+            }
+        }, page -> {
+            if (page == null) {
+                ctx.status(400);
+            } else {
+                writeJson(ctx, page);
+            }
+        });
+    }
+
+// --------------------------------------------------------------------------------------------
+
+    /**
+     * HANDLER FOR keyword search: q holds the words to look for and limit (default 20) the most messages to return.
+     * A missing query, one without words, or an invalid limit results in a 400.
+     * 
+     * @param ctx
+     */
+    private void searchMessagesHandler(Context ctx) throws IOException {
+        String query = ctx.queryParam("q");
+        int limit;
+        try {
+            String limitParam = ctx.queryParam("limit");
+            limit = limitParam == null ? 20 : Integer.parseInt(limitParam);
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            return;
+        }
+
+        onDb(ctx, () -> {
+            try {
+                return messageService.searchMessages(query, limit);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }, results -> {
+            if (results == null) {
+                ctx.status(400);
+            } else {
+                writeJson(ctx, results);
+            }
+        });
     }
 
 // --------------------------------------------------------------------------------------------
@@ -142,23 +876,28 @@ public class SocialMediaController {
      * 
      * @param ctx
      */
-    private void getMessageByIdHandler(Context ctx) {
+    private void getMessageByIdHandler(Context ctx) throws IOException {
         
         // Get message id
         int message_id = Integer.parseInt(ctx.pathParam("message_id"));
-        
-        // If the message exists, return the message
-        if (messageService.messageExists(message_id) == true) {
-
-            Message message = messageService.getMessageById(message_id);
-            ctx.json(message);
-        // if not, return empty response body
-        } else {
-            // return empty body
-            String str = "";
-            ctx.json(str);
+        if (notModified(ctx)) {
+            return;
         }
         
+        // One lookup: null means the message does not exist
+        onDb(ctx, () -> messageService.getMessageById(message_id), message -> {
+            // If the message exists, return the message
+            if (message != null) {
+                writeJson(ctx, message);
+            // if not, return empty response body
+            } else {
+                // return empty body
+                String str = "";
+                tagResponse(ctx);
+                ctx.json(str);
+            }
+        });
+        
     }
 
 // --------------------------------------------------------------------------------------------
@@ -168,13 +907,19 @@ public class SocialMediaController {
      * 
      * @param ctx
      */
-    private void getUserMessagesHandler(Context ctx) {
+    private void getUserMessagesHandler(Context ctx) throws IOException {
             
         // obtain account id,
         int account_id = Integer.parseInt(ctx.pathParam("account_id"));
         
-        // Get the message by account_id
-        ctx.json(messageService.getUserMessages(account_id));
+        // Get the messages by account_id, those of a time range, or one page of them
+        if (isRangeRequest(ctx)) {
+            rangeMessages(ctx, account_id);
+        } else if (isPageRequest(ctx)) {
+            pageMessages(ctx, account_id);
+        } else {
+            streamMessages(ctx, account_id);
+        }
     }
 
 // --------------------------------------------------------------------------------------------
@@ -184,19 +929,18 @@ public class SocialMediaController {
      * 
      * @param ctx
      */
-    private void deleteMessageHandler(Context ctx) {
+    private void deleteMessageHandler(Context ctx) throws IOException {
 
         // obtain message id,
         int message_id = Integer.parseInt(ctx.pathParam("message_id"));
         
-        // if message exists in the database, select the message and then delete it
-        if (messageService.messageExists(message_id) == true) {
-            ctx.json(messageService.getMessageById(message_id));
-            messageService.deleteMessage(message_id);
-            // if the message does not appear in the database, delete it anyway
-        } else {
-            messageService.deleteMessage(message_id);
-        }
+        // Delete the message and get it back in one statement
+        onDb(ctx, () -> messageService.deleteMessage(message_id), deletedMessage -> {
+            // if the message existed, return it; if not, the response body stays empty
+            if (deletedMessage != null) {
+                writeJson(ctx, deletedMessage);
+            }
+        });
     }
 // --------------------------------------------------------------------------------------------
 
@@ -205,22 +949,70 @@ public class SocialMediaController {
      * 
      * @param ctx
      */
-    private void loginHandler(Context ctx) throws JsonProcessingException {
+    private void loginHandler(Context ctx) throws IOException {
         
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(ctx.body(), Account.class);
+        Account account = JsonCodec.ACCOUNT_READER.readValue(ctx.bodyAsBytes());
               
         // String username = ctx.formParam("username");
         // String password = ctx.formParam("password");
 
-        Account verifiedAccount = accountService.getAccount(account.username, account.password);
+        // Fetches the account and checks the password hash; no match leaves the username null
+        onDb(ctx, () -> {
+            try {
+                return accountService.getAccount(account.username, account.password);
+            } catch (RejectedExecutionException e) {
+                // Too many passwords already waiting to be checked
+                return null;
+            }
+        }, verifiedAccount -> {
+            if (verifiedAccount == null) {
+                ctx.status(503).header(Header.RETRY_AFTER, "1");
+            // If the username and password are correct, "Login succcessful"
+            } else if(verifiedAccount.username != null) {
+                writeJson(ctx, verifiedAccount);
+            // If not, Unauthorized response
+            } else {
+                ctx.status(401);
+            }
+        });
+    }
 
-        // If the username and password are correct, "Login succcessful"
-        if(accountService.verifyUser(account.username, account.password)) {
-            ctx.json(verifiedAccount);
-        // If not, Unauthorized response
-        } else {
-            ctx.status(401);
-        }
+// --------------------------------------------------------------------------------------------
+
+    /**
+     * HANDLER FOR the metrics scrape, in the Prometheus text exposition format
+     * 
+     * @param ctx
+     */
+    private void metricsHandler(Context ctx) {
+        ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+        ctx.result(metrics.scrape());
+    }
+
+    /**
+     * HANDLER FOR the per-statement database stats, the statement with the most total time first. The list is
+     * empty unless the server runs with db.instrument=true.
+     * 
+     * @param ctx
+     */
+    private void queryStatsHandler(Context ctx) throws IOException {
+        writeJson(ctx, ConnectionUtil.getQueryStats());
+    }
+
+// --------------------------------------------------------------------------------------------
+
+    /**
+     * Sends value as the JSON response body, encoded by the shared codec straight into the response stream in one
+     * pass, rather than into a String that is then encoded again as bytes. The answer to a conditional read gets its
+     * ETag here.
+     * 
+     * @param ctx
+     * @param value the object to send
+     * @throws IOException if the client went away
+     */
+    private void writeJson(Context ctx, Object value) throws IOException {
+        tagResponse(ctx);
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        JsonCodec.writeTo(value, ctx.outputStream());
     }
-}
\ No newline at end of file
+}
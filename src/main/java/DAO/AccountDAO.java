@@ -2,6 +2,9 @@ package DAO;
 
 // Java Built-in Imports
 import java.sql.*;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
 // Imports of classes from this project
 import Model.Account; // To enable access to the Account class and the ability to create Account objects
@@ -55,7 +58,8 @@ public class AccountDAO {
 // --------------------------------------------------------------------------------------
     
     /**
-     * METHOD FOR checking if a username already exists in the database
+     * METHOD FOR checking if a username already exists in the database. Registration hashes the password next,
+     * which may take a while, so the connection lease is handed back as soon as the answer is read.
      * 
      * @param account an Account object containing the username entered,
      * @return boolean value: true if username already exists, false if it does not exist
@@ -88,6 +92,8 @@ public class AccountDAO {
         } catch(SQLException e) {
             System.out.println(e.getMessage());
 
+        } finally {
+            ConnectionUtil.releaseConnection();
         }
         return userExists;
     }
@@ -97,85 +103,122 @@ public class AccountDAO {
 // -------------------------------------------------------------------------------------
 
     /**
-     * METHOD FOR authentication: Verify the username & password in the database
+     * METHOD FOR fetching an account by username, for login. The password column holds a PBKDF2 hash, or the
+     * plaintext password for accounts registered before passwords were hashed; AccountService checks it. The
+     * check may wait for a hashing thread, so the connection lease is handed back as soon as the row is read.
      * 
-     * @param account an Account object containing the username and password entered, 
-     * which are compared to the actual username and password in the database
-     * @return a boolean value: true if credentials match values in the database, otherwise returns false 
-     */
-    public boolean verifyUser(String username, String password) {
+     * @param username The username entered
+     * @return the account, including account_id, username & the stored password, or null if there is none
+     */    
+    public Account getAccountByUsername(String username) {
+
         // Establish connection
         Connection connection = ConnectionUtil.getConnection();
 
-        // Boolean variable for telling if username & password appear together.
-        boolean confirmUser = false;
-
         try {
-            // SQL statement: Look for row with current username & password
-            String sql = "SELECT username, password FROM account WHERE (username = ?) AND (password = ?);";
-            
+
+            // Create variable to hold sql SELECT statement
+            String sql = "SELECT * FROM account WHERE username = ?;";
+
             // Create preparedStatement
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
-
-            // Prepared statement methods (dynamically set username and password for query)
+            
+            // Prepared statement methods (dynamically set username for query)
             preparedStatement.setString(1, username);
-            preparedStatement.setString(2, password);
 
             // Execute the query and store it as ResultSet object
             ResultSet rs = preparedStatement.executeQuery();
-            
-            // If any rows returned, confirm user
-            if(rs.first()) {
-                confirmUser = true;
-            } 
 
-        } catch(SQLException e) {
-            System.out.println(e.getMessage());
+            if(rs.next()) {
+                return new Account(rs.getInt("account_id"), rs.getString("username"), rs.getString("password"));
+            }
 
+        } catch(SQLException e) {
+            e.printStackTrace();
+        } finally {
+            ConnectionUtil.releaseConnection();
         }
-        return confirmUser;
+        return null;
     }
 
 // ---------------------------------------------------------------------------------------
 
     /**
+     * METHOD FOR replacing a stored password, e.g. a legacy plaintext one with its hash. The update only applies
+     * while the row still holds the expected value, so of two logins rehashing the same account at once only one
+     * write lands, and a password changed in the meantime is never overwritten.
      * 
-     * @param username The username entered
-     * @param password the password entered
-     * @return the account, including account_id, username & password
-     */    
-    public Account getAccount(String username, String password) {
+     * @param account_id the account to update
+     * @param expected the password value read from the row
+     * @param password the new value to store
+     * @return true if the row was updated
+     */
+    public boolean updatePassword(int account_id, String expected, String password) {
 
         // Establish connection
         Connection connection = ConnectionUtil.getConnection();
 
-        Account verifiedAccount = new Account();
-
         try {
+            // SQL statement: compare-and-set on the password column
+            String sql = "UPDATE account SET password = ? WHERE account_id = ? AND password = ?;";
+
+            // Create preparedStatement
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+
+            // Prepared statement methods (dynamically set the new value, id and expected value)
+            preparedStatement.setString(1, password);
+            preparedStatement.setInt(2, account_id);
+            preparedStatement.setString(3, expected);
+
+            return preparedStatement.executeUpdate() > 0;
+
+        } catch(SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
+
+// ---------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR finding which of the given account_ids belong to existing accounts, in a single query
+     * 
+     * @param account_ids the ids to look up
+     * @return the subset of account_ids that exist in the database
+     */
+    public Set<Integer> getExistingAccountIds(Collection<Integer> account_ids) {
 
-            // Create variable to hole sql SELECT statement
-            String sql = "SELECT * FROM account WHERE (username = ?) AND (password = ?);";
+        // Set for the ids found in the database
+        Set<Integer> existing = new HashSet<>();
+
+        if (account_ids.isEmpty()) {
+            return existing;
+        }
+
+        // Establish connection
+        Connection connection = ConnectionUtil.getConnection();
+
+        try {
+            // SQL statement: match every id against an array parameter so one statement serves any number of ids
+            String sql = "SELECT account_id FROM account WHERE account_id = ANY(?);";
 
             // Create preparedStatement
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            
-            // Prepared statement methods (dynamically set username and password for query)
-            preparedStatement.setString(1, username);
-            preparedStatement.setString(2, password);
+
+            // Prepared statement methods (dynamically set the array of ids for query)
+            preparedStatement.setArray(1, connection.createArrayOf("INTEGER", account_ids.toArray()));
 
             // Execute the query and store it as ResultSet object
             ResultSet rs = preparedStatement.executeQuery();
 
-            // Traverse through results to get each column, even if empty
-            if(rs.next()) {
-                Account account =  new Account(rs.getInt("account_id"), rs.getString("username"), rs.getString("password"));
-                verifiedAccount = account;
+            // Collect every id that was found
+            while(rs.next()) {
+                existing.add(rs.getInt("account_id"));
             }
 
         } catch(SQLException e) {
-            e.printStackTrace();
+            System.out.println(e.getMessage());
         }
-        // Return the message
-        return verifiedAccount;
+        return existing;
     }
 }
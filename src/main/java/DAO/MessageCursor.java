@@ -0,0 +1,91 @@
+package DAO;
+
+// Java Built-in Imports
+import java.sql.*;
+
+// Imports of classes from this project
+import Model.Message; // To enable access to the Message class and the ability to create Message objects
+
+/*
+ *  An open message query, read one row at a time. The connection runs it with lazy execution, so the database
+ *  produces rows as they are read instead of building the whole result up front, and only the current row is held in
+ *  memory. That lets several cursors, one per shard, be merged without reading any of them ahead.
+ *
+ *  Closing the cursor closes the query and switches lazy execution off again.
+ */
+public class MessageCursor implements AutoCloseable {
+
+    private final PreparedStatement preparedStatement;
+    private final Statement session;
+    private ResultSet rs;
+
+    private MessageCursor(PreparedStatement preparedStatement, Statement session) {
+        this.preparedStatement = preparedStatement;
+        this.session = session;
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * Executes preparedStatement lazily on connection. Whatever happens, the statement is owned by the cursor from
+     * here on: it is closed along with the cursor, or straight away if the query cannot be started.
+     *
+     * @param connection the connection preparedStatement belongs to
+     * @param preparedStatement a message query, with its parameters set
+     * @return the cursor, before its first row
+     * @throws SQLException
+     */
+    static MessageCursor open(Connection connection, PreparedStatement preparedStatement) throws SQLException {
+        Statement session;
+        try {
+            session = connection.createStatement();
+        } catch (SQLException e) {
+            preparedStatement.close();
+            throw e;
+        }
+
+        MessageCursor cursor = new MessageCursor(preparedStatement, session);
+        try {
+            session.execute("SET LAZY_QUERY_EXECUTION TRUE");
+            cursor.rs = preparedStatement.executeQuery();
+        } catch (SQLException | RuntimeException e) {
+            try {
+                cursor.close();
+            } catch (SQLException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+        return cursor;
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * @return the next message in the query's order, or null once there are no more
+     * @throws SQLException
+     */
+    public Message next() throws SQLException {
+        if (!rs.next()) {
+            return null;
+        }
+        return new Message(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * Closes the result and the statement, then switches the connection back to building results up front.
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException {
+        try (Statement session = this.session; PreparedStatement preparedStatement = this.preparedStatement) {
+            if (rs != null) {
+                rs.close();
+            }
+            session.execute("SET LAZY_QUERY_EXECUTION FALSE");
+        }
+    }
+}
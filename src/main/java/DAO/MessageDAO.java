@@ -3,7 +3,9 @@ package DAO;
 // Java Built-in Imports
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 // Imports of classes from this project
 // import Model.Account; // To enable access to the Account class and the ability to create Account objects
@@ -57,15 +59,15 @@ public class MessageDAO {
      * **METHOD** FOR retrieving a message from the database by message_id.
      * 
      * @param message_id the id for a specific message
-     * @return message
+     * @return message, or null if no message has that id
      */
     public Message getMessageById(int message_id) {
 
         // Establish connection
         Connection connection = ConnectionUtil.getConnection();
 
-        // Create empty arraylist for the messages
-        Message myMessage = new Message();
+        // Stays null unless the message is found
+        Message myMessage = null;
 
         try {
 
@@ -94,6 +96,50 @@ public class MessageDAO {
         return myMessage;
     } 
 
+// -------------------------------------------------------------------------------------
+
+    /**
+     * **METHOD** FOR retrieving several messages by message_id with a single query.
+     * 
+     * @param message_ids the ids to look up
+     * @return the messages found, in no particular order; ids that do not exist are left out
+     */
+    public List<Message> getMessagesByIds(Collection<Integer> message_ids) {
+
+        // List for the messages found in the database
+        List<Message> messages = new ArrayList<>();
+
+        if (message_ids.isEmpty()) {
+            return messages;
+        }
+
+        // Establish connection
+        Connection connection = ConnectionUtil.getConnection();
+
+        try {
+            // SQL statement: match every id against an array parameter so one statement serves any number of ids
+            String sql = "SELECT * FROM message WHERE message_id = ANY(?);";
+
+            // Create preparedStatement
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+
+            // Prepared statement methods (dynamically set the array of ids for query)
+            preparedStatement.setArray(1, connection.createArrayOf("INTEGER", message_ids.toArray()));
+
+            // Execute the query and store it as ResultSet object
+            ResultSet rs = preparedStatement.executeQuery();
+
+            // Collect every message that was found
+            while(rs.next()) {
+                messages.add(new Message(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"), rs.getLong("time_posted_epoch")));
+            }
+
+        } catch(SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        return messages;
+    }
+
 // -------------------------------------------------------------------------------------
 
     /**
@@ -138,6 +184,74 @@ public class MessageDAO {
         return null;
     }
 
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR creating many messages at once. All rows are sent as one JDBC batch and committed in a single
+     * transaction, so either every message is inserted or none is. ShardedMessageDAO commits per shard instead, and
+     * may return null at the positions of a shard that failed, so callers check each position.
+     * 
+     * @param messages objects containing messages, which do not contain a message_id
+     * @return the inserted messages with their generated message_id, in the same order, or null if the batch failed
+     */
+    public List<Message> insertMessages(List<Message> messages) {
+        // Establish connection
+        Connection connection = ConnectionUtil.getConnection();
+
+        // Create empty arraylist for the inserted messages
+        List<Message> inserted = new ArrayList<>();
+
+        if (messages.isEmpty()) {
+            return inserted;
+        }
+
+        try {
+            // String variable for sql statement
+            String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?);";
+
+            // Prepared Statement
+            PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+
+            // Run the whole batch in one transaction
+            connection.setAutoCommit(false);
+
+            try {
+                // Add one set of parameters to the batch per message
+                for (Message message : messages) {
+                    preparedStatement.setInt(1, message.getPosted_by());
+                    preparedStatement.setString(2, message.getMessage_text());
+                    preparedStatement.setLong(3, message.getTime_posted_epoch());
+                    preparedStatement.addBatch();
+                }
+
+                // Execute batch
+                preparedStatement.executeBatch();
+
+                // Get the keys, one per inserted row, in insertion order
+                ResultSet rsKeys = preparedStatement.getGeneratedKeys();
+                for (Message message : messages) {
+                    if (!rsKeys.next()) {
+                        throw new SQLException("Missing generated key for batched insert");
+                    }
+                    int auto_gen_id = (int) rsKeys.getLong(1);
+                    inserted.add(new Message(auto_gen_id, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch()));
+                }
+
+                connection.commit();
+            } catch(SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+        } catch(SQLException e) {
+            System.out.println(e.getMessage());
+            return null;
+        }
+        return inserted;
+    }
+
 // -------------------------------------------------------------------------------------
 
     /**
@@ -181,20 +295,24 @@ public class MessageDAO {
 // -------------------------------------------------------------------------------------
 
     /**
-     * METHOD FOR updating a message in the database by message_id
+     * METHOD FOR updating a message in the database by message_id. The UPDATE is wrapped in FINAL TABLE so the
+     * updated row comes back from the same statement, with no separate existence check or re-read.
      * 
      * @param message_id the id for a specific message
      * @param message an object containing a message, which does not contain a message_id
-     * @return message: The updated message
+     * @return message: The updated message, or null if no message has that id
      */
-    public void updateMessage(int message_id, Message upMessage) {
+    public Message updateMessage(int message_id, Message upMessage) {
         // Establish connection
         Connection connection = ConnectionUtil.getConnection();
 
+        // Stays null unless a row was updated
+        Message updated = null;
+
         try {
             
-            // String variable for sql statement
-            String sql = "UPDATE message SET message_text = ? WHERE message_id = ?;";
+            // String variable for sql statement: update and read back the new row in one round trip
+            String sql = "SELECT * FROM FINAL TABLE (UPDATE message SET message_text = ? WHERE message_id = ?);";
             
             // Prepared Statement
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
@@ -203,31 +321,39 @@ public class MessageDAO {
             preparedStatement.setString(1, upMessage.getMessage_text());
             preparedStatement.setInt(2, message_id);
             
-            // Exceute update
-            int updatedRows = preparedStatement.executeUpdate();
-            System.out.println(updatedRows);
+            // Execute update, which returns the updated row if there was one
+            ResultSet rs = preparedStatement.executeQuery();
+            if(rs.next()) {
+                updated = new Message(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+            }
 
         } catch(SQLException e) {
             System.out.println(e.getMessage());
         }
+        return updated;
     }
     
 // -------------------------------------------------------------------------------------
 
     // 
     /**
-     * METHOD FOR deleting a message from the database by message_id
+     * METHOD FOR deleting a message from the database by message_id. The DELETE is wrapped in OLD TABLE so the
+     * deleted row comes back from the same statement, with no separate existence check or read beforehand.
      * 
      * @param message_id the id of a message
+     * @return the message as it was before being deleted, or null if no message has that id
      */
-    public void deleteMessage(int message_id){
+    public Message deleteMessage(int message_id){
         // Establish connection
         Connection connection = ConnectionUtil.getConnection();
 
+        // Stays null unless a row was deleted
+        Message deleted = null;
+
         try {
             
-            // String variable for sql statement
-            String sql = "DELETE FROM message WHERE message_id = ?;";
+            // String variable for sql statement: delete and return the old row in one round trip
+            String sql = "SELECT * FROM OLD TABLE (DELETE FROM message WHERE message_id = ?);";
 
             // Prepared Statement
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
@@ -235,13 +361,17 @@ public class MessageDAO {
             // Prepared Statement set methods
             preparedStatement.setInt(1, message_id);
 
-            // Execute query
-            preparedStatement.executeUpdate();
+            // Execute query, which returns the deleted row if there was one
+            ResultSet rs = preparedStatement.executeQuery();
+            if(rs.next()) {
+                deleted = new Message(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+            }
 
         } catch(SQLException e) {
             System.out.println(e.getMessage());
 
         }
+        return deleted;
     }
 
 // -------------------------------------------------------------------------------------
@@ -261,7 +391,8 @@ public class MessageDAO {
 
         try {
             // Create variable to hold sql SELECT statement that returns all messages for 
-            String sql = "SELECT * FROM message WHERE posted_by = ?;";
+            // posted_by leads the ORDER BY, a no-op for one account, so that H2 reads the order off message_posted_by_id_idx
+            String sql = "SELECT * FROM message WHERE posted_by = ? ORDER BY posted_by, message_id;";
 
             // Create preparedStatement
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
@@ -283,4 +414,194 @@ public class MessageDAO {
         }
         return messages;
     }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR retrieving one page of messages with keyset pagination: the page starts right after the given sort
+     * key instead of at an OFFSET, so the database seeks straight to it through an index and deep pages cost the
+     * same as the first one.
+     * 
+     * @param posted_by only return messages by this account, or null for every account
+     * @param byTime order by (time_posted_epoch, message_id) when true, by message_id when false
+     * @param afterTime the time_posted_epoch of the last message already returned (ignored when ordering by id)
+     * @param afterId the message_id of the last message already returned, 0 for the first page
+     * @param limit the maximum number of messages to return
+     * @return up to limit messages following the given key
+     */
+    public List<Message> getMessagesPage(Integer posted_by, boolean byTime, long afterTime, int afterId, int limit) {
+        // Establish connection
+        Connection connection = ConnectionUtil.getConnection();
+
+        // Create empty arraylist for the messages
+        List<Message> messages = new ArrayList<>();
+
+        try {
+            // Build the SELECT statement: optional poster filter, then the keyset condition for the chosen order.
+            // For time order, the leading "time_posted_epoch >= ?" is what lets the index range scan start at the key.
+            // The ORDER BY names every column of the index that serves it, posted_by included for one account (a
+            // no-op there), or H2 sorts all the rows after the key instead of reading the first limit off the index
+            String sql = "SELECT * FROM message WHERE "
+                    + (posted_by != null ? "posted_by = ? AND " : "")
+                    + (byTime
+                        ? "time_posted_epoch >= ? AND (time_posted_epoch > ? OR message_id > ?) ORDER BY "
+                            + (posted_by != null ? "posted_by, " : "") + "time_posted_epoch, message_id"
+                        : "message_id > ? ORDER BY " + (posted_by != null ? "posted_by, " : "") + "message_id")
+                    + " LIMIT ?;";
+
+            // Create preparedStatement
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+
+            // Set the parameters in the order they appear in the statement
+            int index = 1;
+            if (posted_by != null) {
+                preparedStatement.setInt(index++, posted_by);
+            }
+            if (byTime) {
+                preparedStatement.setLong(index++, afterTime);
+                preparedStatement.setLong(index++, afterTime);
+            }
+            preparedStatement.setInt(index++, afterId);
+            preparedStatement.setInt(index, limit);
+
+            // Execute the query and store it as ResultSet object
+            ResultSet rs = preparedStatement.executeQuery();
+
+            // Traverse through results to get each column
+            while(rs.next()) {
+                Message message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"), rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+                messages.add(message);
+            }
+
+        } catch(SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        return messages;
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR streaming messages from the database, handing each row to the consumer as soon as it is read
+     * instead of collecting them into a list first. The query runs lazily so the database does not materialize
+     * the whole result either.
+     * 
+     * @param posted_by only stream messages by this account, or null for every account
+     * @param consumer receives each message in message_id order
+     * @throws IllegalStateException if the query fails, possibly after some messages have been handed over
+     */
+    public void streamMessages(Integer posted_by, Consumer<Message> consumer) {
+        try (MessageCursor cursor = openMessages(posted_by)) {
+            streamRows(cursor, consumer);
+        } catch(SQLException e) {
+            // Rows may already have gone to the consumer, so end the stream with an error rather than quietly
+            throw new IllegalStateException("Streaming messages failed", e);
+        }
+    }
+
+    /**
+     * METHOD FOR opening a lazy cursor over messages in message_id order, on the current thread's connection
+     * 
+     * @param posted_by only read messages by this account, or null for every account
+     * @return the cursor, to be closed by the caller
+     * @throws SQLException
+     */
+    protected MessageCursor openMessages(Integer posted_by) throws SQLException {
+        // Establish connection
+        Connection connection = ConnectionUtil.getConnection();
+
+        // SELECT statement for every message, or every message of one user
+        String sql = posted_by == null
+                ? "SELECT * FROM message ORDER BY message_id;"
+                : "SELECT * FROM message WHERE posted_by = ? ORDER BY posted_by, message_id;";
+
+        // Create preparedStatement
+        PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        try {
+            if (posted_by != null) {
+                preparedStatement.setInt(1, posted_by);
+            }
+        } catch(SQLException e) {
+            preparedStatement.close();
+            throw e;
+        }
+        return MessageCursor.open(connection, preparedStatement);
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR streaming the messages posted in a time range, oldest first. The range condition on
+     * time_posted_epoch and the order are both served by message_time_id_idx, or message_posted_by_time_id_idx for
+     * one account, so the database seeks to since and stops at until: the cost follows the number of messages
+     * returned rather than the size of the table.
+     * 
+     * @param posted_by only stream messages by this account, or null for every account
+     * @param since the earliest time_posted_epoch to include, or null for no lower bound
+     * @param until the time_posted_epoch to stop before (exclusive), or null for no upper bound
+     * @param consumer receives each message in (time_posted_epoch, message_id) order
+     * @throws IllegalStateException if the query fails, possibly after some messages have been handed over
+     */
+    public void streamMessagesByTime(Integer posted_by, Long since, Long until, Consumer<Message> consumer) {
+        try (MessageCursor cursor = openMessagesByTime(posted_by, since, until)) {
+            streamRows(cursor, consumer);
+        } catch(SQLException e) {
+            // Rows may already have gone to the consumer, so end the stream with an error rather than quietly
+            throw new IllegalStateException("Streaming messages by time failed", e);
+        }
+    }
+
+    /**
+     * METHOD FOR opening a lazy cursor over the messages posted in a time range, in (time_posted_epoch, message_id)
+     * order, on the current thread's connection
+     * 
+     * @param posted_by only read messages by this account, or null for every account
+     * @param since the earliest time_posted_epoch to include, or null for no lower bound
+     * @param until the time_posted_epoch to stop before (exclusive), or null for no upper bound
+     * @return the cursor, to be closed by the caller
+     * @throws SQLException
+     */
+    protected MessageCursor openMessagesByTime(Integer posted_by, Long since, Long until) throws SQLException {
+        // Establish connection
+        Connection connection = ConnectionUtil.getConnection();
+
+        // Build the SELECT statement from the bounds given; an open side adds no condition
+        String sql = "SELECT * FROM message WHERE "
+                + (posted_by != null ? "posted_by = ? AND " : "")
+                + "time_posted_epoch >= ?"
+                + (until != null ? " AND time_posted_epoch < ?" : "")
+                + " ORDER BY " + (posted_by != null ? "posted_by, " : "") + "time_posted_epoch, message_id;";
+
+        // Create preparedStatement, setting the parameters in the order they appear in the statement
+        PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        try {
+            int index = 1;
+            if (posted_by != null) {
+                preparedStatement.setInt(index++, posted_by);
+            }
+            preparedStatement.setLong(index++, since != null ? since : Long.MIN_VALUE);
+            if (until != null) {
+                preparedStatement.setLong(index, until);
+            }
+        } catch(SQLException e) {
+            preparedStatement.close();
+            throw e;
+        }
+        return MessageCursor.open(connection, preparedStatement);
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * Hands each row of cursor to the consumer as it is read.
+     * 
+     * @param cursor an open message query
+     * @param consumer receives each message in the query's order
+     * @throws SQLException
+     */
+    private void streamRows(MessageCursor cursor, Consumer<Message> consumer) throws SQLException {
+        for (Message message = cursor.next(); message != null; message = cursor.next()) {
+            consumer.accept(message);
+        }
+    }
 }
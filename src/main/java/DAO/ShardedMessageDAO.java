@@ -0,0 +1,409 @@
+package DAO;
+
+// Java Built-in Imports
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Imports of classes from this project
+import Model.Message; // To enable access to the Message class and the ability to create Message objects
+import Util.ConnectionUtil; // To enable getting access to the database connection of each shard
+import Util.ShardManager; // To know which message ids may live off their home shard
+
+/*
+ *  This class spreads the message table over the shards configured with db.shards. Each message is stored on the
+ *  shard of its poster (ConnectionUtil.shardForPoster), so everything about one account is answered by one database.
+ *  Lookups by message_id go straight to the shard the id was generated on (ConnectionUtil.shardForMessage), and
+ *  queries over every account are sent to all shards and merged in the order a single database would return.
+ *
+ *  Accounts stay on shard 0. Shards 1 and up have no foreign key to account, so inserts there check the poster on
+ *  shard 0 first.
+ */
+public class ShardedMessageDAO extends MessageDAO {
+
+    private static final Comparator<Message> BY_ID = Comparator.comparingInt(Message::getMessage_id);
+    private static final Comparator<Message> BY_TIME = Comparator.comparingLong(Message::getTime_posted_epoch)
+            .thenComparingInt(Message::getMessage_id);
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR retrieving all messages from every shard, merged in message_id order
+     *
+     * @return all messages from the database
+     * */
+    @Override
+    public List<Message> getAllMessages() {
+        List<Message> messages = new ArrayList<>();
+        for (int shard = 0; shard < ConnectionUtil.getShardCount(); shard++) {
+            messages.addAll(ConnectionUtil.onShard(shard, super::getAllMessages));
+        }
+        messages.sort(BY_ID);
+        return messages;
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR retrieving a message by its id from the shard that generated it
+     *
+     * @param message_id
+     * @return the message, or null if there is none with that id
+     */
+    @Override
+    public Message getMessageById(int message_id) {
+        return onMessageShard(message_id, () -> super.getMessageById(message_id), null);
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR retrieving several messages by id, with one query on each shard that generated any of them. Ids
+     * that may have been moved (see onMessageShard) are looked for on every shard.
+     *
+     * @param message_ids the ids to look up
+     * @return the messages found, in no particular order
+     */
+    @Override
+    public List<Message> getMessagesByIds(Collection<Integer> message_ids) {
+        List<List<Integer>> idsByShard = new ArrayList<>();
+        for (int shard = 0; shard < ConnectionUtil.getShardCount(); shard++) {
+            idsByShard.add(new ArrayList<>());
+        }
+        for (int message_id : message_ids) {
+            if (message_id > ShardManager.getLastMisplacedId()) {
+                idsByShard.get(ConnectionUtil.shardForMessage(message_id)).add(message_id);
+            } else {
+                for (List<Integer> ids : idsByShard) {
+                    ids.add(message_id);
+                }
+            }
+        }
+
+        List<Message> messages = new ArrayList<>();
+        for (int shard = 0; shard < idsByShard.size(); shard++) {
+            List<Integer> ids = idsByShard.get(shard);
+            if (!ids.isEmpty()) {
+                messages.addAll(ConnectionUtil.onShard(shard, () -> super.getMessagesByIds(ids)));
+            }
+        }
+        return messages;
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR creating a message on the shard of its poster
+     *
+     * @param message object containing a message, which does not contain a message_id
+     * @return the inserted message with its generated message_id, or null if the poster does not exist
+     */
+    @Override
+    public Message insertMessage(Message message) {
+        int shard = ConnectionUtil.shardForPoster(message.getPosted_by());
+        if (shard != 0 && !accountExists(message.getPosted_by())) {
+            System.out.println("No account exists with account_id " + message.getPosted_by());
+            return null;
+        }
+        return ConnectionUtil.onShard(shard, () -> super.insertMessage(message));
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR creating many messages at once. The messages are grouped by shard and each group is inserted as one
+     * batch in one transaction; a batch spanning several shards is atomic per shard only. A group that fails does
+     * not stop the others, and its positions are left null in the result so callers can tell the committed messages
+     * from the rest.
+     *
+     * @param messages objects containing messages, which do not contain a message_id
+     * @return the inserted messages with their generated message_id, in the same order and null where a shard's
+     *         group failed, or null if nothing was inserted
+     */
+    @Override
+    public List<Message> insertMessages(List<Message> messages) {
+        // Group the positions of the messages by shard, keeping their order within each group
+        Map<Integer, List<Integer>> positionsByShard = new LinkedHashMap<>();
+        Set<Integer> checked = new HashSet<>();
+        for (int i = 0; i < messages.size(); i++) {
+            int posted_by = messages.get(i).getPosted_by();
+            int shard = ConnectionUtil.shardForPoster(posted_by);
+            if (shard != 0 && checked.add(posted_by) && !accountExists(posted_by)) {
+                System.out.println("No account exists with account_id " + posted_by);
+                return null;
+            }
+            positionsByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(i);
+        }
+
+        Message[] inserted = new Message[messages.size()];
+        boolean anyCommitted = false;
+        for (Map.Entry<Integer, List<Integer>> group : positionsByShard.entrySet()) {
+            List<Message> batch = new ArrayList<>();
+            for (int position : group.getValue()) {
+                batch.add(messages.get(position));
+            }
+            List<Message> result = ConnectionUtil.onShard(group.getKey(), () -> super.insertMessages(batch));
+            if (result == null) {
+                continue;
+            }
+            anyCommitted = true;
+            for (int i = 0; i < result.size(); i++) {
+                inserted[group.getValue().get(i)] = result.get(i);
+            }
+        }
+        if (!anyCommitted && !messages.isEmpty()) {
+            return null;
+        }
+
+        List<Message> ordered = new ArrayList<>(messages.size());
+        for (Message message : inserted) {
+            ordered.add(message);
+        }
+        return ordered;
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR checking if a message exists on the shard that generated its id
+     *
+     * @param message_id
+     * @return true if a message with that id exists
+     */
+    @Override
+    public boolean messageExists(int message_id) {
+        return onMessageShard(message_id, () -> super.messageExists(message_id), false);
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR updating the text of a message on the shard that holds it
+     *
+     * @param message_id
+     * @param upMessage
+     * @return the updated message, or null if there is none with that id
+     */
+    @Override
+    public Message updateMessage(int message_id, Message upMessage) {
+        return onMessageShard(message_id, () -> super.updateMessage(message_id, upMessage), null);
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR deleting a message from the shard that holds it
+     *
+     * @param message_id
+     * @return the deleted message, or null if there is none with that id
+     */
+    @Override
+    public Message deleteMessage(int message_id) {
+        return onMessageShard(message_id, () -> super.deleteMessage(message_id), null);
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR retrieving all messages created by a particular account_id, from that account's shard only
+     *
+     * @param account_id
+     * @return the account's messages in message_id order
+     */
+    @Override
+    public List<Message> getUserMessages(int account_id) {
+        return ConnectionUtil.onShard(ConnectionUtil.shardForPoster(account_id), () -> super.getUserMessages(account_id));
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR retrieving one page of messages with keyset pagination. A page of one account is read from its
+     * shard; a page over every account takes up to limit messages following the key from each shard and keeps the
+     * first limit of them.
+     *
+     * @param posted_by only return messages by this account, or null for every account
+     * @param byTime order by (time_posted_epoch, message_id) when true, by message_id when false
+     * @param afterTime the time_posted_epoch of the last message already returned (ignored when ordering by id)
+     * @param afterId the message_id of the last message already returned, 0 for the first page
+     * @param limit the maximum number of messages to return
+     * @return up to limit messages following the given key
+     */
+    @Override
+    public List<Message> getMessagesPage(Integer posted_by, boolean byTime, long afterTime, int afterId, int limit) {
+        if (posted_by != null) {
+            return ConnectionUtil.onShard(ConnectionUtil.shardForPoster(posted_by),
+                    () -> super.getMessagesPage(posted_by, byTime, afterTime, afterId, limit));
+        }
+        List<Message> messages = new ArrayList<>();
+        for (int shard = 0; shard < ConnectionUtil.getShardCount(); shard++) {
+            messages.addAll(pageOfShard(shard, byTime, afterTime, afterId, limit));
+        }
+        messages.sort(byTime ? BY_TIME : BY_ID);
+        return messages.size() > limit ? new ArrayList<>(messages.subList(0, limit)) : messages;
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR streaming messages. The messages of one account are streamed from its shard; the messages of every
+     * account are merged from one lazy cursor per shard, so memory stays bounded by one message per shard.
+     *
+     * @param posted_by only stream messages by this account, or null for every account
+     * @param consumer receives each message in message_id order
+     */
+    @Override
+    public void streamMessages(Integer posted_by, Consumer<Message> consumer) {
+        if (posted_by != null) {
+            ConnectionUtil.onShard(ConnectionUtil.shardForPoster(posted_by), () -> {
+                super.streamMessages(posted_by, consumer);
+                return null;
+            });
+            return;
+        }
+        mergeShards(false, null, null, consumer);
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR streaming the messages posted in a time range, oldest first. A range of one account is streamed
+     * from its shard; a range over every account is merged from one lazy cursor per shard.
+     *
+     * @param posted_by only stream messages by this account, or null for every account
+     * @param since the earliest time_posted_epoch to include, or null for no lower bound
+     * @param until the time_posted_epoch to stop before (exclusive), or null for no upper bound
+     * @param consumer receives each message in (time_posted_epoch, message_id) order
+     */
+    @Override
+    public void streamMessagesByTime(Integer posted_by, Long since, Long until, Consumer<Message> consumer) {
+        if (posted_by != null) {
+            ConnectionUtil.onShard(ConnectionUtil.shardForPoster(posted_by), () -> {
+                super.streamMessagesByTime(posted_by, since, until, consumer);
+                return null;
+            });
+            return;
+        }
+        mergeShards(true, since, until, consumer);
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * The position of a merge in the messages of one shard: its open cursor and the message read from it last.
+     */
+    private static class ShardCursor {
+        final MessageCursor cursor;
+        Message head;
+
+        ShardCursor(MessageCursor cursor) {
+            this.cursor = cursor;
+        }
+
+        /**
+         * Reads the shard's next message into head, returning false once the shard has no more messages.
+         */
+        boolean advance() throws SQLException {
+            head = cursor.next();
+            return head != null;
+        }
+    }
+
+    /**
+     * Hands the messages of every shard to the consumer in one order. Each shard runs its query once, lazily, and
+     * the merge always takes the smallest head among the shards, so every row is read once and only one row per
+     * shard is held at a time. The cursors stay open on the shards' connections until the merge ends.
+     */
+    private void mergeShards(boolean byTime, Long since, Long until, Consumer<Message> consumer) {
+        Comparator<Message> order = byTime ? BY_TIME : BY_ID;
+        PriorityQueue<ShardCursor> heads = new PriorityQueue<>((a, b) -> order.compare(a.head, b.head));
+        List<MessageCursor> cursors = new ArrayList<>();
+        try {
+            for (int shard = 0; shard < ConnectionUtil.getShardCount(); shard++) {
+                MessageCursor opened = ConnectionUtil.onShard(shard, () -> {
+                    try {
+                        return byTime ? super.openMessagesByTime(null, since, until) : super.openMessages(null);
+                    } catch (SQLException e) {
+                        throw new IllegalStateException("Streaming messages failed", e);
+                    }
+                });
+                cursors.add(opened);
+                ShardCursor cursor = new ShardCursor(opened);
+                if (cursor.advance()) {
+                    heads.add(cursor);
+                }
+            }
+
+            while (!heads.isEmpty()) {
+                ShardCursor cursor = heads.poll();
+                consumer.accept(cursor.head);
+                if (cursor.advance()) {
+                    heads.add(cursor);
+                }
+            }
+        } catch (SQLException e) {
+            // Rows may already have gone to the consumer, so end the stream with an error rather than quietly
+            throw new IllegalStateException("Streaming messages failed", e);
+        } finally {
+            for (MessageCursor cursor : cursors) {
+                try {
+                    cursor.close();
+                } catch (SQLException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+        }
+    }
+
+    private List<Message> pageOfShard(int shard, boolean byTime, long afterTime, int afterId, int limit) {
+        return ConnectionUtil.onShard(shard, () -> super.getMessagesPage(null, byTime, afterTime, afterId, limit));
+    }
+
+    /**
+     * Runs a lookup by message_id on the shard that generated the id. Ids up to ShardManager.getLastMisplacedId()
+     * may have been moved to another shard, so when such an id is not found there, the other shards are tried too.
+     */
+    private <T> T onMessageShard(int message_id, Supplier<T> lookup, T notFound) {
+        int home = ConnectionUtil.shardForMessage(message_id);
+        T result = ConnectionUtil.onShard(home, lookup);
+        if (!Objects.equals(result, notFound) || message_id > ShardManager.getLastMisplacedId()) {
+            return result;
+        }
+        for (int shard = 0; shard < ConnectionUtil.getShardCount(); shard++) {
+            if (shard != home) {
+                result = ConnectionUtil.onShard(shard, lookup);
+                if (!Objects.equals(result, notFound)) {
+                    return result;
+                }
+            }
+        }
+        return notFound;
+    }
+
+    /**
+     * Checks that the poster exists on shard 0, where the accounts are kept.
+     */
+    private boolean accountExists(int account_id) {
+        return ConnectionUtil.onShard(0, () -> {
+            try {
+                PreparedStatement preparedStatement = ConnectionUtil.getConnection()
+                        .prepareStatement("SELECT 1 FROM account WHERE account_id = ?;");
+                preparedStatement.setInt(1, account_id);
+                return preparedStatement.executeQuery().next();
+            } catch(SQLException e) {
+                System.out.println(e.getMessage());
+                return false;
+            }
+        });
+    }
+}
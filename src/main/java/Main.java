@@ -1,4 +1,6 @@
 import Controller.SocialMediaController;
+import Util.SchemaMigrator;
+import Util.ShardManager;
 import io.javalin.Javalin;
 
 /**
@@ -7,6 +9,13 @@ import io.javalin.Javalin;
  */
 public class Main {
     public static void main(String[] args) {
+        // Bring the database schema up to date before serving any requests
+        SchemaMigrator.migrate();
+
+        // With -Ddb.shards=N above 1, migrate the other message shards and move misplaced messages to their shard
+        ShardManager.prepare();
+
+        // Start with -Dserver.virtualThreads=true (on Java 21) to run each request on its own virtual thread
         SocialMediaController controller = new SocialMediaController();
         Javalin app = controller.startAPI();
         app.start(8080);
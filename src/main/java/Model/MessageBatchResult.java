@@ -0,0 +1,105 @@
+package Model;
+
+import java.util.Objects;
+
+/**
+ * This is a class that models the outcome of one item of a batch message post. Exactly one of message_id and error
+ * is set: message_id when the message was inserted, error when it was rejected.
+ */
+public class MessageBatchResult {
+    /**
+     * The id generated for the inserted message, or 0 if the message was rejected.
+     */
+    public int message_id;
+    /**
+     * Why the message was rejected, or null if it was inserted.
+     */
+    public String error;
+    /**
+     * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
+     * Jackson Objectmapper to work.
+     */
+    public MessageBatchResult() {
+    }
+    /**
+     * @param message_id
+     * @param error
+     */
+    public MessageBatchResult(int message_id, String error) {
+        this.message_id = message_id;
+        this.error = error;
+    }
+    /**
+     * @param message_id the id generated for an inserted message
+     * @return a successful result
+     */
+    public static MessageBatchResult inserted(int message_id) {
+        return new MessageBatchResult(message_id, null);
+    }
+    /**
+     * @param error why the message was rejected
+     * @return a failed result
+     */
+    public static MessageBatchResult rejected(String error) {
+        return new MessageBatchResult(0, error);
+    }
+    /**
+     * Properly named getters and setters are necessary for Jackson ObjectMapper to work.
+     * @return message_id
+     */
+    public int getMessage_id() {
+        return message_id;
+    }
+    /**
+     * Properly named getters and setters are necessary for Jackson ObjectMapper to work.
+     * @param message_id
+     */
+    public void setMessage_id(int message_id) {
+        this.message_id = message_id;
+    }
+    /**
+     * Properly named getters and setters are necessary for Jackson ObjectMapper to work.
+     * @return error
+     */
+    public String getError() {
+        return error;
+    }
+    /**
+     * Properly named getters and setters are necessary for Jackson ObjectMapper to work.
+     * @param error
+     */
+    public void setError(String error) {
+        this.error = error;
+    }
+    /**
+     * Overriding the default equals() method allows Assert.assertEquals and List.contains to function.
+     * @param o the other object.
+     * @return true if o is equal to this object.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MessageBatchResult that = (MessageBatchResult) o;
+        return message_id == that.message_id && Objects.equals(error, that.error);
+    }
+    /**
+     * Overriding hashCode() alongside equals().
+     * @return a hash of this object's fields.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(message_id, error);
+    }
+    /**
+     * Overriding the default toString() method allows for easy debugging.
+     * @return a String representation of this class.
+     */
+    @Override
+    public String toString() {
+        return "MessageBatchResult{" +
+                "message_id=" + message_id +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
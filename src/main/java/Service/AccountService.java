@@ -3,20 +3,33 @@ package Service;
 // Imports classes from this project
 import Model.Account;
 import DAO.AccountDAO;
+import Util.PasswordHasher;
 
 public class AccountService {
 
     // Reference variable of AccountDAO type
     AccountDAO accountDAO;
 
+    // Hashes and checks passwords on its own pool; the cost is tunable because it trades login latency for safety
+    PasswordHasher passwordHasher;
+
     // No args constructor to instantiate a plain AccountDAO
     public AccountService() {
-        accountDAO = new AccountDAO();
+        this(new AccountDAO());
     }
 
     // Constructor for AccountService when an AccountDAO is provided
     public AccountService(AccountDAO accountDAO) {
+        this(accountDAO, new PasswordHasher(
+                Integer.getInteger("accounts.password.iterations", 210_000),
+                Integer.getInteger("accounts.password.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("accounts.password.queueCapacity", 100)));
+    }
+
+    // Constructor for AccountService when both an AccountDAO and a PasswordHasher are provided
+    public AccountService(AccountDAO accountDAO, PasswordHasher passwordHasher) {
         this.accountDAO = accountDAO;
+        this.passwordHasher = passwordHasher;
     }
 
 // -------------------------------------------------------------------------------------
@@ -30,21 +43,30 @@ public class AccountService {
      * * 
      * @param account an Account object, which does not contain an account_id
      * @return the new account
+     * @throws java.util.concurrent.RejectedExecutionException if too many passwords are already waiting to be hashed
      */
     public Account addAccount(Account account) {
 
         // Create new account object with values of 0 or null
         Account newAccount = new Account();
 
-        if(accountDAO.userExists(account) == true) {
+        // Hashing takes tens of milliseconds and may queue; the DAO has released its connection by then
+        boolean userExists = accountDAO.userExists(account);
+
+        if(userExists == true) {
             System.out.println("User account already exists. Try another username.");
         } else if (account.getUsername() == "") {
             System.out.println("Please, enter a username.");
         } else if (account.getPassword().length() < 4) {
             System.out.println("Password must be at least 4 characters long.");
         } else {
-            // Set values of the object to the inserted account values
-            newAccount = accountDAO.insertAccount(account);
+            // Only the hash is stored; the response still carries the password as it was entered.
+            // The insert leases a connection again once the hash is ready
+            String hash = passwordHasher.hash(account.getPassword());
+            Account inserted = accountDAO.insertAccount(new Account(account.getUsername(), hash));
+            if (inserted != null) {
+                newAccount = new Account(inserted.getAccount_id(), account.getUsername(), account.getPassword());
+            }
         }
         return newAccount;
     }
@@ -59,7 +81,7 @@ public class AccountService {
      */
     public boolean verifyUser(String username, String password) {
 
-        boolean verified = accountDAO.verifyUser(username, password);
+        boolean verified = getAccount(username, password).getUsername() != null;
 
         return verified;
     }
@@ -67,17 +89,47 @@ public class AccountService {
 // ----------------------------------------------------------------------------------------
 
     /**
+     * METHOD FOR logging in: fetches the account by username and checks the password against the stored hash.
+     * A legacy plaintext password, or a hash made with fewer iterations than the current cost, is replaced with a
+     * fresh hash while the plaintext is at hand, so old rows are upgraded as their users log in.
      * 
      * @param username The username entered
      * @param password the password entered
-     * @return the account, including account_id, username & password
+     * @return the account, including account_id, username & password, or an empty Account if the credentials are wrong
+     * @throws java.util.concurrent.RejectedExecutionException if too many passwords are already waiting to be hashed
      */
     public Account getAccount(String username, String password) {
         
         Account account = new Account();
 
-        account = accountDAO.getAccount(username, password);
+        if (username == null || password == null) {
+            return account;
+        }
+
+        // An unknown username is still checked against a dummy hash, so it takes as long as a wrong password.
+        // The DAO releases its connection before the hash, so slow or queued hashes cannot pin the whole pool
+        Account stored = accountDAO.getAccountByUsername(username);
+
+        if (!passwordHasher.verify(password, stored == null ? null : stored.getPassword())) {
+            return account;
+        }
+
+        if (passwordHasher.needsRehash(stored.getPassword())) {
+            String hash = passwordHasher.hash(password);
+            accountDAO.updatePassword(stored.getAccount_id(), stored.getPassword(), hash);
+        }
+
+        account = new Account(stored.getAccount_id(), stored.getUsername(), password);
 
         return account;
     }
+
+// ----------------------------------------------------------------------------------------
+
+    /**
+     * @return the hasher, for its metrics
+     */
+    public PasswordHasher getPasswordHasher() {
+        return passwordHasher;
+    }
 }
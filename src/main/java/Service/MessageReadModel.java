@@ -0,0 +1,228 @@
+package Service;
+
+// Java Built-in Imports
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+// Imports of classes from this project
+import Model.Message;
+
+/**
+ * An in-memory copy of the whole message table, for serving every message read without JDBC (CQRS mode).
+ *
+ * The database stays the system of record: the copy is loaded from it once and then changes only through
+ * onInsert, onUpdate and onDelete, which MessageService calls after each write has committed.
+ *
+ * Messages are indexed by message_id and by (time_posted_epoch, message_id), once for the whole table and once per
+ * poster, in concurrent skip list maps. Reads take no lock and never block a write; writes are applied one at a time.
+ * An update replaces the message's value in place under its unchanged keys, so a read running alongside it finds
+ * either the old or the new version, never neither, just as it could see the database before or after the write.
+ * A read may still see one index updated before another.
+ */
+public class MessageReadModel {
+
+    // Time order, ties broken by message_id, matching the ORDER BY of the time-ordered queries
+    private static final Comparator<Message> BY_TIME = Comparator.comparingLong(Message::getTime_posted_epoch)
+            .thenComparingInt(Message::getMessage_id);
+
+    /**
+     * A set of messages, in id order and in time order. byTime maps each message's (time_posted_epoch, message_id)
+     * key, compared with BY_TIME, to its current version.
+     */
+    private static class View {
+        final ConcurrentSkipListMap<Integer, Message> byId = new ConcurrentSkipListMap<>();
+        final ConcurrentSkipListMap<Message, Message> byTime = new ConcurrentSkipListMap<>(BY_TIME);
+
+        /**
+         * Adds message, or replaces previous with it. With the same keys, which an update of the text keeps, each
+         * map's value is swapped in place; otherwise the new entries go in before the old ones come out.
+         */
+        void put(Message message, Message previous) {
+            byId.put(message.getMessage_id(), message);
+            byTime.put(message, message);
+            if (previous != null && BY_TIME.compare(previous, message) != 0) {
+                byTime.remove(previous);
+            }
+        }
+
+        void remove(Message message) {
+            byTime.remove(message);
+            byId.remove(message.getMessage_id());
+        }
+    }
+
+    // Every message
+    private final View all = new View();
+
+    // The messages of each poster
+    private final ConcurrentHashMap<Integer, View> byPoster = new ConcurrentHashMap<>();
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR filling the model, replacing whatever it held. Writes reported while it loads wait for it to finish
+     * and are applied afterwards; applying one the load already saw changes nothing.
+     *
+     * @param source passes every message to the consumer it is given, e.g. MessageDAO::streamMessages
+     */
+    public synchronized void load(Consumer<Consumer<Message>> source) {
+        all.byId.clear();
+        all.byTime.clear();
+        byPoster.clear();
+        source.accept(this::put);
+    }
+
+    /**
+     * METHOD FOR adding a newly inserted message. A version already present, written by an update that reached the
+     * model before this insert's hook ran, is kept.
+     *
+     * @param message the message as inserted, with its message_id
+     */
+    public synchronized void onInsert(Message message) {
+        if (!all.byId.containsKey(message.getMessage_id())) {
+            put(message);
+        }
+    }
+
+    /**
+     * METHOD FOR replacing a message with its updated version
+     *
+     * @param message the message as updated
+     */
+    public synchronized void onUpdate(Message message) {
+        put(message);
+    }
+
+    /**
+     * METHOD FOR removing a deleted message
+     *
+     * @param message the message that was deleted
+     */
+    public synchronized void onDelete(Message message) {
+        Message removed = all.byId.get(message.getMessage_id());
+        if (removed != null) {
+            all.remove(removed);
+            View poster = byPoster.get(removed.getPosted_by());
+            if (poster != null) {
+                poster.remove(removed);
+            }
+        }
+    }
+
+    // Called with the monitor held
+    private void put(Message message) {
+        Message previous = all.byId.get(message.getMessage_id());
+        all.put(message, previous);
+        byPoster.computeIfAbsent(message.getPosted_by(), id -> new View())
+                .put(message, previous != null && previous.getPosted_by() == message.getPosted_by() ? previous : null);
+        if (previous != null && previous.getPosted_by() != message.getPosted_by()) {
+            View poster = byPoster.get(previous.getPosted_by());
+            if (poster != null) {
+                poster.remove(previous);
+            }
+        }
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * @param message_id
+     * @return the message, or null if there is none with that id
+     */
+    public Message get(int message_id) {
+        return all.byId.get(message_id);
+    }
+
+    /**
+     * @param message_id
+     * @return true if a message with that id exists
+     */
+    public boolean contains(int message_id) {
+        return all.byId.containsKey(message_id);
+    }
+
+    /**
+     * @return the number of messages held
+     */
+    public int size() {
+        return all.byId.size();
+    }
+
+    /**
+     * @param posted_by only the messages of this account, or null for all messages
+     * @return the messages in message_id order
+     */
+    public List<Message> getMessages(Integer posted_by) {
+        View view = view(posted_by);
+        return view == null ? new ArrayList<>() : new ArrayList<>(view.byId.values());
+    }
+
+    /**
+     * @param posted_by only the messages of this account, or null for all messages
+     * @param consumer receives each message in message_id order
+     */
+    public void forEach(Integer posted_by, Consumer<Message> consumer) {
+        View view = view(posted_by);
+        if (view != null) {
+            view.byId.values().forEach(consumer);
+        }
+    }
+
+    /**
+     * The same page MessageDAO.getMessagesPage would read from the database.
+     *
+     * @param posted_by only the messages of this account, or null for all messages
+     * @param byTime order by (time_posted_epoch, message_id) when true, by message_id when false
+     * @param afterTime the time_posted_epoch of the last message already returned (ignored when ordering by id)
+     * @param afterId the message_id of the last message already returned, 0 for the first page
+     * @param limit the maximum number of messages to return
+     * @return up to limit messages following the given key
+     */
+    public List<Message> getPage(Integer posted_by, boolean byTime, long afterTime, int afterId, int limit) {
+        View view = view(posted_by);
+        if (view == null) {
+            return new ArrayList<>();
+        }
+        Iterable<Message> following = byTime
+                ? view.byTime.tailMap(new Message(afterId, 0, null, afterTime), false).values()
+                : view.byId.tailMap(afterId, false).values();
+        List<Message> page = new ArrayList<>(Math.min(limit, 1024));
+        for (Message message : following) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(message);
+        }
+        return page;
+    }
+
+    /**
+     * @param posted_by only the messages of this account, or null for all messages
+     * @param since the earliest time_posted_epoch to include, or null for no lower bound
+     * @param until the time_posted_epoch to stop before (exclusive), or null for no upper bound
+     * @param consumer receives each message in the range, oldest first, ties in message_id order
+     */
+    public void forEachByTime(Integer posted_by, Long since, Long until, Consumer<Message> consumer) {
+        View view = view(posted_by);
+        if (view == null) {
+            return;
+        }
+        NavigableMap<Message, Message> range = view.byTime;
+        if (since != null) {
+            range = range.tailMap(new Message(Integer.MIN_VALUE, 0, null, since), true);
+        }
+        if (until != null) {
+            range = range.headMap(new Message(Integer.MIN_VALUE, 0, null, until), false);
+        }
+        range.values().forEach(consumer);
+    }
+
+    private View view(Integer posted_by) {
+        return posted_by == null ? all : byPoster.get(posted_by);
+    }
+}
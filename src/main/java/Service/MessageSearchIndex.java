@@ -0,0 +1,419 @@
+package Service;
+
+// Java Built-in Imports
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+// Imports of classes from this project
+import Model.Message;
+
+/**
+ * An in-memory inverted index over message_text, for keyword search without scanning the message table.
+ *
+ * Text is split into lower-case runs of letters and digits. Each term maps to the ids of the messages containing it,
+ * kept sorted and stored as variable-length deltas (one byte for gaps under 128), so a posting costs a byte or two
+ * instead of a boxed Integer. New messages have the highest ids and are appended to the end of their lists.
+ *
+ * The index is loaded once and then changed only through onInsert, onUpdate and onDelete. A term dropped from a
+ * message by an update or delete leaves a stale posting behind; searches skip postings the message no longer has,
+ * and a list is rewritten without them once they make up half of it.
+ *
+ * Results are ranked by how many of the query's terms a message contains, then newest first by time_posted_epoch,
+ * then by message_id. A search holds the read lock only to look up its terms' posting lists, and decodes and ranks
+ * them after releasing it, so a write waits for lookups rather than for whole searches.
+ */
+public class MessageSearchIndex {
+
+    // Terms of a query beyond this many are ignored
+    public static final int MAX_QUERY_TERMS = 16;
+
+    /**
+     * The sorted message ids of one term, delta-encoded as unsigned varints. An append only writes past length and
+     * a rewrite replaces data, so the first length bytes of a data array never change once written.
+     */
+    private static class PostingList {
+        byte[] data = new byte[4];
+        int length;
+        int count;
+        int stale;
+        int lastId;
+
+        /**
+         * Adds id, or revives it if it is already in the list as a stale posting.
+         */
+        void add(int id) {
+            if (count == 0 || id > lastId) {
+                append(id - (count == 0 ? 0 : lastId));
+                lastId = id;
+                count++;
+                return;
+            }
+            // Out of order: an update that brought a term back, or inserts whose hooks ran out of order
+            int[] ids = decode();
+            int position = Arrays.binarySearch(ids, id);
+            if (position >= 0) {
+                stale--;
+                return;
+            }
+            int insertAt = -position - 1;
+            int[] merged = new int[ids.length + 1];
+            System.arraycopy(ids, 0, merged, 0, insertAt);
+            merged[insertAt] = id;
+            System.arraycopy(ids, insertAt, merged, insertAt + 1, ids.length - insertAt);
+            encode(merged, merged.length);
+        }
+
+        /**
+         * A list sharing this one's bytes as they are now, for reading while this one goes on changing.
+         */
+        PostingList snapshot() {
+            PostingList copy = new PostingList();
+            copy.data = data;
+            copy.length = length;
+            copy.count = count;
+            return copy;
+        }
+
+        int[] decode() {
+            int[] ids = new int[count];
+            int id = 0;
+            int offset = 0;
+            for (int i = 0; i < count; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[offset++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                id += delta;
+                ids[i] = id;
+            }
+            return ids;
+        }
+
+        void encode(int[] ids, int n) {
+            data = new byte[Math.max(4, n * 2)];
+            length = 0;
+            count = n;
+            stale = 0;
+            lastId = 0;
+            for (int i = 0; i < n; i++) {
+                append(ids[i] - lastId);
+                lastId = ids[i];
+            }
+        }
+
+        private void append(int delta) {
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2 + 5);
+            }
+            while ((delta & ~0x7F) != 0) {
+                data[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+        }
+    }
+
+    /**
+     * What the index knows of a message: its time for ranking and its terms, sorted, for telling stale postings apart.
+     */
+    private static class Doc {
+        final long time_posted_epoch;
+        final int[] termIds;
+
+        Doc(long time_posted_epoch, int[] termIds) {
+            this.time_posted_epoch = time_posted_epoch;
+            this.termIds = termIds;
+        }
+
+        boolean contains(int termId) {
+            return Arrays.binarySearch(termIds, termId) >= 0;
+        }
+    }
+
+    /**
+     * A message that matched a search, with its rank.
+     */
+    private static class Hit {
+        final int message_id;
+        final int score;
+        final long time_posted_epoch;
+
+        Hit(int message_id, int score, long time_posted_epoch) {
+            this.message_id = message_id;
+            this.score = score;
+            this.time_posted_epoch = time_posted_epoch;
+        }
+    }
+
+    // Best hit first: more terms matched, then newer, then the higher message_id
+    private static final Comparator<Hit> RANKING = Comparator.<Hit>comparingInt(hit -> hit.score)
+            .thenComparingLong(hit -> hit.time_posted_epoch)
+            .thenComparingInt(hit -> hit.message_id)
+            .reversed();
+
+    // Term dictionary; a term's id is its position in postings
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private final List<PostingList> postings = new ArrayList<>();
+
+    // Every indexed message by message_id; concurrent so that searches can check postings against it unlocked
+    private final Map<Integer, Doc> docs = new ConcurrentHashMap<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR splitting text into search terms
+     *
+     * @param text a message_text or a query
+     * @return the distinct lower-case runs of letters and digits in text, in the order they first appear
+     */
+    public static List<String> tokenize(String text) {
+        if (text == null) {
+            return Collections.emptyList();
+        }
+        Set<String> terms = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inTerm = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inTerm && start < 0) {
+                start = i;
+            } else if (!inTerm && start >= 0) {
+                terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return new ArrayList<>(terms);
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR filling the index, replacing whatever it held. Writes reported while it loads wait for it to finish
+     * and are applied afterwards; applying one the load already saw changes nothing.
+     *
+     * @param source passes every message to the consumer it is given, e.g. MessageDAO::streamMessages
+     */
+    public void load(Consumer<Consumer<Message>> source) {
+        lock.writeLock().lock();
+        try {
+            termIds.clear();
+            postings.clear();
+            docs.clear();
+            source.accept(this::put);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * METHOD FOR adding a newly inserted message
+     *
+     * @param message the message as inserted, with its message_id
+     */
+    public void onInsert(Message message) {
+        lock.writeLock().lock();
+        try {
+            put(message);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * METHOD FOR re-indexing a message whose text changed
+     *
+     * @param message the message as updated
+     */
+    public void onUpdate(Message message) {
+        lock.writeLock().lock();
+        try {
+            put(message);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * METHOD FOR removing a deleted message
+     *
+     * @param message the message that was deleted
+     */
+    public void onDelete(Message message) {
+        lock.writeLock().lock();
+        try {
+            Doc removed = docs.remove(message.getMessage_id());
+            if (removed != null) {
+                for (int termId : removed.termIds) {
+                    markStale(termId);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR searching the index
+     *
+     * @param query words to look for; a message matches if it contains any of them
+     * @param limit the most message ids to return
+     * @return the ids of the best-ranked matching messages, best first
+     */
+    public List<Integer> search(String query, int limit) {
+        List<String> terms = tokenize(query);
+        if (terms.size() > MAX_QUERY_TERMS) {
+            terms = terms.subList(0, MAX_QUERY_TERMS);
+        }
+
+        // Take the terms' posting lists as they are now; only this part needs the lock
+        Map<Integer, PostingList> lists = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            for (String term : terms) {
+                Integer termId = termIds.get(term);
+                if (termId != null) {
+                    lists.put(termId, postings.get(termId).snapshot());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Count the query terms each message contains, skipping postings its current Doc no longer has
+        Map<Integer, Integer> scores = new HashMap<>();
+        for (Map.Entry<Integer, PostingList> list : lists.entrySet()) {
+            int termId = list.getKey();
+            for (int message_id : list.getValue().decode()) {
+                Doc doc = docs.get(message_id);
+                if (doc != null && doc.contains(termId)) {
+                    scores.merge(message_id, 1, Integer::sum);
+                }
+            }
+        }
+
+        // Keep the best limit hits, with the worst of them at the head of the queue
+        PriorityQueue<Hit> best = new PriorityQueue<>(Math.max(1, limit) + 1, RANKING.reversed());
+        for (Map.Entry<Integer, Integer> entry : scores.entrySet()) {
+            Doc doc = docs.get(entry.getKey());
+            // Deleted since it was counted
+            if (doc == null) {
+                continue;
+            }
+            best.add(new Hit(entry.getKey(), entry.getValue(), doc.time_posted_epoch));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(best);
+        hits.sort(RANKING);
+        List<Integer> ids = new ArrayList<>(hits.size());
+        for (Hit hit : hits) {
+            ids.add(hit.message_id);
+        }
+        return ids;
+    }
+
+    /**
+     * @return the number of messages indexed
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes held by the posting lists
+     */
+    public long getPostingBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (PostingList list : postings) {
+                bytes += list.length;
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+// -------------------------------------------------------------------------------------
+
+    // The helpers below are called with the write lock held
+
+    /**
+     * Indexes message, or re-indexes it if it is already there, touching only the terms that changed.
+     */
+    private void put(Message message) {
+        int message_id = message.getMessage_id();
+        List<String> terms = tokenize(message.getMessage_text());
+        int[] ids = new int[terms.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = termIds.computeIfAbsent(terms.get(i), term -> {
+                postings.add(new PostingList());
+                return postings.size() - 1;
+            });
+        }
+        Arrays.sort(ids);
+
+        Doc previous = docs.put(message_id, new Doc(message.getTime_posted_epoch(), ids));
+        for (int termId : ids) {
+            if (previous == null || !previous.contains(termId)) {
+                postings.get(termId).add(message_id);
+            }
+        }
+        if (previous != null) {
+            for (int termId : previous.termIds) {
+                if (Arrays.binarySearch(ids, termId) < 0) {
+                    markStale(termId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Notes that one posting of termId no longer matches its message, and drops the stale postings once they make
+     * up half of the list.
+     */
+    private void markStale(int termId) {
+        PostingList list = postings.get(termId);
+        list.stale++;
+        if (list.stale * 2 < list.count) {
+            return;
+        }
+        int[] ids = list.decode();
+        int live = 0;
+        for (int message_id : ids) {
+            Doc doc = docs.get(message_id);
+            if (doc != null && doc.contains(termId)) {
+                ids[live++] = message_id;
+            }
+        }
+        list.encode(ids, live);
+    }
+}
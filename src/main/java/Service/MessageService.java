@@ -2,31 +2,281 @@ package Service;
 
 // Java Built-in Imports
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 // Imports of classes from this project
+import DAO.AccountDAO;
 import DAO.MessageDAO;
+import DAO.ShardedMessageDAO;
 import Model.Message;
+import Model.MessageBatchResult;
+import Model.MessagePage;
+import Util.ConnectionUtil;
+import Util.LruCache;
 
 public class MessageService {
     
+    // Maximum length of message_text, matching the message table's varchar(255)
+    public static final int MAX_MESSAGE_LENGTH = 255;
+
+    // Largest page a client may ask for
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    // Most results a search may ask for
+    public static final int MAX_SEARCH_RESULTS = 100;
+
     // Reference variable of MessageDAO type
     MessageDAO messageDAO;
 
-    // No args constructor to instantiate a plain MessageDAO
+    // Reference variable of AccountDAO type, used to check that posters exist
+    AccountDAO accountDAO;
+
+    // Queue used by addMessage in write-behind mode, or null when inserts are synchronous
+    MessageWriteBehindQueue writeBehindQueue;
+
+    // Read-through cache for getMessageById, including misses; null when disabled with messages.cache.size=0
+    LruCache<Integer, Message> messageCache;
+
+    // Per-account timelines for getUserMessages; null when disabled with messages.timelineCache.maxMessages=0
+    TimelineCache timelineCache;
+
+    // In-memory copy of the message table serving every read in CQRS mode (messages.readModel=true); null otherwise
+    MessageReadModel readModel;
+
+    // Inverted index over message_text for searchMessages, loaded from the message table when the service is built
+    MessageSearchIndex searchIndex = new MessageSearchIndex();
+
+    // Counts the writes applied so far; bumped after each write has committed and reached every cache above, so a
+    // read that starts after taking the version sees at least the state it names
+    private final AtomicLong version = new AtomicLong();
+
+    // Random per service, so a version counted by an earlier run of the server never names the current state
+    private final String versionEpoch = Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36);
+
+    // Striped locks held across an update or delete and its cache hooks, so that two writes to the same
+    // message_id reach the caches in the order the database applied them. ReentrantLock rather than synchronized,
+    // so a virtual thread blocked in JDBC while holding one does not pin its carrier thread.
+    private final ReentrantLock[] writeLocks = new ReentrantLock[64];
+
+    // Recently deleted message ids. An insert's hooks run after its commit, so a client that guesses the new id
+    // can delete it first; message ids are never reused, so the late insert hook is simply skipped.
+    private final Map<Integer, Boolean> recentlyDeleted = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+            return size() > 10_000;
+        }
+    };
+
+    // No args constructor to instantiate a MessageDAO, sharded when db.shards is above 1
     public MessageService() {
-        messageDAO = new MessageDAO();
+        this(ConnectionUtil.getShardCount() > 1 ? new ShardedMessageDAO() : new MessageDAO(), new AccountDAO());
     }
 
     // Constructor for MessageService when a MessageDAO is provided
     public MessageService(MessageDAO messageDAO) {
+        this(messageDAO, new AccountDAO());
+    }
+
+    // Constructor for MessageService when both DAOs are provided.
+    // Write-behind mode is switched on with the messages.writeBehind system property.
+    public MessageService(MessageDAO messageDAO, AccountDAO accountDAO) {
+        this(messageDAO, accountDAO, Boolean.getBoolean("messages.writeBehind")
+                ? new MessageWriteBehindQueue(messageDAO, accountDAO,
+                        Integer.getInteger("messages.writeBehind.capacity", 10_000),
+                        Integer.getInteger("messages.writeBehind.maxBatchRows", 100),
+                        Long.getLong("messages.writeBehind.maxDelayMillis", 5L))
+                : null);
+    }
+
+    // Constructor for MessageService when the DAOs and a write-behind queue (or null for synchronous inserts) are provided
+    public MessageService(MessageDAO messageDAO, AccountDAO accountDAO, MessageWriteBehindQueue writeBehindQueue) {
         this.messageDAO = messageDAO;
+        this.accountDAO = accountDAO;
+        this.writeBehindQueue = writeBehindQueue;
+
+        // The read model already holds every message, so the caches in front of the database are left out
+        if (Boolean.getBoolean("messages.readModel")) {
+            readModel = new MessageReadModel();
+        } else {
+            int cacheSize = Integer.getInteger("messages.cache.size", 10_000);
+            if (cacheSize > 0) {
+                messageCache = new LruCache<>(cacheSize, Long.getLong("messages.cache.ttlMillis", 0L));
+            }
+
+            int timelineMessages = Integer.getInteger("messages.timelineCache.maxMessages", 100_000);
+            if (timelineMessages > 0) {
+                timelineCache = new TimelineCache(timelineMessages);
+            }
+        }
+
+        for (int i = 0; i < writeLocks.length; i++) {
+            writeLocks[i] = new ReentrantLock();
+        }
+
+        if (writeBehindQueue != null) {
+            writeBehindQueue.setOnCommit(this::afterInsert);
+        }
+
+        // Read every message once at startup; from then on the write hooks keep the read model and index current
+        try {
+            if (readModel != null) {
+                readModel.load(consumer -> messageDAO.streamMessages(null, consumer));
+                searchIndex.load(consumer -> readModel.forEach(null, consumer));
+            } else {
+                searchIndex.load(consumer -> messageDAO.streamMessages(null, consumer));
+            }
+        } finally {
+            ConnectionUtil.releaseConnection();
+        }
     }
 
 // -------------------------------------------------------------------------------------
 
+    // Every write path ends in one of these, so the in-memory state derived from the message table stays in step
+
+    private ReentrantLock writeLock(int message_id) {
+        return writeLocks[Math.floorMod(message_id, writeLocks.length)];
+    }
+
+    private void afterInsert(Message inserted) {
+        ReentrantLock lock = writeLock(inserted.getMessage_id());
+        lock.lock();
+        try {
+            synchronized (recentlyDeleted) {
+                if (recentlyDeleted.containsKey(inserted.getMessage_id())) {
+                    return;
+                }
+            }
+            // An update that committed before this hook ran has already cached the newer text, so never overwrite
+            if (messageCache != null) {
+                // Replaces a cached "not found" for this id, if a client asked for it before it existed
+                messageCache.putIfAbsent(inserted.getMessage_id(), inserted);
+            }
+            if (timelineCache != null) {
+                timelineCache.onInsert(inserted);
+            }
+            if (readModel != null) {
+                readModel.onInsert(inserted);
+            }
+            searchIndex.onInsert(inserted);
+            version.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void afterUpdate(Message updated) {
+        if (messageCache != null) {
+            messageCache.put(updated.getMessage_id(), updated);
+        }
+        if (timelineCache != null) {
+            timelineCache.onUpdate(updated);
+        }
+        if (readModel != null) {
+            readModel.onUpdate(updated);
+        }
+        searchIndex.onUpdate(updated);
+        version.incrementAndGet();
+    }
+
+    private void afterDelete(Message deleted) {
+        synchronized (recentlyDeleted) {
+            recentlyDeleted.put(deleted.getMessage_id(), Boolean.TRUE);
+        }
+        if (messageCache != null) {
+            messageCache.put(deleted.getMessage_id(), null);
+        }
+        if (timelineCache != null) {
+            timelineCache.onDelete(deleted);
+        }
+        if (readModel != null) {
+            readModel.onDelete(deleted);
+        }
+        searchIndex.onDelete(deleted);
+        version.incrementAndGet();
+    }
+
+    /**
+     * METHOD FOR stopping the service. Inserts still in the write-behind queue are committed first; later inserts are
+     * made synchronously.
+     */
+    public void shutdown() {
+        if (writeBehindQueue != null) {
+            writeBehindQueue.shutdown();
+        }
+    }
+
+    /**
+     * METHOD FOR naming the current state of the message table, for ETags on message reads. The tag changes after
+     * every insert, update and delete, and costs no database access. Take it before reading: the read then returns
+     * this state or a newer one, never an older one.
+     *
+     * @return an opaque tag that differs whenever a write has been applied since it was last taken
+     */
+    public String getVersionTag() {
+        return versionEpoch + "-" + version.get();
+    }
+
+    /**
+     * @return the getMessageById cache, for its hit, miss and eviction counters; null when caching is disabled
+     */
+    public LruCache<Integer, Message> getMessageCache() {
+        return messageCache;
+    }
+
+    /**
+     * @return the per-account timeline cache, for its counters; null when it is disabled
+     */
+    public TimelineCache getTimelineCache() {
+        return timelineCache;
+    }
+
+    /**
+     * @return the in-memory read model serving reads in CQRS mode; null otherwise
+     */
+    public MessageReadModel getReadModel() {
+        return readModel;
+    }
+
     /**
-     * METHOD FOR using the MessageDAO to ADD a new message to the database
+     * @return the message_text search index, for its size
+     */
+    public MessageSearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR checking the message_text rules shared by every write path
+     * 
+     * @param message_text the text of a new or updated message
+     * @return a description of the problem, or null if the text is acceptable
+     */
+    public static String validateMessageText(String message_text) {
+        // Only the empty string counts as blank, as it always has for PATCH; whitespace is accepted text
+        if (message_text == null || message_text.isEmpty()) {
+            return "Message text must not be blank";
+        } else if (message_text.length() > MAX_MESSAGE_LENGTH) {
+            return "Message too long!";
+        }
+        return null;
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR using the MessageDAO to ADD a new message to the database. In write-behind mode the insert is
+     * group-committed with other concurrent inserts, but this still returns only once the message is committed.
      * 
      * @param message an object containing a message, which does not contain a message_id
      * @return the new message
@@ -36,12 +286,79 @@ public class MessageService {
         // Create new message object with values of 0 or null
         Message newMessage = new Message();
 
-        // Set values of the object to the inserted message values
-        newMessage = messageDAO.insertMessage(message);
+        String error = validateMessageText(message.getMessage_text());
+        if (error != null) {
+            System.out.println(error);
+            return null;
+        }
 
+        // Set values of the object to the inserted message values.
+        // Posters that do not exist are rejected (by the foreign key, or by the queue's check), in which case this is null.
+        // The queue runs afterInsert itself as each message commits, so a committed row is never left out of the
+        // in-memory state, whatever happens to the caller waiting on it.
+        if (writeBehindQueue != null) {
+            newMessage = writeBehindQueue.insert(message);
+        } else {
+            newMessage = messageDAO.insertMessage(message);
+            if (newMessage != null) {
+                afterInsert(newMessage);
+            }
+        }
         return newMessage;
     }
 
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR using the MessageDAO to ADD many messages in one batched transaction. Each message is checked
+     * against the same rules as addMessage; the ones that pass are inserted together.
+     * 
+     * @param messages objects containing messages, which do not contain a message_id
+     * @return one result per message, in the same order: its new message_id, or the reason it was rejected
+     */
+    public List<MessageBatchResult> addMessages(List<Message> messages) {
+
+        // Look up every distinct poster with one query instead of relying on the foreign key,
+        // which would fail the whole batch on the first unknown poster
+        Set<Integer> posters = new HashSet<>();
+        for (Message message : messages) {
+            if (message != null) {
+                posters.add(message.getPosted_by());
+            }
+        }
+        Set<Integer> existingPosters = accountDAO.getExistingAccountIds(posters);
+
+        // Validate each message, remembering where the valid ones sit in the request
+        List<MessageBatchResult> results = new ArrayList<>();
+        List<Message> valid = new ArrayList<>();
+        List<Integer> validIndexes = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            String error = message == null ? "Message must not be null" : validateMessageText(message.getMessage_text());
+            if (error == null && !existingPosters.contains(message.getPosted_by())) {
+                error = "No account exists with account_id " + message.getPosted_by();
+            }
+            results.add(error == null ? null : MessageBatchResult.rejected(error));
+            if (error == null) {
+                valid.add(message);
+                validIndexes.add(i);
+            }
+        }
+
+        // Insert every valid message in one batch; with shards, some positions may fail while the rest commit
+        List<Message> inserted = messageDAO.insertMessages(valid);
+        for (int i = 0; i < validIndexes.size(); i++) {
+            Message message = inserted == null ? null : inserted.get(i);
+            if (message == null) {
+                results.set(validIndexes.get(i), MessageBatchResult.rejected("Batch insert failed"));
+            } else {
+                afterInsert(message);
+                results.set(validIndexes.get(i), MessageBatchResult.inserted(message.getMessage_id()));
+            }
+        }
+        return results;
+    }
+
 // -------------------------------------------------------------------------------------
 
     /**
@@ -53,26 +370,27 @@ public class MessageService {
      */
     public Message updateMessage(int message_id, Message message) {
 
-        // Create new message object with values of 0 or null
-        Message newMessage = new Message();
-        
-        String str = "";
-        
-        if (messageDAO.messageExists(message_id) == false) {
-            System.out.println("No such message id exists.");
-            newMessage = null;
-        } else if (message.getMessage_text().equals(str)) {
-            System.out.println("Message text must not be blank");
-            newMessage = null;
-        } else if (message.getMessage_text().length() > 255) {
-            System.out.println("Message too long!");
-            newMessage = null;
-        } else {
-            // Set values of the object to the inserted message values
-            messageDAO.updateMessage(message_id, message);
-            newMessage = getMessageById(message_id);
+        // Check the text first, it needs no database access
+        String error = validateMessageText(message.getMessage_text());
+        if (error != null) {
+            System.out.println(error);
+            return null;
+        }
+
+        // Update and read back in a single statement; null means no such message id exists
+        ReentrantLock lock = writeLock(message_id);
+        lock.lock();
+        try {
+            Message newMessage = messageDAO.updateMessage(message_id, message);
+            if (newMessage == null) {
+                System.out.println("No such message id exists.");
+            } else {
+                afterUpdate(newMessage);
+            }
+            return newMessage;
+        } finally {
+            lock.unlock();
         }
-        return newMessage;
     }
 
 // -------------------------------------------------------------------------------------
@@ -84,6 +402,11 @@ public class MessageService {
      */
     public List<Message> getAllMessages(){
 
+        // In CQRS mode the read model answers without touching the database
+        if (readModel != null) {
+            return readModel.getMessages(null);
+        }
+
         // Create empty arrayList for messages
         List<Message> messageList = new ArrayList<>();
 
@@ -93,25 +416,49 @@ public class MessageService {
         return messageList;
     }
 
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR using MessageDAO to STREAM messages one at a time, without holding the whole list in memory
+     * 
+     * @param posted_by only stream the messages of this account, or null for all messages
+     * @param consumer receives each message in message_id order
+     */
+    public void streamMessages(Integer posted_by, Consumer<Message> consumer) {
+        if (readModel != null) {
+            readModel.forEach(posted_by, consumer);
+            return;
+        }
+        // A user's timeline is bounded and cached, so serve it from memory; the full table is streamed from the database
+        if (posted_by != null && timelineCache != null) {
+            getUserMessages(posted_by).forEach(consumer);
+            return;
+        }
+        messageDAO.streamMessages(posted_by, consumer);
+    }
+
 // -------------------------------------------------------------------------------------
 
     /**
      * METHOD FOR using MessageDAO to REMOVE a message from the database
      * 
      * @param message_id the id pertaining to a message
+     * @return the deleted message, or null if the message did not exist
      */
-    public void deleteMessage(int message_id) {
-
-        // if message exists
-        // if(messageDAO.getMessageById(message_id) == null) {
-        //     // Delete the message at the specified id
-        //     messageDAO.deleteMessage(message_id);
-        //     return messageDAO.getMessageById(message_id);
-        // } else {
-        //     messageDAO.deleteMessage(message_id);
-        // }
-        messageDAO.deleteMessage(message_id);
-        // if message does not exist, return the message
+    public Message deleteMessage(int message_id) {
+
+        // Delete and get the old row back in a single statement
+        ReentrantLock lock = writeLock(message_id);
+        lock.lock();
+        try {
+            Message deleted = messageDAO.deleteMessage(message_id);
+            if (deleted != null) {
+                afterDelete(deleted);
+            }
+            return deleted;
+        } finally {
+            lock.unlock();
+        }
     }
 
 // -------------------------------------------------------------------------------------
@@ -124,6 +471,15 @@ public class MessageService {
      */
     public List<Message> getUserMessages(int account_id) {
 
+        if (readModel != null) {
+            return readModel.getMessages(account_id);
+        }
+
+        // Hot accounts are answered from the timeline cache without touching the database
+        if (timelineCache != null) {
+            return timelineCache.get(account_id, messageDAO::getUserMessages);
+        }
+
         // Add all of a user's messages to the list
         List<Message> userMessages = messageDAO.getUserMessages(account_id);
 
@@ -132,20 +488,177 @@ public class MessageService {
 
 // -------------------------------------------------------------------------------------
 
-    // **METHOD** FOR using MessageDAO to RETRIEVE a message by id
+    // **METHOD** FOR using MessageDAO to RETRIEVE a message by id, or null if it does not exist.
+    // Served from the read-through cache when it is enabled; ids that do not exist are cached as well.
     public Message getMessageById(int message_id) {
 
+        if (readModel != null) {
+            return readModel.get(message_id);
+        }
+        if (messageCache != null) {
+            return messageCache.getOrLoad(message_id, messageDAO::getMessageById);
+        }
+
         // Obtain the message from the database by message_id
         Message message = messageDAO.getMessageById(message_id);
         return message;
     }
 
 
+    /**
+     * METHOD FOR finding who posted a message when memory already knows, without touching the database
+     * 
+     * @param message_id the id of the message
+     * @return the posted_by of the message in the read model or the message cache, or null if neither has it
+     */
+    public Integer getKnownPoster(int message_id) {
+        Message message = null;
+        if (readModel != null) {
+            message = readModel.get(message_id);
+        } else if (messageCache != null) {
+            message = messageCache.getIfPresent(message_id);
+        }
+        return message == null ? null : message.getPosted_by();
+    }
+
     public boolean messageExists(int message_id) {
 
-        // Tell whether the message with specified id exists in the database
+        // Tell whether the message with specified id exists, answered from memory when possible
+        if (readModel != null) {
+            return readModel.contains(message_id);
+        }
+        if (messageCache != null) {
+            return getMessageById(message_id) != null;
+        }
         boolean exists = messageDAO.messageExists(message_id);
         return exists;
     }
-}
 
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR using MessageDAO to RETRIEVE one page of messages, optionally only those of one user
+     * 
+     * @param posted_by the account whose messages to page through, or null for all messages
+     * @param limit the page size, between 1 and MAX_PAGE_SIZE
+     * @param cursor the next_cursor of the previous page, or null for the first page
+     * @param order the order to page in, or null for the cursor's order (id order on the first page)
+     * @return the page, with a next_cursor if more messages may follow
+     * @throws IllegalArgumentException if the limit is out of range, the cursor is invalid, or order is given and
+     *         the cursor belongs to another order
+     */
+    public MessagePage getMessagesPage(Integer posted_by, int limit, String cursor, PageCursor.Order order) {
+
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        // Start after the previous page, or at the beginning
+        PageCursor position = cursor == null
+                ? PageCursor.first(order == null ? PageCursor.Order.ID : order)
+                : PageCursor.decode(cursor);
+        if (order == null) {
+            order = position.getOrder();
+        } else if (position.getOrder() != order) {
+            throw new IllegalArgumentException("cursor does not belong to order " + order);
+        }
+        boolean byTime = order == PageCursor.Order.TIME;
+
+        // Ask for one extra row to find out whether another page follows, without a COUNT query
+        List<Message> messages = readModel != null
+                ? readModel.getPage(posted_by, byTime, position.getTime_posted_epoch(), position.getMessage_id(), limit + 1)
+                : messageDAO.getMessagesPage(posted_by, byTime, position.getTime_posted_epoch(),
+                        position.getMessage_id(), limit + 1);
+
+        String nextCursor = null;
+        if (messages.size() > limit) {
+            messages = new ArrayList<>(messages.subList(0, limit));
+            nextCursor = PageCursor.after(order, messages.get(limit - 1)).encode();
+        }
+        return new MessagePage(messages, nextCursor);
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR SEARCHING message_text by keyword, answered from the in-memory index instead of a LIKE scan
+     * 
+     * @param query one or more words; a message matches if it contains any of them
+     * @param limit the most messages to return, between 1 and MAX_SEARCH_RESULTS
+     * @return the matching messages, those containing the most query words first, newest first among equals
+     * @throws IllegalArgumentException if the limit is out of range or the query has no words
+     */
+    public List<Message> searchMessages(String query, int limit) {
+
+        if (limit < 1 || limit > MAX_SEARCH_RESULTS) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_SEARCH_RESULTS);
+        }
+        if (MessageSearchIndex.tokenize(query).isEmpty()) {
+            throw new IllegalArgumentException("query must contain a word");
+        }
+
+        // The index ranks ids; the messages come from memory where it has them, the rest from one query
+        List<Integer> ids = searchIndex.search(query, limit);
+        Map<Integer, Message> found = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (int message_id : ids) {
+            Message message = readModel != null ? readModel.get(message_id)
+                    : messageCache != null ? messageCache.getIfPresent(message_id) : null;
+            if (message != null) {
+                found.put(message_id, message);
+            } else if (readModel == null) {
+                missing.add(message_id);
+            }
+        }
+        for (Message message : messageDAO.getMessagesByIds(missing)) {
+            found.put(message.getMessage_id(), message);
+        }
+
+        // Back in rank order, leaving out messages deleted between the search and the lookup
+        List<Message> results = new ArrayList<>();
+        for (int message_id : ids) {
+            Message message = found.get(message_id);
+            if (message != null) {
+                results.add(message);
+            }
+        }
+        return results;
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR using MessageDAO to STREAM the messages posted in a time range, read with an index range scan
+     * 
+     * @param posted_by only stream the messages of this account, or null for all messages
+     * @param since the earliest time_posted_epoch to include, or null for no lower bound
+     * @param until the time_posted_epoch to stop before (exclusive), or null for no upper bound
+     * @param consumer receives each message, oldest first, ties in message_id order
+     * @throws IllegalArgumentException if since is after until
+     */
+    public void streamMessagesByTime(Integer posted_by, Long since, Long until, Consumer<Message> consumer) {
+        if (since != null && until != null && since > until) {
+            throw new IllegalArgumentException("since must not be after until");
+        }
+        if (readModel != null) {
+            readModel.forEachByTime(posted_by, since, until, consumer);
+            return;
+        }
+        messageDAO.streamMessagesByTime(posted_by, since, until, consumer);
+    }
+
+    /**
+     * METHOD FOR using MessageDAO to RETRIEVE the messages posted in a time range
+     * 
+     * @param posted_by only return the messages of this account, or null for all messages
+     * @param since the earliest time_posted_epoch to include, or null for no lower bound
+     * @param until the time_posted_epoch to stop before (exclusive), or null for no upper bound
+     * @return the messages in the range, oldest first, ties in message_id order
+     * @throws IllegalArgumentException if since is after until
+     */
+    public List<Message> getMessagesByTime(Integer posted_by, Long since, Long until) {
+        List<Message> messages = new ArrayList<>();
+        streamMessagesByTime(posted_by, since, until, messages::add);
+        return messages;
+    }
+}
@@ -0,0 +1,284 @@
+package Service;
+
+// Java Built-in Imports
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Imports of classes from this project
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+
+/**
+ * A bounded in-memory queue of message inserts drained by a single background committer.
+ *
+ * The committer waits for the first pending insert, then keeps collecting until it has maxBatchRows rows or
+ * maxDelayMillis have passed since that first insert was queued, whichever comes first. The whole group is written
+ * with MessageDAO.insertMessages in one transaction, turning a burst of small INSERT transactions into a few large
+ * ones. Each caller blocks until the group holding its message has committed and then gets its message back with
+ * the generated message_id, exactly as a synchronous insert would return it.
+ *
+ * The post-commit hook set with setOnCommit() runs for every committed message on the committer thread, before its
+ * caller is woken. A caller therefore never waits on its own hook, and a message that commits is always followed by
+ * its hook, even if its caller has stopped waiting. Callers are not given up on with a timeout: a row still queued
+ * may yet commit, so a caller only gets null once its message is known not to have been inserted.
+ */
+public class MessageWriteBehindQueue {
+
+    // How long shutdown() waits for the committer to drain the queue
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 30_000;
+
+    // Reference variables for the DAOs the committer writes through
+    private final MessageDAO messageDAO;
+    private final AccountDAO accountDAO;
+
+    // Pending inserts, bounded so that a stalled database applies back-pressure instead of exhausting memory
+    private final BlockingQueue<PendingInsert> queue;
+
+    // Group commit triggers: whichever is reached first closes the group
+    private final int maxBatchRows;
+    private final long maxDelayMillis;
+
+    // Counters for monitoring
+    private final AtomicLong batchesCommitted = new AtomicLong();
+    private final AtomicLong rowsCommitted = new AtomicLong();
+    private final AtomicLong rowsRejected = new AtomicLong();
+    private final AtomicLong queueFullFallbacks = new AtomicLong();
+
+    private final Thread committer;
+    private volatile boolean running = true;
+
+    // Runs for every committed message before its caller is woken
+    private volatile Consumer<Message> onCommit = message -> { };
+
+    /**
+     * @param messageDAO the DAO the committer inserts through
+     * @param accountDAO the DAO used to check every poster in a group with one query
+     * @param capacity the maximum number of inserts waiting to be committed
+     * @param maxBatchRows the largest group committed in one transaction
+     * @param maxDelayMillis the longest a queued insert waits for its group to fill up
+     */
+    public MessageWriteBehindQueue(MessageDAO messageDAO, AccountDAO accountDAO, int capacity, int maxBatchRows,
+            long maxDelayMillis) {
+        this.messageDAO = messageDAO;
+        this.accountDAO = accountDAO;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatchRows = maxBatchRows;
+        this.maxDelayMillis = maxDelayMillis;
+
+        committer = new Thread(this::run, "message-write-behind");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * Sets the hook run for every message once it has committed, e.g. to update the caches derived from the message
+     * table. It runs on the committer thread, or on the caller's for an insert done synchronously.
+     *
+     * @param onCommit receives each inserted message with its message_id
+     */
+    public void setOnCommit(Consumer<Message> onCommit) {
+        this.onCommit = onCommit;
+    }
+
+    /**
+     * METHOD FOR inserting a message through the queue. Blocks until the message's group has committed or failed,
+     * even if interrupted, since a message already queued may still commit; the interrupt is kept for the caller.
+     * If the queue is full the message is inserted synchronously instead, so callers never see the queue's capacity.
+     *
+     * @param message an object containing a message, which does not contain a message_id
+     * @return the inserted message with its message_id, or null if it was not inserted
+     * @throws IllegalStateException if the committer failed on the message's group
+     */
+    public Message insert(Message message) {
+        PendingInsert pending = new PendingInsert(message);
+        if (!running || !queue.offer(pending)) {
+            queueFullFallbacks.incrementAndGet();
+            Message inserted = messageDAO.insertMessage(message);
+            if (inserted != null) {
+                committed(inserted);
+            }
+            return inserted;
+        }
+        try {
+            return pending.result.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Write-behind insert failed", e.getCause());
+        }
+    }
+
+    /**
+     * Stops accepting inserts, commits whatever is still queued and stops the committer.
+     */
+    public void shutdown() {
+        running = false;
+        committer.interrupt();
+        try {
+            committer.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of inserts waiting to be committed
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of groups committed
+     */
+    public long getBatchesCommitted() {
+        return batchesCommitted.get();
+    }
+
+    /**
+     * @return the number of messages committed through the queue
+     */
+    public long getRowsCommitted() {
+        return rowsCommitted.get();
+    }
+
+    /**
+     * @return the number of queued messages that could not be inserted
+     */
+    public long getRowsRejected() {
+        return rowsRejected.get();
+    }
+
+    /**
+     * @return the number of inserts done synchronously because the queue was full
+     */
+    public long getQueueFullFallbacks() {
+        return queueFullFallbacks.get();
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * The committer loop: collect a group, commit it, repeat. On shutdown the queue is drained before exiting.
+     */
+    private void run() {
+        List<PendingInsert> group = new ArrayList<>(maxBatchRows);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingInsert first = running ? queue.take() : queue.poll();
+                if (first == null) {
+                    break;
+                }
+                group.add(first);
+
+                // Keep filling the group until it is full or the first insert has waited long enough
+                long deadline = first.queuedAt + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                while (group.size() < maxBatchRows) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingInsert next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Interrupted by shutdown(): commit what has been collected and drain the rest
+            }
+
+            if (!group.isEmpty()) {
+                commit(group);
+                group.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes one group in a single transaction and completes every caller waiting on it.
+     */
+    private void commit(List<PendingInsert> group) {
+        try {
+            // Check every poster in the group with one query, so one unknown poster cannot fail the whole transaction
+            Set<Integer> posters = new HashSet<>();
+            for (PendingInsert pending : group) {
+                posters.add(pending.message.getPosted_by());
+            }
+            Set<Integer> existingPosters = accountDAO.getExistingAccountIds(posters);
+
+            List<PendingInsert> valid = new ArrayList<>(group.size());
+            List<Message> messages = new ArrayList<>(group.size());
+            for (PendingInsert pending : group) {
+                if (existingPosters.contains(pending.message.getPosted_by())) {
+                    valid.add(pending);
+                    messages.add(pending.message);
+                } else {
+                    rowsRejected.incrementAndGet();
+                    pending.result.complete(null);
+                }
+            }
+
+            // Positions left null were not committed: the whole group, or with shards the group of one shard
+            List<Message> inserted = messageDAO.insertMessages(messages);
+            if (inserted != null) {
+                batchesCommitted.incrementAndGet();
+            }
+            for (int i = 0; i < valid.size(); i++) {
+                PendingInsert pending = valid.get(i);
+                Message message = inserted == null ? null : inserted.get(i);
+                if (message == null) {
+                    // Retry it on its own, so only the offending messages fail and none is inserted twice
+                    message = messageDAO.insertMessage(pending.message);
+                }
+                if (message == null) {
+                    rowsRejected.incrementAndGet();
+                } else {
+                    rowsCommitted.incrementAndGet();
+                    committed(message);
+                }
+                pending.result.complete(message);
+            }
+        } catch (RuntimeException e) {
+            for (PendingInsert pending : group) {
+                pending.result.completeExceptionally(e);
+            }
+        } finally {
+            // The committer is a long-lived thread, so hand its connection back between groups
+            ConnectionUtil.releaseConnection();
+        }
+    }
+
+    /**
+     * Runs the post-commit hook for one message. A failing hook must not keep the other callers of its group
+     * waiting, so its exception is only printed.
+     */
+    private void committed(Message message) {
+        try {
+            onCommit.accept(message);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * A queued message and the future its caller is waiting on.
+     */
+    private static class PendingInsert {
+        final Message message;
+        final long queuedAt = System.nanoTime();
+        final CompletableFuture<Message> result = new CompletableFuture<>();
+
+        PendingInsert(Message message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package Service;
+
+// Java Built-in Imports
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// Imports of classes from this project
+import Model.Message;
+
+/**
+ * The position of a page in a keyset-paginated list of messages: the sort key of the last message already returned.
+ * Clients only ever see it as an opaque token, so its encoding can change without breaking them.
+ */
+public class PageCursor {
+
+    /**
+     * The orders a list of messages can be paged in.
+     */
+    public enum Order {
+        // By message_id, which is also insertion order
+        ID,
+        // By time_posted_epoch, with message_id breaking ties
+        TIME
+    }
+
+    private final Order order;
+    private final long time_posted_epoch;
+    private final int message_id;
+
+    private PageCursor(Order order, long time_posted_epoch, int message_id) {
+        this.order = order;
+        this.time_posted_epoch = time_posted_epoch;
+        this.message_id = message_id;
+    }
+
+    /**
+     * @param order the order to page in
+     * @return a cursor positioned before the first message
+     */
+    public static PageCursor first(Order order) {
+        return new PageCursor(order, Long.MIN_VALUE, 0);
+    }
+
+    /**
+     * @param order the order being paged in
+     * @param last the last message of the current page
+     * @return a cursor positioned just after that message
+     */
+    public static PageCursor after(Order order, Message last) {
+        return new PageCursor(order, last.getTime_posted_epoch(), last.getMessage_id());
+    }
+
+    /**
+     * @return the order this cursor pages in
+     */
+    public Order getOrder() {
+        return order;
+    }
+
+    /**
+     * @return the time_posted_epoch of the last message returned, only meaningful in TIME order
+     */
+    public long getTime_posted_epoch() {
+        return time_posted_epoch;
+    }
+
+    /**
+     * @return the message_id of the last message returned
+     */
+    public int getMessage_id() {
+        return message_id;
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * @return the opaque token handed to clients
+     */
+    public String encode() {
+        String raw = order == Order.ID
+                ? "i:" + message_id
+                : "t:" + time_posted_epoch + ":" + message_id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param token a token produced by encode()
+     * @return the cursor it represents
+     * @throws IllegalArgumentException if the token was not produced by encode()
+     */
+    public static PageCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":");
+            if (parts.length == 2 && parts[0].equals("i")) {
+                return new PageCursor(Order.ID, Long.MIN_VALUE, Integer.parseInt(parts[1]));
+            } else if (parts.length == 3 && parts[0].equals("t")) {
+                return new PageCursor(Order.TIME, Long.parseLong(parts[1]), Integer.parseInt(parts[2]));
+            }
+        } catch (IllegalArgumentException e) {
+            // Falls through to the exception below; NumberFormatException is an IllegalArgumentException too
+        }
+        throw new IllegalArgumentException("Invalid cursor");
+    }
+}
@@ -0,0 +1,226 @@
+package Service;
+
+// Java Built-in Imports
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+// Imports of classes from this project
+import Model.Message;
+
+/**
+ * An in-memory cache of each account's messages (its timeline), kept up to date by applying every insert, update
+ * and delete to the cached timeline instead of reloading it.
+ *
+ * A timeline is loaded from the database the first time it is read and from then on changes only through
+ * onInsert, onUpdate and onDelete. Memory is bounded by the total number of cached messages across all accounts;
+ * when a load or an insert pushes it over the bound, the least recently read accounts are dropped.
+ *
+ * A timeline that is being loaded while a write to the same account happens is handed to its reader but not
+ * cached, since the load may have missed the write.
+ */
+public class TimelineCache {
+
+    // Messages of one account, keyed and ordered by message_id
+    private static class Timeline {
+        final TreeMap<Integer, Message> messages = new TreeMap<>();
+    }
+
+    // Tracks an in-flight load so that writes to the same account can invalidate it
+    private static class PendingLoad {
+        int loaders;
+        boolean dirty;
+    }
+
+    // The most messages kept across every cached timeline
+    private final int maxMessages;
+
+    // Cached timelines in least-recently-read order, and how many messages they hold in total
+    private final LinkedHashMap<Integer, Timeline> timelines = new LinkedHashMap<>(16, 0.75f, true);
+    private int cachedMessages;
+
+    // Accounts currently being loaded
+    private final Map<Integer, PendingLoad> pendingLoads = new HashMap<>();
+
+    // Counters for monitoring
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxMessages the most messages to keep cached, summed over all accounts
+     */
+    public TimelineCache(int maxMessages) {
+        this.maxMessages = maxMessages;
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * METHOD FOR reading an account's timeline, loading it on a miss
+     *
+     * @param account_id the account whose messages to return
+     * @param loader loads the account's messages from the database on a miss
+     * @return the account's messages in message_id order
+     */
+    public List<Message> get(int account_id, IntFunction<List<Message>> loader) {
+        PendingLoad pending;
+        synchronized (this) {
+            Timeline timeline = timelines.get(account_id);
+            if (timeline != null) {
+                hits++;
+                return new ArrayList<>(timeline.messages.values());
+            }
+            misses++;
+            pending = pendingLoads.computeIfAbsent(account_id, id -> new PendingLoad());
+            pending.loaders++;
+        }
+
+        // Load outside the lock so that a slow query does not hold up other accounts
+        List<Message> loaded = null;
+        try {
+            loaded = loader.apply(account_id);
+        } finally {
+            synchronized (this) {
+                pending.loaders--;
+                if (pending.loaders == 0) {
+                    pendingLoads.remove(account_id);
+                }
+                if (loaded != null && !pending.dirty && !timelines.containsKey(account_id)
+                        && loaded.size() <= maxMessages) {
+                    Timeline timeline = new Timeline();
+                    for (Message message : loaded) {
+                        timeline.messages.put(message.getMessage_id(), message);
+                    }
+                    timelines.put(account_id, timeline);
+                    cachedMessages += loaded.size();
+                    evictColdAccounts(account_id);
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Applies a newly inserted message to its account's timeline, if cached. A version already present, put there
+     * by an update that overtook the insert's hook, is kept.
+     */
+    public synchronized void onInsert(Message message) {
+        markDirty(message.getPosted_by());
+        Timeline timeline = timelines.get(message.getPosted_by());
+        if (timeline != null && timeline.messages.putIfAbsent(message.getMessage_id(), message) == null) {
+            cachedMessages++;
+            evictColdAccounts(message.getPosted_by());
+        }
+    }
+
+    /**
+     * Replaces an updated message in its account's timeline, if cached.
+     */
+    public synchronized void onUpdate(Message message) {
+        markDirty(message.getPosted_by());
+        Timeline timeline = timelines.get(message.getPosted_by());
+        if (timeline != null && timeline.messages.put(message.getMessage_id(), message) == null) {
+            cachedMessages++;
+        }
+    }
+
+    /**
+     * Removes a deleted message from its account's timeline, if cached.
+     */
+    public synchronized void onDelete(Message message) {
+        markDirty(message.getPosted_by());
+        Timeline timeline = timelines.get(message.getPosted_by());
+        if (timeline != null && timeline.messages.remove(message.getMessage_id()) != null) {
+            cachedMessages--;
+        }
+    }
+
+    /**
+     * Drops every cached timeline.
+     */
+    public synchronized void clear() {
+        for (PendingLoad pending : pendingLoads.values()) {
+            pending.dirty = true;
+        }
+        timelines.clear();
+        cachedMessages = 0;
+    }
+
+// -------------------------------------------------------------------------------------
+
+    /**
+     * @return the number of reads answered from memory
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of reads that loaded a timeline from the database
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of timelines dropped to stay within the memory bound
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of accounts with a cached timeline
+     */
+    public synchronized int getCachedAccounts() {
+        return timelines.size();
+    }
+
+    /**
+     * @return the number of messages held across all cached timelines
+     */
+    public synchronized int getCachedMessages() {
+        return cachedMessages;
+    }
+
+// -------------------------------------------------------------------------------------
+
+    private void markDirty(int account_id) {
+        PendingLoad pending = pendingLoads.get(account_id);
+        if (pending != null) {
+            pending.dirty = true;
+        }
+    }
+
+    /**
+     * Drops least recently read timelines until the cache is back within its bound, dropping the account that was
+     * just written or loaded only if it alone is over the bound.
+     */
+    private void evictColdAccounts(int keep) {
+        Iterator<Map.Entry<Integer, Timeline>> it = timelines.entrySet().iterator();
+        while (cachedMessages > maxMessages && it.hasNext()) {
+            Map.Entry<Integer, Timeline> eldest = it.next();
+            if (eldest.getKey() == keep) {
+                continue;
+            }
+            cachedMessages -= eldest.getValue().messages.size();
+            it.remove();
+            evictions++;
+        }
+
+        // A single timeline larger than the whole bound is not kept either
+        if (cachedMessages > maxMessages) {
+            Timeline timeline = timelines.remove(keep);
+            if (timeline != null) {
+                cachedMessages -= timeline.messages.size();
+                evictions++;
+            }
+        }
+    }
+}
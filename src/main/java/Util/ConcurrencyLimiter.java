@@ -0,0 +1,211 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An adaptive cap on the number of requests in flight, for shedding load before it queues up in front of the
+ * database.
+ *
+ * tryAcquire() admits a request while fewer than getLimit() are running and refuses it straight away otherwise.
+ * Every admitted request reports its latency to release(), and the limit follows the latency with a gradient: the
+ * samples are averaged over windows of WINDOW_SAMPLES requests, and each window's average is compared with the
+ * minimum RTT, the latency of a request that does not wait behind others.
+ *
+ * - While a window's average stays within TOLERANCE of the minimum RTT, the limit grows by its square root,
+ *   probing for more throughput.
+ * - Once requests start queueing the average rises, and the limit shrinks in proportion, by at most half per window.
+ * - A window containing a failed request (a 5xx, typically a connection checkout timeout) cuts the limit by
+ *   BACKOFF_RATIO regardless of latency, the multiplicative decrease of AIMD.
+ *
+ * The minimum RTT is the lowest window average seen, so it is learned while the server is quiet. In case it was
+ * first learned under load, or the database has become slower since, it is measured again every probe interval:
+ * the limit is held at its minimum until PROBE_SAMPLES requests have run with no more than that many in flight,
+ * their average becomes the new minimum RTT, and the limit is restored.
+ *
+ * The limit does not grow in windows where fewer than half of it was in use, so a quiet period cannot inflate it,
+ * and new limits are blended into the old one so a single noisy window moves it only a little.
+ */
+public class ConcurrencyLimiter {
+
+	// Requests per measurement window
+	static final int WINDOW_SAMPLES = 10;
+
+	// Requests measured by a probe of the minimum RTT
+	static final int PROBE_SAMPLES = 10;
+
+	// How much slower than the minimum RTT a window may get before the limit shrinks
+	static final double TOLERANCE = 1.5;
+
+	// Weight of each new limit against the current one
+	static final double SMOOTHING = 0.2;
+
+	// Factor the limit is cut by after a window with a failure
+	static final double BACKOFF_RATIO = 0.9;
+
+	private final String name;
+	private final int minLimit;
+	private final int maxLimit;
+	private final long probeIntervalNanos;
+
+	// Read on every acquire, written once per window
+	private volatile double limit;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final LongAdder rejected = new LongAdder();
+
+	// The current window, guarded by this
+	private int windowCount;
+	private long windowSumNanos;
+	private int windowMaxInFlight;
+	private boolean windowDropped;
+
+	// Minimum RTT in nanoseconds, 0 until the first window closes; guarded by this
+	private double minRttNanos;
+
+	// While probing, the limit to restore afterwards; guarded by this
+	private boolean probing;
+	private double limitBeforeProbe;
+	private long nextProbeNanos;
+
+	/**
+	 * @param name used in the metrics
+	 * @param initialLimit the limit to start with
+	 * @param minLimit the lowest the limit may fall, at least 1; also the limit while probing the minimum RTT
+	 * @param maxLimit the highest the limit may rise
+	 * @param probeIntervalMillis how often to measure the minimum RTT again
+	 */
+	public ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, long probeIntervalMillis) {
+		if (minLimit < 1 || maxLimit < minLimit) {
+			throw new IllegalArgumentException("Need 1 <= minLimit <= maxLimit, got " + minLimit + " and " + maxLimit);
+		}
+		this.name = name;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.probeIntervalNanos = probeIntervalMillis * 1_000_000;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+		this.nextProbeNanos = System.nanoTime() + probeIntervalNanos;
+	}
+
+	/**
+	 * Admits a request if fewer than the limit are in flight. Every successful call must be followed by one call to
+	 * release().
+	 *
+	 * @return true if the request may run, false if it should be turned away
+	 */
+	public boolean tryAcquire() {
+		while (true) {
+			int current = inFlight.get();
+			if (current >= (int) limit) {
+				rejected.increment();
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Ends an admitted request and feeds its latency into the limit.
+	 *
+	 * @param rttNanos how long the request took from being admitted to finishing
+	 * @param dropped true if the request failed because the server was overloaded
+	 */
+	public void release(long rttNanos, boolean dropped) {
+		int current = inFlight.getAndDecrement();
+		synchronized (this) {
+			if (probing) {
+				// Only requests that ran with the probe's concurrency or less show the unloaded latency
+				if (current <= minLimit) {
+					addSample(rttNanos, current, dropped);
+					if (windowCount >= PROBE_SAMPLES) {
+						minRttNanos = Math.max(1, (double) windowSumNanos / windowCount);
+						limit = limitBeforeProbe;
+						probing = false;
+						nextProbeNanos = System.nanoTime() + probeIntervalNanos;
+						resetWindow();
+					}
+				}
+				return;
+			}
+
+			addSample(rttNanos, current, dropped);
+			if (windowCount >= WINDOW_SAMPLES) {
+				closeWindow();
+				if (System.nanoTime() - nextProbeNanos >= 0) {
+					probing = true;
+					limitBeforeProbe = limit;
+					limit = minLimit;
+				}
+			}
+		}
+	}
+
+	// Called with the monitor held
+	private void addSample(long rttNanos, int current, boolean dropped) {
+		windowCount++;
+		windowSumNanos += rttNanos;
+		windowMaxInFlight = Math.max(windowMaxInFlight, current);
+		windowDropped |= dropped;
+	}
+
+	// Called with the monitor held
+	private void resetWindow() {
+		windowCount = 0;
+		windowSumNanos = 0;
+		windowMaxInFlight = 0;
+		windowDropped = false;
+	}
+
+	// Called with the monitor held
+	private void closeWindow() {
+		double averageRtt = Math.max(1, (double) windowSumNanos / windowCount);
+		if (minRttNanos == 0 || averageRtt < minRttNanos) {
+			minRttNanos = averageRtt;
+		}
+
+		double current = limit;
+		double next;
+		if (windowDropped) {
+			next = current * BACKOFF_RATIO;
+		} else {
+			double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * minRttNanos / averageRtt));
+			next = current * gradient + Math.sqrt(current);
+			// Only grow when the current limit was actually tested
+			if (next > current && windowMaxInFlight < current / 2) {
+				next = current;
+			}
+		}
+		next = current + (next - current) * SMOOTHING;
+		limit = Math.max(minLimit, Math.min(maxLimit, next));
+		resetWindow();
+	}
+
+	/**
+	 * @return the name given to the constructor
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of requests that may currently be in flight
+	 */
+	public int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * @return the number of requests admitted and not yet released
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return the number of requests turned away so far
+	 */
+	public long getRejected() {
+		return rejected.sum();
+	}
+}
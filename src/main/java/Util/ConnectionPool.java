@@ -0,0 +1,592 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sql.DataSource;
+
+/**
+ * A bounded pool of JDBC connections.
+ *
+ * Connections are leased to a thread: every call to getConnection() made by the same thread returns the same
+ * connection until the lease is released, either by calling release() (done by the controller once a request has
+ * completed) or by calling close() on the connection. This keeps the DAOs free of any connection handling while
+ * still guaranteeing that every connection goes back to the pool.
+ *
+ * Statements created through a leased connection are closed when the lease is returned, which also closes their
+ * ResultSets. The exception is prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys): those are served
+ * from a per-connection LRU cache keyed by the SQL text, so a statement is parsed and planned once per physical
+ * connection rather than once per request. Calling close() on a cached statement leaves it in the cache.
+ *
+ * A background housekeeper evicts idle connections, retires connections that have reached their maximum lifetime and
+ * reclaims leases held by threads that have died.
+ */
+public class ConnectionPool {
+
+	/**
+	 * Where physical connections come from.
+	 */
+	private final DataSource dataSource;
+	/**
+	 * A name for this pool, used in log output and metrics.
+	 */
+	private final String name;
+	/**
+	 * The maximum number of physical connections (leased and idle) this pool will hold.
+	 */
+	private final int maxSize;
+	/**
+	 * How long a thread waits for a connection before giving up.
+	 */
+	private final long checkoutTimeoutMillis;
+	/**
+	 * How long a connection may sit idle in the pool before it is closed.
+	 */
+	private final long idleTimeoutMillis;
+	/**
+	 * How long a physical connection may live before it is retired.
+	 */
+	private final long maxLifetimeMillis;
+	/**
+	 * How many prepared statements each connection keeps cached; 0 disables the cache.
+	 */
+	private final int statementCacheSize;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	/**
+	 * Idle connections, most recently returned first so that the rest of the pool can age out.
+	 */
+	private final Deque<PooledConnection> idle = new ArrayDeque<>();
+	/**
+	 * Connections currently leased to a thread.
+	 */
+	private final Set<PooledConnection> leased = new HashSet<>();
+	/**
+	 * The lease held by the current thread, if any.
+	 */
+	private final ThreadLocal<PooledConnection> currentLease = new ThreadLocal<>();
+
+	// Counters, guarded by lock
+	private int total;
+	private int waiting;
+	private long created;
+	private long closed;
+	private long checkouts;
+	private long timeouts;
+	private long reclaimed;
+
+	// Statement cache counters, summed across every connection in the pool
+	private final LongAdder statementHits = new LongAdder();
+	private final LongAdder statementMisses = new LongAdder();
+	private final LongAdder statementEvictions = new LongAdder();
+
+	private final ScheduledExecutorService housekeeper;
+	private volatile boolean shutdown;
+
+	/**
+	 * @param name a name for the pool, used in log output
+	 * @param dataSource the source of physical connections
+	 * @param maxSize the maximum number of physical connections
+	 * @param checkoutTimeoutMillis how long to wait for a free connection
+	 * @param idleTimeoutMillis how long an idle connection is kept before being closed
+	 * @param maxLifetimeMillis how long a physical connection may live
+	 * @param statementCacheSize how many prepared statements to cache per connection, 0 to disable caching
+	 */
+	public ConnectionPool(String name, DataSource dataSource, int maxSize, long checkoutTimeoutMillis,
+			long idleTimeoutMillis, long maxLifetimeMillis, int statementCacheSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be at least 1");
+		}
+		this.name = name;
+		this.dataSource = dataSource;
+		this.maxSize = maxSize;
+		this.checkoutTimeoutMillis = checkoutTimeoutMillis;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.maxLifetimeMillis = maxLifetimeMillis;
+		this.statementCacheSize = statementCacheSize;
+
+		housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, name + "-housekeeper");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1000, Math.min(idleTimeoutMillis, maxLifetimeMillis) / 4);
+		housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+	}
+
+// -------------------------------------------------------------------------------------
+
+	/**
+	 * Returns the connection leased to the calling thread, checking one out of the pool first if the thread does not
+	 * hold a lease yet.
+	 *
+	 * @return a connection which is returned to the pool by release() or close()
+	 * @throws SQLException if no connection became available within the checkout timeout
+	 */
+	public Connection getConnection() throws SQLException {
+		PooledConnection lease = currentLease.get();
+		if (lease != null && lease.isLeased()) {
+			return lease.proxy;
+		}
+		lease = borrow();
+		currentLease.set(lease);
+		return lease.proxy;
+	}
+
+	/**
+	 * Returns the calling thread's connection to the pool. Does nothing if the thread does not hold a lease.
+	 */
+	public void release() {
+		PooledConnection lease = currentLease.get();
+		currentLease.remove();
+		if (lease != null) {
+			giveBack(lease);
+		}
+	}
+
+	/**
+	 * @return a snapshot of the pool's counters
+	 */
+	public PoolStats getStats() {
+		lock.lock();
+		try {
+			return new PoolStats(name, maxSize, leased.size(), idle.size(), waiting, created, closed, checkouts,
+					timeouts, reclaimed, statementHits.sum(), statementMisses.sum(), statementEvictions.sum());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes every idle connection and stops the housekeeper. Leased connections are closed when they are returned.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		housekeeper.shutdownNow();
+		List<PooledConnection> toClose;
+		lock.lock();
+		try {
+			toClose = new ArrayList<>(idle);
+			idle.clear();
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		toClose.forEach(this::destroy);
+	}
+
+// -------------------------------------------------------------------------------------
+
+	private PooledConnection borrow() throws SQLException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(checkoutTimeoutMillis);
+		while (true) {
+			PooledConnection candidate = null;
+			boolean create = false;
+			lock.lock();
+			try {
+				while (idle.isEmpty() && total >= maxSize) {
+					if (shutdown) {
+						throw new SQLException("Connection pool " + name + " has been shut down");
+					}
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						timeouts++;
+						throw new SQLTransientConnectionException("Connection pool " + name + " timed out after "
+								+ checkoutTimeoutMillis + "ms (" + leased.size() + " active, " + waiting
+								+ " waiting)");
+					}
+					waiting++;
+					try {
+						available.awaitNanos(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a connection", e);
+					} finally {
+						waiting--;
+					}
+				}
+				if (!idle.isEmpty()) {
+					candidate = idle.pollFirst();
+				} else {
+					// Reserve the slot now so that concurrent callers cannot overshoot maxSize
+					total++;
+					create = true;
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			if (create) {
+				candidate = open();
+			} else if (!isUsable(candidate)) {
+				destroy(candidate);
+				continue;
+			}
+
+			lock.lock();
+			try {
+				candidate.lease(Thread.currentThread());
+				leased.add(candidate);
+				checkouts++;
+			} finally {
+				lock.unlock();
+			}
+			return candidate;
+		}
+	}
+
+	private PooledConnection open() throws SQLException {
+		try {
+			Connection raw = dataSource.getConnection();
+			lock.lock();
+			try {
+				created++;
+			} finally {
+				lock.unlock();
+			}
+			return new PooledConnection(raw);
+		} catch (SQLException | RuntimeException e) {
+			lock.lock();
+			try {
+				total--;
+				available.signal();
+			} finally {
+				lock.unlock();
+			}
+			throw e;
+		}
+	}
+
+	private boolean isUsable(PooledConnection connection) {
+		if (connection.age() > maxLifetimeMillis) {
+			return false;
+		}
+		try {
+			return !connection.raw.isClosed();
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Puts a leased connection back into the pool after resetting its state.
+	 */
+	private void giveBack(PooledConnection connection) {
+		lock.lock();
+		try {
+			if (!leased.remove(connection)) {
+				// Already returned, e.g. close() followed by release()
+				return;
+			}
+			connection.unlease();
+		} finally {
+			lock.unlock();
+		}
+
+		boolean reusable = connection.reset() && !shutdown && connection.age() <= maxLifetimeMillis;
+		if (!reusable) {
+			destroy(connection);
+			return;
+		}
+		lock.lock();
+		try {
+			idle.addFirst(connection);
+			available.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void destroy(PooledConnection connection) {
+		try {
+			connection.raw.close();
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+		}
+		lock.lock();
+		try {
+			total--;
+			closed++;
+			available.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Evicts idle and expired connections and reclaims leases whose owning thread has terminated.
+	 */
+	private void housekeep() {
+		List<PooledConnection> expired = new ArrayList<>();
+		List<PooledConnection> orphaned = new ArrayList<>();
+		lock.lock();
+		try {
+			Iterator<PooledConnection> it = idle.iterator();
+			while (it.hasNext()) {
+				PooledConnection connection = it.next();
+				if (connection.idleTime() > idleTimeoutMillis || connection.age() > maxLifetimeMillis) {
+					it.remove();
+					expired.add(connection);
+				}
+			}
+			for (PooledConnection connection : leased) {
+				if (!connection.owner.isAlive()) {
+					orphaned.add(connection);
+				}
+			}
+			reclaimed += orphaned.size();
+		} finally {
+			lock.unlock();
+		}
+		expired.forEach(this::destroy);
+		for (PooledConnection connection : orphaned) {
+			System.out.println("Connection pool " + name + " reclaimed a connection leaked by thread "
+					+ connection.owner.getName());
+			giveBack(connection);
+		}
+	}
+
+// -------------------------------------------------------------------------------------
+
+	/**
+	 * A physical connection together with its bookkeeping and the proxy handed out to callers.
+	 */
+	private class PooledConnection implements InvocationHandler {
+		private final Connection raw;
+		private final Connection proxy;
+		private final long createdAt = System.currentTimeMillis();
+		private final List<Statement> openStatements = new ArrayList<>();
+		private final Map<String, CachedStatement> statementCache = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+				if (size() <= statementCacheSize) {
+					return false;
+				}
+				statementEvictions.increment();
+				eldest.getValue().closePhysically();
+				return true;
+			}
+		};
+		private volatile Thread owner;
+		private volatile long returnedAt = System.currentTimeMillis();
+
+		PooledConnection(Connection raw) {
+			this.raw = raw;
+			this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, this);
+		}
+
+		void lease(Thread thread) {
+			owner = thread;
+		}
+
+		void unlease() {
+			owner = null;
+			returnedAt = System.currentTimeMillis();
+		}
+
+		boolean isLeased() {
+			return owner != null;
+		}
+
+		long age() {
+			return System.currentTimeMillis() - createdAt;
+		}
+
+		long idleTime() {
+			return System.currentTimeMillis() - returnedAt;
+		}
+
+		/**
+		 * Closes the statements opened during the lease and rolls back anything left uncommitted.
+		 *
+		 * @return false if the connection is no longer fit to be reused
+		 */
+		boolean reset() {
+			try {
+				synchronized (openStatements) {
+					for (Statement statement : openStatements) {
+						statement.close();
+					}
+					openStatements.clear();
+				}
+				for (CachedStatement statement : statementCache.values()) {
+					statement.recycle();
+				}
+				if (!raw.getAutoCommit()) {
+					raw.rollback();
+					raw.setAutoCommit(true);
+				}
+				return !raw.isClosed();
+			} catch (SQLException e) {
+				System.out.println(e.getMessage());
+				return false;
+			}
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "close":
+					if (isLeased()) {
+						if (currentLease.get() == this) {
+							currentLease.remove();
+						}
+						giveBack(this);
+					}
+					return null;
+				case "isClosed":
+					return !isLeased() || raw.isClosed();
+				case "unwrap":
+					if (((Class<?>) args[0]).isInstance(proxy)) {
+						return proxy;
+					}
+					break;
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "Pooled[" + raw + "]";
+				default:
+					if (!isLeased()) {
+						throw new SQLException("Connection has already been returned to pool " + name);
+					}
+					if (statementCacheSize > 0 && method.getName().equals("prepareStatement") && isCacheable(args)) {
+						return prepareCached(args);
+					}
+			}
+			try {
+				Object result = method.invoke(raw, args);
+				if (result instanceof Statement) {
+					synchronized (openStatements) {
+						openStatements.add((Statement) result);
+					}
+				}
+				return result;
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		/**
+		 * Only prepareStatement(String) and prepareStatement(String, int autoGeneratedKeys) are cached.
+		 */
+		private boolean isCacheable(Object[] args) {
+			return args.length == 1 || (args.length == 2 && args[1] instanceof Integer);
+		}
+
+		private PreparedStatement prepareCached(Object[] args) throws SQLException {
+			String key = args.length == 1 ? (String) args[0] : args[1] + ":" + args[0];
+			CachedStatement cached = statementCache.get(key);
+			if (cached != null && !cached.raw.isClosed()) {
+				statementHits.increment();
+				return cached.proxy;
+			}
+			statementMisses.increment();
+			PreparedStatement raw = args.length == 1
+					? this.raw.prepareStatement((String) args[0])
+					: this.raw.prepareStatement((String) args[0], (Integer) args[1]);
+			cached = new CachedStatement(raw, proxy);
+			statementCache.put(key, cached);
+			return cached.proxy;
+		}
+	}
+
+// -------------------------------------------------------------------------------------
+
+	/**
+	 * A prepared statement kept open in a connection's cache. Callers get a proxy whose close() leaves the statement
+	 * open; the last ResultSet it produced is closed when the lease ends.
+	 */
+	private static class CachedStatement implements InvocationHandler {
+		private final PreparedStatement raw;
+		private final PreparedStatement proxy;
+		private final Connection connection;
+		private ResultSet lastResultSet;
+
+		CachedStatement(PreparedStatement raw, Connection connection) {
+			this.raw = raw;
+			this.connection = connection;
+			this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, this);
+		}
+
+		/**
+		 * Gets the statement ready for the next lease.
+		 */
+		void recycle() throws SQLException {
+			if (lastResultSet != null) {
+				lastResultSet.close();
+				lastResultSet = null;
+			}
+			if (!raw.isClosed()) {
+				raw.clearParameters();
+				raw.clearBatch();
+			}
+		}
+
+		void closePhysically() {
+			try {
+				raw.close();
+			} catch (SQLException e) {
+				System.out.println(e.getMessage());
+			}
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "close":
+					if (lastResultSet != null) {
+						lastResultSet.close();
+						lastResultSet = null;
+					}
+					return null;
+				case "getConnection":
+					return connection;
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "Cached[" + raw + "]";
+				default:
+					break;
+			}
+			try {
+				Object result = method.invoke(raw, args);
+				if (result instanceof ResultSet) {
+					lastResultSet = (ResultSet) result;
+				}
+				return result;
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
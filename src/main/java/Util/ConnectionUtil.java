@@ -4,6 +4,10 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
 
 import org.h2.jdbcx.JdbcDataSource;
 import org.h2.tools.RunScript;
@@ -13,15 +17,30 @@ import org.h2.tools.RunScript;
  * our database. This class utilizes the singleton design pattern. We will be
  * utilizing an in-memory called h2database for the sql demos.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS
+ * Connections are handed out by a bounded ConnectionPool. A thread keeps the same connection for as long as it holds
+ * its lease, so DAOs may call getConnection() as often as they like without closing anything; the lease is returned
+ * by releaseConnection() once the request that used it has completed.
+ *
+ * The pool can be tuned with the system properties db.pool.maxSize, db.pool.checkoutTimeoutMillis,
+ * db.pool.idleTimeoutMillis, db.pool.maxLifetimeMillis and db.pool.statementCacheSize.
+ *
+ * With db.instrument=true the connections handed out are wrapped by a JdbcInstrumentation, which times every
+ * statement, counts its rows and tags it with the DAO method that issued it. Statements slower than
+ * db.slowQueryMillis (default 100) are logged, at most db.slowQueryLogPerSecond (default 10) lines a second.
+ *
+ * With db.shards=N above 1, messages are spread over N databases, each with its own pool. Shard 0 is the database at
+ * url and also holds the accounts; shard i is at db.shard.i.url, by default url with "_shard" + i appended to the
+ * database name. getConnection() returns a connection to the shard selected by onShard(), shard 0 otherwise, so
+ * the same DAO code runs against any shard. See ShardManager and DAO.ShardedMessageDAO.
  */
 public class ConnectionUtil {
 
 	/**
 	 * url will represent our connection string. Since this is an in-memory db, we
-	 * will represent a file location to store the data
+	 * will represent a file location to store the data. The db.url system property
+	 * points it elsewhere, e.g. at a private in-memory database for benchmarks.
 	 */
-	private static String url = "jdbc:h2:./h2/db;";
+	private static String url = System.getProperty("db.url", "jdbc:h2:./h2/db;");
 	/**
 	 * Default username for connecting to h2
 	 */
@@ -32,25 +51,60 @@ public class ConnectionUtil {
 	private static String password = "sa";
 
 	/**
-	 * DataSource for pooling. Pooling enables the creation of multiple connections when connections are closed.
+	 * DataSource the pool opens its physical connections from.
+	 */
+	private static JdbcDataSource dataSource = new JdbcDataSource();
+
+	/**
+	 * The pool every DAO borrows its connection from.
+	 */
+	private static ConnectionPool pool;
+
+	/**
+	 * One pool per shard; shardPools[0] is pool.
 	 */
-	private static JdbcDataSource pool = new JdbcDataSource();
+	private static ConnectionPool[] shardPools;
+
+	/**
+	 * The shard getConnection() serves on the current thread, set by onShard(); null means shard 0.
+	 */
+	private static final ThreadLocal<Integer> currentShard = new ThreadLocal<>();
+
+	/**
+	 * Times the statements run through the connections handed out; null when they are not instrumented.
+	 */
+	private static volatile JdbcInstrumentation instrumentation;
 
 	/**
 	 * static initialization block to establish credentials for DataSoure Pool
 	 */
 	static {
-		pool.setURL(url);
-		pool.setUser(username);
-		pool.setPassword(password);
+		dataSource.setURL(url);
+		dataSource.setUser(username);
+		dataSource.setPassword(password);
+		pool = new ConnectionPool("h2", dataSource,
+				Integer.getInteger("db.pool.maxSize", 10),
+				Long.getLong("db.pool.checkoutTimeoutMillis", 30_000L),
+				Long.getLong("db.pool.idleTimeoutMillis", 600_000L),
+				Long.getLong("db.pool.maxLifetimeMillis", 1_800_000L),
+				Integer.getInteger("db.pool.statementCacheSize", 32));
+		shardPools = new ConnectionPool[] { pool };
+		configureShards(Integer.getInteger("db.shards", 1));
+		if (Boolean.getBoolean("db.instrument")) {
+			instrumentation = new JdbcInstrumentation(Long.getLong("db.slowQueryMillis", 100L),
+					Integer.getInteger("db.slowQueryLogPerSecond", 10));
+		}
 	}
 
 	/**
-	 * @return an active connection to the database
+	 * @return the active connection leased to the current thread, to shard 0 or the shard selected by onShard()
 	 */
 	public static Connection getConnection() {
 		try {
-			return pool.getConnection();
+			Integer shard = currentShard.get();
+			Connection connection = (shard == null ? pool : shardPools[shard]).getConnection();
+			JdbcInstrumentation current = instrumentation;
+			return current == null ? connection : current.wrap(connection);
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
@@ -58,17 +112,162 @@ public class ConnectionUtil {
 		return null;
 	}
 
+	/**
+	 * Returns the current thread's connection to the pool. Called once a request has completed; the next call to
+	 * getConnection() on this thread will lease a connection again.
+	 */
+	public static void releaseConnection() {
+		for (ConnectionPool shardPool : shardPools) {
+			shardPool.release();
+		}
+	}
+
+// -------------------------------------------------------------------------------------
+
+	/**
+	 * Sets the number of shards, opening a pool for each new one and shutting down the pools of shards no longer
+	 * used. Meant for startup and tests; nothing may be using the shards while they change.
+	 *
+	 * @param count the number of shards, at least 1
+	 */
+	public static synchronized void configureShards(int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException("db.shards must be at least 1");
+		}
+		ConnectionPool[] pools = new ConnectionPool[count];
+		for (int shard = 0; shard < count; shard++) {
+			pools[shard] = shard < shardPools.length ? shardPools[shard] : createShardPool(shard);
+		}
+		for (int shard = count; shard < shardPools.length; shard++) {
+			shardPools[shard].shutdown();
+		}
+		shardPools = pools;
+	}
+
+	private static ConnectionPool createShardPool(int shard) {
+		JdbcDataSource shardSource = new JdbcDataSource();
+		shardSource.setURL(System.getProperty("db.shard." + shard + ".url",
+				url.replaceFirst("^(jdbc:h2:[^;]*)", "$1_shard" + shard)));
+		shardSource.setUser(username);
+		shardSource.setPassword(password);
+		return new ConnectionPool("h2-shard" + shard, shardSource,
+				Integer.getInteger("db.pool.maxSize", 10),
+				Long.getLong("db.pool.checkoutTimeoutMillis", 30_000L),
+				Long.getLong("db.pool.idleTimeoutMillis", 600_000L),
+				Long.getLong("db.pool.maxLifetimeMillis", 1_800_000L),
+				Integer.getInteger("db.pool.statementCacheSize", 32));
+	}
+
+	/**
+	 * @return the number of databases messages are spread over
+	 */
+	public static int getShardCount() {
+		return shardPools.length;
+	}
+
+	/**
+	 * Runs work with getConnection() returning connections to the given shard on this thread.
+	 *
+	 * @param shard between 0 and getShardCount() - 1
+	 * @param work the database work to run there
+	 * @return what work returned
+	 */
+	public static <T> T onShard(int shard, Supplier<T> work) {
+		Integer previous = currentShard.get();
+		currentShard.set(shard);
+		try {
+			return work.get();
+		} finally {
+			if (previous == null) {
+				currentShard.remove();
+			} else {
+				currentShard.set(previous);
+			}
+		}
+	}
+
+	/**
+	 * @param posted_by an account_id
+	 * @return the shard holding that account's messages
+	 */
+	public static int shardForPoster(int posted_by) {
+		// Mix the bits so that consecutive account ids do not fill the shards in lockstep
+		int hash = posted_by * 0x9E3779B9;
+		return Math.floorMod(hash ^ (hash >>> 16), shardPools.length);
+	}
+
+	/**
+	 * @param message_id a message_id generated after the shards were set up
+	 * @return the shard whose identity sequence produced it (see ShardManager)
+	 */
+	public static int shardForMessage(int message_id) {
+		return Math.floorMod(message_id - 1, shardPools.length);
+	}
+
+	/**
+	 * @return the pool's active, idle and waiting counts along with its lifetime counters
+	 */
+	public static PoolStats getPoolStats() {
+		return pool.getStats();
+	}
+
+	/**
+	 * Turns statement instrumentation on or off while running.
+	 *
+	 * @param newInstrumentation wraps the connections handed out from now on, or null for plain connections
+	 */
+	public static void setInstrumentation(JdbcInstrumentation newInstrumentation) {
+		instrumentation = newInstrumentation;
+	}
+
+	/**
+	 * @return the instrumentation in use, or null if statements are not instrumented
+	 */
+	public static JdbcInstrumentation getInstrumentation() {
+		return instrumentation;
+	}
+
+	/**
+	 * @return the timing and row counts of every statement run so far, the one with the most total time first;
+	 *         empty if statements are not instrumented
+	 */
+	public static List<QueryStats> getQueryStats() {
+		JdbcInstrumentation current = instrumentation;
+		return current == null ? Collections.emptyList() : current.getQueryStats();
+	}
+
 	/**
 	 * For the purpose of testing, we will need to drop and recreate our database
-	 * tables to keep it consistent across all tests. The method will read the sql
-	 * file in resources. This will be performed before every test.
+	 * tables to keep it consistent across all tests. Everything is dropped, the schema
+	 * is rebuilt by the migrations, and then the test data in the sql file in resources
+	 * is loaded. This will be performed before every test. With several shards, every
+	 * shard is emptied and rebuilt, and the test data is then spread over them.
 	 */
 	public static void resetTestDatabase() {
 		try {
+			for (int shard = 1; shard < getShardCount(); shard++) {
+				onShard(shard, () -> dropAllObjects());
+			}
+			dropAllObjects();
+			SchemaMigrator.migrate();
 			FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");
 			RunScript.execute(getConnection(), sqlReader);
+			releaseConnection();
+			// Migrates the other shards and moves the fixture's messages to the shards they belong on
+			ShardManager.prepare();
 		} catch (SQLException | FileNotFoundException e) {
 			e.printStackTrace();
+		} finally {
+			releaseConnection();
+		}
+	}
+
+	private static Void dropAllObjects() {
+		try (Statement statement = getConnection().createStatement()) {
+			statement.execute("DROP ALL OBJECTS");
+		} catch (SQLException e) {
+			e.printStackTrace();
 		}
+		return null;
 	}
 }
@@ -0,0 +1,112 @@
+package Util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A fixed-size pool of threads for database work, with a bounded queue in front of it.
+ *
+ * Handlers hand their service calls to submit() and get a CompletableFuture back, so the web threads are free to
+ * parse and write while the calls run here. The number of threads caps how many requests use the database at once,
+ * independently of how many web threads there are. When every thread is busy and the queue is full, submit() throws
+ * RejectedExecutionException straight away instead of letting the backlog grow.
+ *
+ * Each task returns its thread's connection lease when it finishes, so the threads never hold a connection while
+ * they are idle.
+ */
+public class DbExecutor {
+
+	private final String name;
+	private final int threads;
+	private final int queueCapacity;
+	private final ThreadPoolExecutor executor;
+
+	// Counters for getStats()
+	private final LongAdder submitted = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder queueNanos = new LongAdder();
+	private final LongAdder runNanos = new LongAdder();
+
+	/**
+	 * @param name used for thread names and in the stats
+	 * @param threads the number of tasks that may run at once
+	 * @param queueCapacity the number of tasks that may wait for a thread before new ones are rejected; 0 rejects
+	 *            every task that finds all threads busy
+	 */
+	public DbExecutor(String name, int threads, int queueCapacity) {
+		this.name = name;
+		this.threads = threads;
+		this.queueCapacity = queueCapacity;
+
+		AtomicInteger threadNumber = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity) : new SynchronousQueue<>(), r -> {
+					Thread thread = new Thread(r, name + "-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.AbortPolicy());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Runs call on one of the pool's threads.
+	 *
+	 * @param call the database work, typically a service method
+	 * @return a future completed with call's result, or exceptionally with whatever it threw
+	 * @throws RejectedExecutionException if every thread is busy and the queue is full, or the pool is shut down
+	 */
+	public <T> CompletableFuture<T> submit(Supplier<T> call) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		long queuedAt = System.nanoTime();
+		try {
+			executor.execute(() -> {
+				long startedAt = System.nanoTime();
+				queueNanos.add(startedAt - queuedAt);
+				// Counted, and the connection returned, before the future completes and the response goes out
+				T result;
+				try {
+					result = call.get();
+				} catch (Throwable t) {
+					ConnectionUtil.releaseConnection();
+					failed.increment();
+					runNanos.add(System.nanoTime() - startedAt);
+					future.completeExceptionally(t);
+					return;
+				}
+				ConnectionUtil.releaseConnection();
+				completed.increment();
+				runNanos.add(System.nanoTime() - startedAt);
+				future.complete(result);
+			});
+		} catch (RejectedExecutionException e) {
+			rejected.increment();
+			throw e;
+		}
+		submitted.increment();
+		return future;
+	}
+
+	/**
+	 * Stops accepting tasks. Tasks already queued still run.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * @return a snapshot of the executor's counters
+	 */
+	public DbExecutorStats getStats() {
+		return new DbExecutorStats(name, threads, queueCapacity, executor.getActiveCount(), executor.getQueue().size(),
+				submitted.sum(), completed.sum(), failed.sum(), rejected.sum(), queueNanos.sum(), runNanos.sum());
+	}
+}
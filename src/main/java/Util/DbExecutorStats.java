@@ -0,0 +1,128 @@
+package Util;
+
+/**
+ * A point-in-time snapshot of a DbExecutor's counters.
+ */
+public class DbExecutorStats {
+
+	private final String name;
+	private final int threads;
+	private final int queueCapacity;
+	private final int active;
+	private final int queued;
+	private final long submitted;
+	private final long completed;
+	private final long failed;
+	private final long rejected;
+	private final long queueNanos;
+	private final long runNanos;
+
+	public DbExecutorStats(String name, int threads, int queueCapacity, int active, int queued, long submitted,
+			long completed, long failed, long rejected, long queueNanos, long runNanos) {
+		this.name = name;
+		this.threads = threads;
+		this.queueCapacity = queueCapacity;
+		this.active = active;
+		this.queued = queued;
+		this.submitted = submitted;
+		this.completed = completed;
+		this.failed = failed;
+		this.rejected = rejected;
+		this.queueNanos = queueNanos;
+		this.runNanos = runNanos;
+	}
+
+	/**
+	 * @return the name of the executor
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of tasks that may run at once
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return the number of tasks that may wait before new ones are rejected
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * @return the number of tasks running now
+	 */
+	public int getActive() {
+		return active;
+	}
+
+	/**
+	 * @return the number of tasks waiting for a thread
+	 */
+	public int getQueued() {
+		return queued;
+	}
+
+	/**
+	 * @return the number of tasks accepted since the executor started
+	 */
+	public long getSubmitted() {
+		return submitted;
+	}
+
+	/**
+	 * @return the number of tasks that returned normally
+	 */
+	public long getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * @return the number of tasks that threw
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return the number of tasks turned away because the queue was full
+	 */
+	public long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * @return the total time tasks spent waiting for a thread, in nanoseconds
+	 */
+	public long getQueueNanos() {
+		return queueNanos;
+	}
+
+	/**
+	 * @return the total time tasks spent running, in nanoseconds
+	 */
+	public long getRunNanos() {
+		return runNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "DbExecutorStats{" +
+				"name='" + name + '\'' +
+				", threads=" + threads +
+				", queueCapacity=" + queueCapacity +
+				", active=" + active +
+				", queued=" + queued +
+				", submitted=" + submitted +
+				", completed=" + completed +
+				", failed=" + failed +
+				", rejected=" + rejected +
+				", queueNanos=" + queueNanos +
+				", runNanos=" + runNanos +
+				'}';
+	}
+}
@@ -0,0 +1,287 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Wraps connections so that every statement executed through them is timed and counted.
+ *
+ * Each statement is tagged with the method that created it, e.g. MessageDAO.getUserMessages, found by walking the
+ * stack once when the statement is prepared. Executions are added to a QueryStats per caller and SQL text; rows
+ * are counted as the caller reads them from the ResultSet, and rows changed are taken from the update counts.
+ *
+ * Executions slower than the threshold are printed to a slow-query log, at most maxSlowLogsPerSecond lines a second;
+ * the lines dropped over that limit are counted and reported on the next line printed.
+ */
+public class JdbcInstrumentation {
+
+	private static final StackWalker WALKER = StackWalker.getInstance();
+
+	private final long slowThresholdNanos;
+	private final int maxSlowLogsPerSecond;
+	private final ConcurrentHashMap<String, QueryStats> stats = new ConcurrentHashMap<>();
+
+	// The last connection wrapped on each thread, so repeated getConnection() calls reuse one wrapper
+	private final ThreadLocal<InstrumentedConnection> lastWrapped = new ThreadLocal<>();
+
+	// Slow-query log rate limit, guarded by this
+	private long logSecond;
+	private int loggedThisSecond;
+	private long suppressed;
+
+	/**
+	 * @param slowThresholdMillis executions taking longer than this are logged; 0 or less logs none
+	 * @param maxSlowLogsPerSecond the most slow-query lines printed in any one second
+	 */
+	public JdbcInstrumentation(long slowThresholdMillis, int maxSlowLogsPerSecond) {
+		this.slowThresholdNanos = slowThresholdMillis > 0 ? slowThresholdMillis * 1_000_000L : Long.MAX_VALUE;
+		this.maxSlowLogsPerSecond = maxSlowLogsPerSecond;
+	}
+
+	/**
+	 * @param connection a connection from the pool
+	 * @return a connection that behaves the same, with its statements instrumented
+	 */
+	public Connection wrap(Connection connection) {
+		InstrumentedConnection wrapped = lastWrapped.get();
+		if (wrapped == null || wrapped.raw != connection) {
+			wrapped = new InstrumentedConnection(connection);
+			lastWrapped.set(wrapped);
+		}
+		return wrapped.proxy;
+	}
+
+	/**
+	 * @return the stats of every statement seen, the one with the most total time first
+	 */
+	public List<QueryStats> getQueryStats() {
+		List<QueryStats> list = new ArrayList<>(stats.values());
+		list.sort(Comparator.comparingDouble(QueryStats::getTotalMillis).reversed());
+		return list;
+	}
+
+	/**
+	 * Forgets every statement's stats.
+	 */
+	public void reset() {
+		stats.clear();
+	}
+
+	// --------------------------------------------------------------------------------------------
+
+	private QueryStats statsFor(String caller, String sql) {
+		return stats.computeIfAbsent(caller + " " + sql, key -> new QueryStats(caller, sql));
+	}
+
+	private void record(QueryStats queryStats, long nanos, boolean failed) {
+		boolean slow = nanos > slowThresholdNanos;
+		queryStats.recordExecution(nanos, failed, slow);
+		if (slow) {
+			logSlow(queryStats, nanos);
+		}
+	}
+
+	private void logSlow(QueryStats queryStats, long nanos) {
+		long dropped;
+		synchronized (this) {
+			long second = System.nanoTime() / 1_000_000_000L;
+			if (second != logSecond) {
+				logSecond = second;
+				loggedThisSecond = 0;
+			}
+			if (loggedThisSecond >= maxSlowLogsPerSecond) {
+				suppressed++;
+				return;
+			}
+			loggedThisSecond++;
+			dropped = suppressed;
+			suppressed = 0;
+		}
+		System.out.printf("Slow query: %.1f ms in %s: %s%s%n", nanos / 1e6, queryStats.getCaller(),
+				queryStats.getSql(), dropped > 0 ? " (" + dropped + " more not logged)" : "");
+	}
+
+	/**
+	 * @return the first method on the stack outside the JDBC plumbing, as SimpleClassName.method
+	 */
+	static String findCaller() {
+		return WALKER.walk(frames -> frames
+				.filter(frame -> !isPlumbing(frame.getClassName()))
+				.findFirst()
+				.map(frame -> {
+					String className = frame.getClassName();
+					return className.substring(className.lastIndexOf('.') + 1) + "." + frame.getMethodName();
+				})
+				.orElse("unknown"));
+	}
+
+	private static boolean isPlumbing(String className) {
+		return className.startsWith("Util.JdbcInstrumentation") || className.startsWith("Util.ConnectionPool")
+				|| className.startsWith("java.") || className.startsWith("jdk.") || className.startsWith("com.sun.")
+				|| className.contains("$Proxy");
+	}
+
+	private static Object invokeRaw(Object raw, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(raw, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------------
+
+	/**
+	 * A connection whose createStatement() and prepareStatement() results are instrumented.
+	 */
+	private class InstrumentedConnection implements InvocationHandler {
+		private final Connection raw;
+		private final Connection proxy;
+
+		InstrumentedConnection(Connection raw) {
+			this.raw = raw;
+			this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "Instrumented[" + raw + "]";
+				default:
+					break;
+			}
+			Object result = invokeRaw(raw, method, args);
+			if (result instanceof PreparedStatement && method.getName().equals("prepareStatement")) {
+				return new InstrumentedStatement((Statement) result, this.proxy, (String) args[0]).proxy;
+			}
+			if (result instanceof Statement && method.getName().equals("createStatement")) {
+				return new InstrumentedStatement((Statement) result, this.proxy, null).proxy;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * A statement that times its executions. A PreparedStatement is tagged with its SQL and caller when it is
+	 * prepared; a plain Statement takes the SQL from each execute call and finds its caller then.
+	 */
+	private class InstrumentedStatement implements InvocationHandler {
+		private final Statement raw;
+		private final Object proxy;
+		private final Connection connection;
+		private final QueryStats preparedStats;
+
+		InstrumentedStatement(Statement raw, Connection connection, String sql) {
+			this.raw = raw;
+			this.connection = connection;
+			this.preparedStats = sql == null ? null : statsFor(findCaller(), sql);
+			Class<?> type = sql == null ? Statement.class : PreparedStatement.class;
+			this.proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			switch (name) {
+				case "getConnection":
+					return connection;
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "Instrumented[" + raw + "]";
+				case "execute":
+				case "executeQuery":
+				case "executeUpdate":
+				case "executeLargeUpdate":
+				case "executeBatch":
+					return execute(method, args);
+				default:
+					return invokeRaw(raw, method, args);
+			}
+		}
+
+		private Object execute(Method method, Object[] args) throws Throwable {
+			QueryStats queryStats = preparedStats;
+			if (args != null && args.length > 0 && args[0] instanceof String) {
+				queryStats = statsFor(findCaller(), (String) args[0]);
+			}
+			if (queryStats == null) {
+				// executeBatch() on a plain Statement has no single SQL text to file it under
+				return invokeRaw(raw, method, args);
+			}
+			long start = System.nanoTime();
+			boolean failed = true;
+			try {
+				Object result = invokeRaw(raw, method, args);
+				failed = false;
+				if (result instanceof ResultSet) {
+					return new CountingResultSet((ResultSet) result, queryStats).proxy;
+				}
+				if (result instanceof Integer || result instanceof Long) {
+					queryStats.addRows(Math.max(((Number) result).longValue(), 0));
+				} else if (result instanceof int[]) {
+					for (int count : (int[]) result) {
+						queryStats.addRows(Math.max(count, 0));
+					}
+				}
+				return result;
+			} finally {
+				record(queryStats, System.nanoTime() - start, failed);
+			}
+		}
+	}
+
+	/**
+	 * A ResultSet that adds a row to its statement's stats every time next() moves onto one.
+	 */
+	private static class CountingResultSet implements InvocationHandler {
+		private final ResultSet raw;
+		private final ResultSet proxy;
+		private final QueryStats queryStats;
+
+		CountingResultSet(ResultSet raw, QueryStats queryStats) {
+			this.raw = raw;
+			this.queryStats = queryStats;
+			this.proxy = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+					new Class<?>[] { ResultSet.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "next":
+					boolean hasRow = raw.next();
+					if (hasRow) {
+						queryStats.addRows(1);
+					}
+					return hasRow;
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "Counting[" + raw + "]";
+				default:
+					return invokeRaw(raw, method, args);
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import io.javalin.json.JsonMapper;
+
+import Model.Account;
+import Model.Message;
+
+/**
+ * The one JSON codec of the application, registered as Javalin's JsonMapper and used directly by the controller.
+ *
+ * A single ObjectMapper is configured once and shared; ObjectMapper, ObjectReader and ObjectWriter are all
+ * thread-safe once configured. Readers and writers for Message and Account are built up front, and those for any
+ * other type are built on first use and kept, so no request pays for serializer lookup more than once.
+ *
+ * writeTo() encodes straight into an OutputStream as UTF-8 bytes, without building an intermediate String.
+ * toJsonString() passes a String through untouched, as Javalin's own Jackson mapper does, so ctx.json("") still
+ * sends an empty body.
+ */
+public class JsonCodec implements JsonMapper {
+
+	/**
+	 * The shared, pre-configured mapper
+	 */
+	public static final ObjectMapper MAPPER = new ObjectMapper();
+
+	public static final ObjectReader MESSAGE_READER = MAPPER.readerFor(Message.class);
+	public static final ObjectReader MESSAGE_LIST_READER = MAPPER.readerFor(new TypeReference<List<Message>>() {});
+	public static final ObjectReader ACCOUNT_READER = MAPPER.readerFor(Account.class);
+
+	public static final ObjectWriter MESSAGE_WRITER = MAPPER.writerFor(Message.class);
+	public static final ObjectWriter ACCOUNT_WRITER = MAPPER.writerFor(Account.class);
+
+	/**
+	 * The instance to register with Javalin
+	 */
+	public static final JsonCodec INSTANCE = new JsonCodec();
+
+	private static final ConcurrentHashMap<Type, ObjectReader> READERS = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+
+	static {
+		READERS.put(Message.class, MESSAGE_READER);
+		READERS.put(Account.class, ACCOUNT_READER);
+		WRITERS.put(Message.class, MESSAGE_WRITER);
+		WRITERS.put(Account.class, ACCOUNT_WRITER);
+	}
+
+	private JsonCodec() {
+	}
+
+	/**
+	 * @param type the type to read
+	 * @return a reader for type, built once and reused
+	 */
+	public static ObjectReader readerFor(Type type) {
+		return READERS.computeIfAbsent(type, t -> MAPPER.readerFor(MAPPER.constructType(t)));
+	}
+
+	/**
+	 * @param value the value about to be written
+	 * @return a writer for the runtime class of value, built once and reused
+	 */
+	public static ObjectWriter writerFor(Object value) {
+		return WRITERS.computeIfAbsent(value.getClass(), MAPPER::writerFor);
+	}
+
+	/**
+	 * Encodes value as JSON straight into out, in one pass. out is flushed but left open.
+	 *
+	 * @param value the value to encode
+	 * @param out where the UTF-8 bytes go
+	 * @throws IOException if out cannot be written
+	 */
+	public static void writeTo(Object value, OutputStream out) throws IOException {
+		try (JsonGenerator generator = MAPPER.createGenerator(out)) {
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			if (value == null) {
+				generator.writeNull();
+			} else {
+				writerFor(value).writeValue(generator, value);
+			}
+		}
+	}
+
+	/**
+	 * @param out where the UTF-8 bytes go
+	 * @return a generator sharing the codec's configuration, for writing a JSON document piece by piece
+	 * @throws IOException if the generator cannot be created
+	 */
+	public static JsonGenerator createGenerator(OutputStream out) throws IOException {
+		return MAPPER.createGenerator(out);
+	}
+
+	// --------------------------------------------------------------------------------------------
+	// JsonMapper, used by ctx.json() and ctx.bodyAsClass()
+
+	@Override
+	public String toJsonString(Object obj, Type type) {
+		if (obj instanceof String) {
+			return (String) obj;
+		}
+		try {
+			return obj == null ? "null" : writerFor(obj).writeValueAsString(obj);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public <T> T fromJsonString(String json, Type type) {
+		try {
+			return readerFor(type).readValue(json);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public <T> T fromJsonStream(InputStream json, Type type) {
+		try {
+			return readerFor(type).readValue(json);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size, lock-free histogram of latencies in nanoseconds, laid out like an HDR histogram.
+ *
+ * Values below 16 have a bucket each. Above that, every power of two is split into 16 equal buckets, so a value is
+ * never more than 1/16 (6.25%) away from the bounds of its bucket, at any magnitude. Values up to 2^41 ns (about
+ * 36 minutes) are told apart; larger ones share the last bucket. The histogram always holds 608 counters, whatever
+ * it records.
+ *
+ * record() is a handful of atomic increments and never blocks, so it can sit on the request path. Readers see each
+ * counter atomically but not all counters at one instant, which is fine for monitoring.
+ */
+public class LatencyHistogram {
+
+	// 2^SUB_BITS buckets per power of two
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+
+	// Highest power of two with its own buckets
+	private static final int MAX_EXPONENT = 40;
+
+	/**
+	 * The number of buckets
+	 */
+	public static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one latency.
+	 *
+	 * @param nanos the latency in nanoseconds; negative values count as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		counts.incrementAndGet(bucketIndex(value));
+		count.increment();
+		sum.add(value);
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+			// Another thread raised the maximum first; compare again
+		}
+	}
+
+	/**
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return the sum of the values recorded, in nanoseconds
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * @return the largest value recorded, in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param quantile between 0 and 1, e.g. 0.99
+	 * @return the highest value in the bucket holding that quantile, capped at the largest value recorded, or 0 if
+	 *         nothing has been recorded
+	 */
+	public long valueAtQuantile(double quantile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(bucketUpperBound(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * @param nanos a bucket boundary, e.g. a Prometheus "le" value
+	 * @return the number of recorded values whose bucket lies wholly at or below nanos
+	 */
+	public long countAtOrBelow(long nanos) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS && bucketUpperBound(i) <= nanos; i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	// --------------------------------------------------------------------------------------------
+
+	static int bucketIndex(long value) {
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+		return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+
+	static long bucketLowerBound(int index) {
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		int exponent = index / SUB_COUNT + SUB_BITS - 1;
+		int sub = index % SUB_COUNT;
+		return (long) (SUB_COUNT + sub) << (exponent - SUB_BITS);
+	}
+
+	static long bucketUpperBound(int index) {
+		return index == BUCKETS - 1 ? Long.MAX_VALUE : bucketLowerBound(index + 1) - 1;
+	}
+}
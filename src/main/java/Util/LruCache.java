@@ -0,0 +1,207 @@
+package Util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A size-bounded, thread-safe LRU cache with an optional time-to-live and hit, miss and eviction counters.
+ *
+ * Values are loaded on a miss through getOrLoad(). A loader may return null; the null is cached too, so repeated
+ * lookups of a key that does not exist are also answered from memory. Writers call invalidate() after changing the
+ * underlying data. Each invalidation bumps a generation counter, and a load that raced with an invalidation of its
+ * key is returned to its caller but not cached, so the cache never keeps a value older than the last invalidation.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class LruCache<K, V> {
+
+	/**
+	 * A cached value, possibly null, and when it stops being fresh.
+	 */
+	private static class Entry<V> {
+		final V value;
+		final long expiresAt;
+
+		Entry(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final int maxSize;
+	private final long ttlNanos;
+	private final LinkedHashMap<K, Entry<V>> entries;
+
+	// Bumped by every invalidation, so a load can tell whether it raced with a write
+	private final AtomicLong generation = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param maxSize the maximum number of entries kept
+	 * @param ttlMillis how long an entry stays fresh, or 0 to keep entries until evicted or invalidated
+	 */
+	public LruCache(int maxSize, long ttlMillis) {
+		this.maxSize = maxSize;
+		this.ttlNanos = ttlMillis * 1_000_000L;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				if (size() > LruCache.this.maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached value for key, loading and caching it first if it is missing or expired.
+	 *
+	 * @param key the key to look up
+	 * @param loader loads the value on a miss; may return null to record that the key does not exist
+	 * @return the value, or null if the loader found nothing
+	 */
+	public V getOrLoad(K key, Function<K, V> loader) {
+		long now = System.nanoTime();
+		synchronized (entries) {
+			Entry<V> entry = entries.get(key);
+			if (entry != null) {
+				if (ttlNanos == 0 || now - entry.expiresAt < 0) {
+					hits.incrementAndGet();
+					return entry.value;
+				}
+				entries.remove(key);
+				evictions.incrementAndGet();
+			}
+		}
+		misses.incrementAndGet();
+
+		// Load outside the lock so that a slow load does not block other keys
+		long startGeneration = generation.get();
+		V value = loader.apply(key);
+		synchronized (entries) {
+			if (generation.get() == startGeneration) {
+				entries.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the cached value for key without loading it on a miss, and without counting a hit or a miss.
+	 *
+	 * @param key the key to look up
+	 * @return the fresh cached value, or null if it is missing, expired or cached as not found
+	 */
+	public V getIfPresent(K key) {
+		long now = System.nanoTime();
+		synchronized (entries) {
+			Entry<V> entry = entries.get(key);
+			if (entry != null && (ttlNanos == 0 || now - entry.expiresAt < 0)) {
+				return entry.value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Replaces the cached value for key with one the caller already knows to be current, e.g. the row a write
+	 * returned.
+	 *
+	 * @param key the key to update
+	 * @param value the current value, or null if the key no longer exists
+	 */
+	public void put(K key, V value) {
+		synchronized (entries) {
+			generation.incrementAndGet();
+			entries.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+		}
+	}
+
+	/**
+	 * Like put(), but keeps a non-null value that is already cached. Used for a freshly inserted row, whose hook may
+	 * run after a later write to the same key has already cached something newer.
+	 *
+	 * @param key the key to fill
+	 * @param value the value to cache if the key is missing or cached as not found
+	 */
+	public void putIfAbsent(K key, V value) {
+		synchronized (entries) {
+			generation.incrementAndGet();
+			Entry<V> entry = entries.get(key);
+			if (entry == null || entry.value == null) {
+				entries.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+			}
+		}
+	}
+
+	/**
+	 * Drops the cached value for key, if any. Call after changing the data behind it.
+	 *
+	 * @param key the key whose data changed
+	 */
+	public void invalidate(K key) {
+		synchronized (entries) {
+			generation.incrementAndGet();
+			entries.remove(key);
+		}
+	}
+
+	/**
+	 * Drops every cached value.
+	 */
+	public void invalidateAll() {
+		synchronized (entries) {
+			generation.incrementAndGet();
+			entries.clear();
+		}
+	}
+
+	/**
+	 * @return the number of entries currently cached
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups that had to call the loader
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of entries dropped because the cache was full or the entry had expired
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "LruCache{" +
+				"size=" + size() +
+				", maxSize=" + maxSize +
+				", hits=" + hits +
+				", misses=" + misses +
+				", evictions=" + evictions +
+				'}';
+	}
+}
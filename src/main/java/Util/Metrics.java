@@ -0,0 +1,201 @@
+package Util;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Request metrics for each route of the API, plus any gauges registered by the rest of the application, rendered in
+ * the Prometheus text exposition format by scrape().
+ *
+ * Every route gets a LatencyHistogram, a counter per status code and an in-flight gauge. Routes are registered once
+ * at startup; after that, start() and finish() only touch atomic counters, so recording never takes a lock.
+ * The memory used per route is fixed.
+ */
+public class Metrics {
+
+	// Upper bounds of the Prometheus histogram buckets, in seconds
+	private static final double[] LE_SECONDS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1,
+			2.5, 5, 10 };
+
+	// Quantiles exported as gauges, read from the histogram at scrape time
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	/**
+	 * The counters of one route.
+	 */
+	public static class Route {
+		private final String method;
+		private final String path;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicLongArray statusCounts = new AtomicLongArray(600);
+		private final LongAdder inFlight = new LongAdder();
+
+		Route(String method, String path) {
+			this.method = method;
+			this.path = path;
+		}
+
+		/**
+		 * Call when a request for this route starts being handled.
+		 */
+		public void start() {
+			inFlight.increment();
+		}
+
+		/**
+		 * Call once per start(), when the request is done.
+		 *
+		 * @param status the HTTP status code sent
+		 * @param nanos how long the request took
+		 */
+		public void finish(int status, long nanos) {
+			inFlight.decrement();
+			latency.record(nanos);
+			if (status >= 100 && status < 600) {
+				statusCounts.incrementAndGet(status);
+			}
+		}
+
+		/**
+		 * @return the route's latency histogram
+		 */
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		/**
+		 * @param status an HTTP status code
+		 * @return the number of requests finished with that status
+		 */
+		public long getStatusCount(int status) {
+			return statusCounts.get(status);
+		}
+
+		/**
+		 * @return the number of requests started and not yet finished
+		 */
+		public long getInFlight() {
+			return inFlight.sum();
+		}
+	}
+
+	/**
+	 * A value read when metrics are scraped.
+	 */
+	private static class Gauge {
+		final String name;
+		final String help;
+		final String type;
+		final LongSupplier value;
+
+		Gauge(String name, String help, String type, LongSupplier value) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+			this.value = value;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Route> routesByKey = new ConcurrentHashMap<>();
+	private final List<Route> routes = new CopyOnWriteArrayList<>();
+	private final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+
+	/**
+	 * @param method the HTTP method, e.g. "GET"
+	 * @param path the route as registered, e.g. "/messages/{message_id}"
+	 * @return the counters for that route, created on the first call
+	 */
+	public Route route(String method, String path) {
+		return routesByKey.computeIfAbsent(method + " " + path, key -> {
+			Route route = new Route(method, path);
+			routes.add(route);
+			return route;
+		});
+	}
+
+	/**
+	 * Adds a value to read at every scrape.
+	 *
+	 * @param name the metric name, e.g. "db_pool_connections_active"
+	 * @param help one line describing it
+	 * @param counter true for a value that only goes up (a Prometheus counter), false for a gauge
+	 * @param value reads the current value
+	 */
+	public void gauge(String name, String help, boolean counter, LongSupplier value) {
+		gauges.add(new Gauge(name, help, counter ? "counter" : "gauge", value));
+	}
+
+	/**
+	 * @return every metric in the Prometheus text exposition format, version 0.0.4
+	 */
+	public String scrape() {
+		StringBuilder out = new StringBuilder(8192);
+
+		header(out, "http_requests_total", "Requests handled, by route and status code.", "counter");
+		for (Route route : routes) {
+			for (int status = 100; status < 600; status++) {
+				long count = route.getStatusCount(status);
+				if (count > 0) {
+					out.append("http_requests_total{").append(labels(route)).append(",status=\"").append(status)
+							.append("\"} ").append(count).append('\n');
+				}
+			}
+		}
+
+		header(out, "http_requests_in_flight", "Requests being handled now.", "gauge");
+		for (Route route : routes) {
+			out.append("http_requests_in_flight{").append(labels(route)).append("} ").append(route.getInFlight())
+					.append('\n');
+		}
+
+		header(out, "http_request_duration_seconds", "Time spent handling requests.", "histogram");
+		for (Route route : routes) {
+			LatencyHistogram latency = route.getLatency();
+			long count = latency.getCount();
+			for (double le : LE_SECONDS) {
+				out.append("http_request_duration_seconds_bucket{").append(labels(route)).append(",le=\"").append(le)
+						.append("\"} ").append(latency.countAtOrBelow((long) (le * 1e9))).append('\n');
+			}
+			out.append("http_request_duration_seconds_bucket{").append(labels(route)).append(",le=\"+Inf\"} ")
+					.append(count).append('\n');
+			out.append("http_request_duration_seconds_sum{").append(labels(route)).append("} ")
+					.append(latency.getSum() / 1e9).append('\n');
+			out.append("http_request_duration_seconds_count{").append(labels(route)).append("} ").append(count)
+					.append('\n');
+		}
+
+		header(out, "http_request_duration_quantile_seconds", "Latency quantiles since startup.", "gauge");
+		for (Route route : routes) {
+			for (double quantile : QUANTILES) {
+				out.append("http_request_duration_quantile_seconds{").append(labels(route)).append(",quantile=\"")
+						.append(quantile).append("\"} ").append(route.getLatency().valueAtQuantile(quantile) / 1e9)
+						.append('\n');
+			}
+		}
+
+		for (Gauge gauge : gauges) {
+			header(out, gauge.name, gauge.help, gauge.type);
+			out.append(gauge.name).append(' ').append(gauge.value.getAsLong()).append('\n');
+		}
+		return out.toString();
+	}
+
+	// --------------------------------------------------------------------------------------------
+
+	private static void header(StringBuilder out, String name, String help, String type) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static String labels(Route route) {
+		return "method=\"" + escape(route.method) + "\",route=\"" + escape(route.path) + "\"";
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
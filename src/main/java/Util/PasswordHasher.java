@@ -0,0 +1,199 @@
+package Util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Password hashing with PBKDF2-HMAC-SHA256, run on a small pool of its own.
+ *
+ * Hashes are stored as "pbkdf2$iterations$salt$hash", salt and hash in Base64, so each row records the cost it was
+ * made with and the cost can be raised without invalidating older rows. Anything without that prefix is a legacy
+ * plaintext password, still accepted by verify() so that existing accounts can log in; needsRehash() tells the
+ * caller to store a proper hash once it has the plaintext in hand.
+ *
+ * PBKDF2 is deliberately slow and purely CPU-bound. The work runs on at most threads pool threads, normally one per
+ * core, behind a queue of queueCapacity; the calling request thread only waits for the result. A burst of logins
+ * therefore cannot occupy every request thread with hashing and starve the other routes of CPU, and when the queue
+ * is full hash() and verify() throw RejectedExecutionException straight away instead of letting the backlog grow.
+ */
+public class PasswordHasher {
+
+	public static final String PREFIX = "pbkdf2$";
+
+	private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+	private static final int SALT_BYTES = 16;
+	private static final int HASH_BYTES = 32;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private final int iterations;
+	private final ThreadPoolExecutor executor;
+	private final LongAdder rejected = new LongAdder();
+
+	// Verified when the account does not exist, so that an unknown username takes as long as a wrong password
+	private final String dummyHash;
+
+	/**
+	 * @param iterations the PBKDF2 cost for new hashes; older hashes with fewer are rehashed on login
+	 * @param threads the number of hashes that may be computed at once
+	 * @param queueCapacity the number of hashes that may wait for a thread before new ones are rejected
+	 */
+	public PasswordHasher(int iterations, int threads, int queueCapacity) {
+		if (iterations < 1) {
+			throw new IllegalArgumentException("Need at least one iteration, got " + iterations);
+		}
+		this.iterations = iterations;
+
+		AtomicInteger threadNumber = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+					Thread thread = new Thread(r, "password-hasher-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.AbortPolicy());
+		executor.allowCoreThreadTimeOut(true);
+
+		dummyHash = compute("dummy password", newSalt(), iterations);
+	}
+
+	/**
+	 * Hashes a password for storage, on the pool.
+	 *
+	 * @param password the plaintext password
+	 * @return the hash in "pbkdf2$iterations$salt$hash" form
+	 * @throws RejectedExecutionException if the pool's queue is full
+	 */
+	public String hash(String password) {
+		byte[] salt = newSalt();
+		return onPool(() -> compute(password, salt, iterations));
+	}
+
+	/**
+	 * Checks a password against a stored value, a hash on the pool or a legacy plaintext password directly. A null
+	 * stored value (no such account) costs the same as a hash, and never matches.
+	 *
+	 * @param password the plaintext password entered
+	 * @param stored the value from the account table, or null
+	 * @return true if the password matches
+	 * @throws RejectedExecutionException if the pool's queue is full
+	 */
+	public boolean verify(String password, String stored) {
+		if (stored == null) {
+			verify(password, dummyHash);
+			return false;
+		}
+		if (!stored.startsWith(PREFIX)) {
+			return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+					stored.getBytes(StandardCharsets.UTF_8));
+		}
+
+		// A malformed hash matches nothing
+		String[] parts = stored.split("\\$");
+		int storedIterations;
+		byte[] salt;
+		try {
+			storedIterations = parts.length == 4 ? Integer.parseInt(parts[1]) : 0;
+			salt = Base64.getDecoder().decode(parts.length == 4 ? parts[2] : "");
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		if (storedIterations < 1) {
+			return false;
+		}
+		String expected = stored;
+		return onPool(() -> MessageDigest.isEqual(
+				compute(password, salt, storedIterations).getBytes(StandardCharsets.US_ASCII),
+				expected.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	/**
+	 * @param stored the value from the account table
+	 * @return true if it is legacy plaintext or was hashed with fewer iterations than the current cost
+	 */
+	public boolean needsRehash(String stored) {
+		if (stored == null || !stored.startsWith(PREFIX)) {
+			return true;
+		}
+		String[] parts = stored.split("\\$");
+		try {
+			return parts.length != 4 || Integer.parseInt(parts[1]) < iterations;
+		} catch (NumberFormatException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * @return the PBKDF2 cost used for new hashes
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return the number of hashes waiting for a pool thread
+	 */
+	public int getQueued() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * @return the number of hashes turned away because the queue was full
+	 */
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+// -------------------------------------------------------------------------------------
+
+	private <T> T onPool(Supplier<T> work) {
+		CompletableFuture<T> future;
+		try {
+			future = CompletableFuture.supplyAsync(work, executor);
+		} catch (RejectedExecutionException e) {
+			rejected.increment();
+			throw e;
+		}
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private static byte[] newSalt() {
+		byte[] salt = new byte[SALT_BYTES];
+		RANDOM.nextBytes(salt);
+		return salt;
+	}
+
+	private static String compute(String password, byte[] salt, int iterations) {
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BYTES * 8);
+		try {
+			byte[] hash = SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+			Base64.Encoder base64 = Base64.getEncoder();
+			return PREFIX + iterations + "$" + base64.encodeToString(salt) + "$" + base64.encodeToString(hash);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(ALGORITHM + " is not available", e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+}
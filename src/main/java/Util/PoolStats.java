@@ -0,0 +1,149 @@
+package Util;
+
+/**
+ * A point-in-time snapshot of a ConnectionPool's counters.
+ */
+public class PoolStats {
+
+	private final String name;
+	private final int maxSize;
+	private final int active;
+	private final int idle;
+	private final int waiting;
+	private final long created;
+	private final long closed;
+	private final long checkouts;
+	private final long timeouts;
+	private final long reclaimed;
+	private final long statementCacheHits;
+	private final long statementCacheMisses;
+	private final long statementCacheEvictions;
+
+	public PoolStats(String name, int maxSize, int active, int idle, int waiting, long created, long closed,
+			long checkouts, long timeouts, long reclaimed, long statementCacheHits, long statementCacheMisses,
+			long statementCacheEvictions) {
+		this.name = name;
+		this.maxSize = maxSize;
+		this.active = active;
+		this.idle = idle;
+		this.waiting = waiting;
+		this.created = created;
+		this.closed = closed;
+		this.checkouts = checkouts;
+		this.timeouts = timeouts;
+		this.reclaimed = reclaimed;
+		this.statementCacheHits = statementCacheHits;
+		this.statementCacheMisses = statementCacheMisses;
+		this.statementCacheEvictions = statementCacheEvictions;
+	}
+
+	/**
+	 * @return the name of the pool
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the maximum number of physical connections
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the number of connections currently leased to a thread
+	 */
+	public int getActive() {
+		return active;
+	}
+
+	/**
+	 * @return the number of open connections waiting in the pool
+	 */
+	public int getIdle() {
+		return idle;
+	}
+
+	/**
+	 * @return the number of threads blocked waiting for a connection
+	 */
+	public int getWaiting() {
+		return waiting;
+	}
+
+	/**
+	 * @return the number of physical connections opened since the pool started
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return the number of physical connections closed since the pool started
+	 */
+	public long getClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return the number of successful checkouts
+	 */
+	public long getCheckouts() {
+		return checkouts;
+	}
+
+	/**
+	 * @return the number of checkouts that gave up after the checkout timeout
+	 */
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	/**
+	 * @return the number of leases taken back from threads that died without returning them
+	 */
+	public long getReclaimed() {
+		return reclaimed;
+	}
+
+	/**
+	 * @return the number of prepareStatement calls served from a connection's statement cache
+	 */
+	public long getStatementCacheHits() {
+		return statementCacheHits;
+	}
+
+	/**
+	 * @return the number of prepareStatement calls that had to prepare a new statement
+	 */
+	public long getStatementCacheMisses() {
+		return statementCacheMisses;
+	}
+
+	/**
+	 * @return the number of cached statements closed to make room for others
+	 */
+	public long getStatementCacheEvictions() {
+		return statementCacheEvictions;
+	}
+
+	@Override
+	public String toString() {
+		return "PoolStats{" +
+				"name='" + name + '\'' +
+				", maxSize=" + maxSize +
+				", active=" + active +
+				", idle=" + idle +
+				", waiting=" + waiting +
+				", created=" + created +
+				", closed=" + closed +
+				", checkouts=" + checkouts +
+				", timeouts=" + timeouts +
+				", reclaimed=" + reclaimed +
+				", statementCacheHits=" + statementCacheHits +
+				", statementCacheMisses=" + statementCacheMisses +
+				", statementCacheEvictions=" + statementCacheEvictions +
+				'}';
+	}
+}
@@ -0,0 +1,122 @@
+package Util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals for one SQL statement issued from one caller, e.g. MessageDAO.getUserMessages.
+ *
+ * The counters are updated without locks by every execution, so the getters read a live, slightly moving view.
+ */
+public class QueryStats {
+
+	private final String caller;
+	private final String sql;
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LongAdder rows = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder slow = new LongAdder();
+
+	QueryStats(String caller, String sql) {
+		this.caller = caller;
+		this.sql = sql;
+	}
+
+	void recordExecution(long nanos, boolean failed, boolean wasSlow) {
+		latency.record(nanos);
+		if (failed) {
+			errors.increment();
+		}
+		if (wasSlow) {
+			slow.increment();
+		}
+	}
+
+	void addRows(long count) {
+		rows.add(count);
+	}
+
+	/**
+	 * @return the class and method that issued the statement, e.g. "MessageDAO.getUserMessages"
+	 */
+	public String getCaller() {
+		return caller;
+	}
+
+	/**
+	 * @return the SQL text, with ? for parameters
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * @return the number of times the statement was executed
+	 */
+	public long getExecutions() {
+		return latency.getCount();
+	}
+
+	/**
+	 * @return the number of executions that threw
+	 */
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	/**
+	 * @return the number of executions over the slow-query threshold
+	 */
+	public long getSlow() {
+		return slow.sum();
+	}
+
+	/**
+	 * @return rows read through the statement's ResultSets, plus rows changed by its updates
+	 */
+	public long getRows() {
+		return rows.sum();
+	}
+
+	/**
+	 * @return the total time spent executing, in milliseconds
+	 */
+	public double getTotalMillis() {
+		return latency.getSum() / 1e6;
+	}
+
+	/**
+	 * @return the mean time per execution, in milliseconds
+	 */
+	public double getMeanMillis() {
+		long executions = latency.getCount();
+		return executions == 0 ? 0 : latency.getSum() / 1e6 / executions;
+	}
+
+	/**
+	 * @return the 99th percentile execution time, in milliseconds
+	 */
+	public double getP99Millis() {
+		return latency.valueAtQuantile(0.99) / 1e6;
+	}
+
+	/**
+	 * @return the longest execution, in milliseconds
+	 */
+	public double getMaxMillis() {
+		return latency.getMax() / 1e6;
+	}
+
+	@Override
+	public String toString() {
+		return "QueryStats{" +
+				"caller='" + caller + '\'' +
+				", sql='" + sql + '\'' +
+				", executions=" + getExecutions() +
+				", errors=" + getErrors() +
+				", slow=" + getSlow() +
+				", rows=" + getRows() +
+				", totalMillis=" + getTotalMillis() +
+				", maxMillis=" + getMaxMillis() +
+				'}';
+	}
+}
@@ -0,0 +1,284 @@
+package Util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A token bucket per key (an account id), for throttling the writes of noisy accounts.
+ *
+ * Each bucket is a single long holding the bucket's theoretical arrival time (the generic cell rate algorithm): the
+ * moment at which the bucket would be full again if no more requests came. A request moves it one emission interval
+ * (1 / rate) further into the future, and is refused when that would put it more than the burst ahead of now. This
+ * is exactly a bucket of burst tokens refilled at rate per second, with no refill bookkeeping.
+ * A batch of writes takes one token per message, all at once or not at all, through tryAcquire(key, permits) or,
+ * across several accounts, tryAcquireAll().
+ *
+ * The buckets live in STRIPES open-addressing hash tables of primitive longs, the key and its arrival time side by
+ * side, so a lookup touches one cache line and allocates nothing. Each table has its own monitor, held only for the
+ * probe and the update; requests for different accounts rarely meet on the same one.
+ *
+ * A bucket whose arrival time has passed is full, and behaves the same as a bucket that does not exist, so it can be
+ * dropped. A table is rebuilt whenever an insert would fill it past three quarters, and the rebuild keeps only the
+ * buckets that are not full: memory follows the accounts that wrote within the last burst / rate seconds, and a
+ * table sized for a burst of activity shrinks again once the accounts go quiet.
+ */
+public class RateLimiter {
+
+	// Number of tables, a power of two
+	static final int STRIPES = 64;
+
+	// Slots a table starts with, a power of two
+	static final int INITIAL_CAPACITY = 16;
+
+	// Marks a used key slot, so that key 0 differs from an empty slot
+	private static final long USED = 1L << 32;
+
+	/**
+	 * One open-addressing table with linear probing. slots[2 * i] holds USED | key, or 0 if slot i is empty, and
+	 * slots[2 * i + 1] the key's arrival time. Keys are never removed one by one, only left out by rebuild().
+	 */
+	private static final class Stripe {
+		long[] slots = new long[INITIAL_CAPACITY * 2];
+		int size;
+	}
+
+	private final int burst;
+	private final long emissionNanos;
+	private final long toleranceNanos;
+	private final Stripe[] stripes = new Stripe[STRIPES];
+
+	private final LongAdder throttled = new LongAdder();
+	private final LongAdder evicted = new LongAdder();
+
+	/**
+	 * @param perSecond tokens added to each bucket per second
+	 * @param burst tokens a full bucket holds, the most requests a key may make at once
+	 */
+	public RateLimiter(double perSecond, int burst) {
+		if (perSecond <= 0 || burst < 1) {
+			throw new IllegalArgumentException("Need a positive rate and burst, got " + perSecond + " and " + burst);
+		}
+		this.burst = burst;
+		this.emissionNanos = Math.max(1, (long) (1_000_000_000L / perSecond));
+		this.toleranceNanos = emissionNanos * burst;
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Takes one token from the key's bucket.
+	 *
+	 * @param key the account to charge
+	 * @return 0 if the request may go ahead, otherwise the nanoseconds until the bucket has a token again
+	 */
+	public long tryAcquire(int key) {
+		return tryAcquire(key, 1);
+	}
+
+	/**
+	 * Takes permits tokens from the key's bucket at once, or none of them.
+	 *
+	 * @param key the account to charge
+	 * @param permits the number of tokens, at most the burst
+	 * @return 0 if the request may go ahead, otherwise the nanoseconds until the bucket has enough tokens again
+	 */
+	public long tryAcquire(int key, int permits) {
+		checkPermits(permits);
+		int hash = hash(key);
+		Stripe stripe = stripes[hash & (STRIPES - 1)];
+		long wait;
+		synchronized (stripe) {
+			long now = System.nanoTime();
+			int slot = slot(stripe, key, hash >>> 6, now);
+			wait = waitFor(stripe, slot, permits, now);
+			if (wait == 0) {
+				take(stripe, slot, permits, now);
+			}
+		}
+		if (wait > 0) {
+			throttled.increment();
+		}
+		return wait;
+	}
+
+	/**
+	 * Takes permits[i] tokens from the bucket of keys[i] for every i, or nothing from any of them: every bucket is
+	 * checked before any is charged, so a request refused for one key costs the others nothing. The stripes
+	 * involved are locked in index order, so concurrent calls cannot deadlock.
+	 *
+	 * @param keys the accounts to charge, each at most once
+	 * @param permits the number of tokens for each key, each at most the burst
+	 * @return 0 if the request may go ahead, otherwise the nanoseconds until every bucket has enough tokens again
+	 */
+	public long tryAcquireAll(int[] keys, int[] permits) {
+		boolean[] involved = new boolean[STRIPES];
+		int count = 0;
+		for (int i = 0; i < keys.length; i++) {
+			checkPermits(permits[i]);
+			int stripe = hash(keys[i]) & (STRIPES - 1);
+			if (!involved[stripe]) {
+				involved[stripe] = true;
+				count++;
+			}
+		}
+		int[] order = new int[count];
+		for (int stripe = 0, n = 0; stripe < STRIPES; stripe++) {
+			if (involved[stripe]) {
+				order[n++] = stripe;
+			}
+		}
+
+		long wait = acquireAll(order, 0, keys, permits);
+		if (wait > 0) {
+			throttled.increment();
+		}
+		return wait;
+	}
+
+	// Takes the monitors of order[depth..] one inside the other, then checks and charges every key
+	private long acquireAll(int[] order, int depth, int[] keys, int[] permits) {
+		if (depth < order.length) {
+			synchronized (stripes[order[depth]]) {
+				return acquireAll(order, depth + 1, keys, permits);
+			}
+		}
+
+		long now = System.nanoTime();
+		long wait = 0;
+		for (int i = 0; i < keys.length; i++) {
+			int hash = hash(keys[i]);
+			Stripe stripe = stripes[hash & (STRIPES - 1)];
+			wait = Math.max(wait, waitFor(stripe, slot(stripe, keys[i], hash >>> 6, now), permits[i], now));
+		}
+		if (wait > 0) {
+			return wait;
+		}
+		// Nothing can have moved in between, the monitors are all still held
+		for (int i = 0; i < keys.length; i++) {
+			int hash = hash(keys[i]);
+			Stripe stripe = stripes[hash & (STRIPES - 1)];
+			take(stripe, slot(stripe, keys[i], hash >>> 6, now), permits[i], now);
+		}
+		return 0;
+	}
+
+	private void checkPermits(int permits) {
+		if (permits < 1 || permits > burst) {
+			throw new IllegalArgumentException("Need between 1 and " + burst + " permits, got " + permits);
+		}
+	}
+
+	// Spreads consecutive account ids over the stripes (low bits) and the slots (the bits above them)
+	private static int hash(int key) {
+		int hash = key * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Finds the key's slot, adding a full bucket for it if it has none. Called with the stripe's monitor held.
+	 *
+	 * @return the slot index i; the key is at slots[2 * i] and its arrival time at slots[2 * i + 1]
+	 */
+	private int slot(Stripe stripe, int key, int slotHash, long now) {
+		long tag = USED | (key & 0xFFFFFFFFL);
+		long[] slots = stripe.slots;
+		int mask = slots.length / 2 - 1;
+		int i = slotHash & mask;
+		while (slots[2 * i] != tag) {
+			if (slots[2 * i] == 0) {
+				// A new bucket, which starts out full
+				if ((stripe.size + 1) * 4 > (mask + 1) * 3) {
+					rebuild(stripe, now);
+					return slot(stripe, key, slotHash, now);
+				}
+				slots[2 * i] = tag;
+				slots[2 * i + 1] = now;
+				stripe.size++;
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	// The nanoseconds until the bucket in slot i has permits tokens, 0 if it has them now; monitor held
+	private long waitFor(Stripe stripe, int i, int permits, long now) {
+		long arrival = stripe.slots[2 * i + 1];
+		long ahead = (arrival - now < 0 ? now : arrival) + emissionNanos * permits - now;
+		return ahead > toleranceNanos ? ahead - toleranceNanos : 0;
+	}
+
+	// Takes permits tokens from the bucket in slot i, which has them; monitor held
+	private void take(Stripe stripe, int i, int permits, long now) {
+		long arrival = stripe.slots[2 * i + 1];
+		stripe.slots[2 * i + 1] = (arrival - now < 0 ? now : arrival) + emissionNanos * permits;
+	}
+
+	/**
+	 * Moves the buckets that are not full into a table of at least twice their number (so at most half used),
+	 * dropping the full ones. Called with the stripe's monitor held.
+	 */
+	private void rebuild(Stripe stripe, long now) {
+		long[] old = stripe.slots;
+		int live = 0;
+		for (int i = 0; i < old.length; i += 2) {
+			if (old[i] != 0 && old[i + 1] - now > 0) {
+				live++;
+			}
+		}
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < (live + 1) * 2) {
+			capacity <<= 1;
+		}
+
+		long[] slots = new long[capacity * 2];
+		int mask = capacity - 1;
+		for (int i = 0; i < old.length; i += 2) {
+			if (old[i] != 0 && old[i + 1] - now > 0) {
+				int j = (hash((int) old[i]) >>> 6) & mask;
+				while (slots[2 * j] != 0) {
+					j = (j + 1) & mask;
+				}
+				slots[2 * j] = old[i];
+				slots[2 * j + 1] = old[i + 1];
+			}
+		}
+		evicted.add(stripe.size - live);
+		stripe.slots = slots;
+		stripe.size = live;
+	}
+
+	/**
+	 * @return the most tokens a bucket holds, and so the most one call may take
+	 */
+	public int getBurst() {
+		return burst;
+	}
+
+	/**
+	 * @return the number of buckets held
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of requests refused so far
+	 */
+	public long getThrottled() {
+		return throttled.sum();
+	}
+
+	/**
+	 * @return the number of full buckets dropped so far
+	 */
+	public long getEvicted() {
+		return evicted.sum();
+	}
+}
@@ -0,0 +1,153 @@
+package Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.h2.tools.RunScript;
+
+/**
+ * Brings the database schema up to date by applying versioned migration scripts from db/migration on the classpath.
+ *
+ * Every applied migration is recorded in the schema_version table together with a SHA-256 checksum of its script.
+ * On each run the recorded checksums are compared with the scripts on the classpath, and startup fails if an
+ * applied script has been edited: once a migration has shipped, changes go into a new migration. Migrations only
+ * ever move the schema forward, so upgrading an existing database keeps its data.
+ */
+public class SchemaMigrator {
+
+	/**
+	 * The migrations in the order they are applied. File names follow V<version>__<description>.sql.
+	 */
+	private static final List<String> MIGRATIONS = Arrays.asList(
+			"V1__create_account_and_message.sql",
+			"V2__index_message_posted_by.sql",
+			"V3__index_message_posted_by_time.sql",
+			"V4__index_message_time.sql",
+			"V5__index_message_sort_keys.sql");
+
+	/**
+	 * Where the migration scripts live on the classpath.
+	 */
+	private static final String LOCATION = "db/migration/";
+
+	/**
+	 * Applies every migration that has not been applied yet, in version order.
+	 *
+	 * @return the number of migrations applied
+	 * @throws IllegalStateException if a migration fails or an applied migration's script has changed
+	 */
+	public static synchronized int migrate() {
+		Connection connection = ConnectionUtil.getConnection();
+		try {
+			createVersionTable(connection);
+			Map<Integer, String> applied = appliedChecksums(connection);
+
+			int count = 0;
+			for (String file : MIGRATIONS) {
+				int version = versionOf(file);
+				String script = load(file);
+				String checksum = checksum(script);
+
+				if (applied.containsKey(version)) {
+					if (!applied.get(version).equals(checksum)) {
+						throw new IllegalStateException("Migration " + file
+								+ " has changed since it was applied; add a new migration instead");
+					}
+					continue;
+				}
+
+				long start = System.currentTimeMillis();
+				RunScript.execute(connection, new StringReader(script));
+				record(connection, version, descriptionOf(file), checksum, System.currentTimeMillis() - start);
+				System.out.println("Applied migration " + file);
+				count++;
+			}
+			return count;
+		} catch (SQLException e) {
+			throw new IllegalStateException("Schema migration failed", e);
+		} finally {
+			ConnectionUtil.releaseConnection();
+		}
+	}
+
+// -------------------------------------------------------------------------------------
+
+	private static void createVersionTable(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE IF NOT EXISTS schema_version ("
+					+ "version INT PRIMARY KEY, "
+					+ "description VARCHAR(255), "
+					+ "checksum VARCHAR(64), "
+					+ "installed_on TIMESTAMP DEFAULT CURRENT_TIMESTAMP, "
+					+ "execution_millis BIGINT)");
+		}
+	}
+
+	private static Map<Integer, String> appliedChecksums(Connection connection) throws SQLException {
+		Map<Integer, String> applied = new HashMap<>();
+		try (Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery("SELECT version, checksum FROM schema_version")) {
+			while (rs.next()) {
+				applied.put(rs.getInt("version"), rs.getString("checksum"));
+			}
+		}
+		return applied;
+	}
+
+	private static void record(Connection connection, int version, String description, String checksum,
+			long executionMillis) throws SQLException {
+		PreparedStatement preparedStatement = connection.prepareStatement(
+				"INSERT INTO schema_version (version, description, checksum, execution_millis) VALUES (?, ?, ?, ?)");
+		preparedStatement.setInt(1, version);
+		preparedStatement.setString(2, description);
+		preparedStatement.setString(3, checksum);
+		preparedStatement.setLong(4, executionMillis);
+		preparedStatement.executeUpdate();
+	}
+
+	private static int versionOf(String file) {
+		return Integer.parseInt(file.substring(1, file.indexOf("__")));
+	}
+
+	private static String descriptionOf(String file) {
+		return file.substring(file.indexOf("__") + 2, file.lastIndexOf('.')).replace('_', ' ');
+	}
+
+	private static String load(String file) {
+		try (InputStream in = SchemaMigrator.class.getClassLoader().getResourceAsStream(LOCATION + file)) {
+			if (in == null) {
+				throw new IllegalStateException("Migration " + file + " not found on the classpath");
+			}
+			// Normalize line endings so a checkout with CRLF line endings has the same checksum
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read migration " + file, e);
+		}
+	}
+
+	private static String checksum(String script) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(script.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
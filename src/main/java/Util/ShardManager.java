@@ -0,0 +1,187 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gets the message shards ready when db.shards is above 1, after shard 0 has been migrated.
+ *
+ * Every shard gets the same schema through SchemaMigrator. The foreign key from message to account is dropped on
+ * shards 1 and up, since the accounts live on shard 0 only; ShardedMessageDAO checks the poster there instead.
+ *
+ * Message ids stay globally unique without any coordination between shards: shard i's identity column hands out
+ * i + 1, i + 1 + N, i + 1 + 2N and so on, so the shard of a message follows from its id alone. The sequences restart
+ * above the highest id on any shard, so they never collide with rows written before.
+ *
+ * Rows stored on the wrong shard, for instance those of a database that was not sharded before or the test
+ * fixture, are moved to the shard of their poster with their ids unchanged. Those ids may not match the shard they
+ * end up on; getLastMisplacedId() tells ShardedMessageDAO below which ids it has to look on every shard.
+ */
+public class ShardManager {
+
+	/**
+	 * The highest message_id stored on another shard than ConnectionUtil.shardForMessage() names, 0 if none.
+	 */
+	private static volatile int lastMisplacedId;
+
+	/**
+	 * Database work on one shard.
+	 */
+	@FunctionalInterface
+	private interface ShardWork<T> {
+		T run(Connection connection) throws SQLException;
+	}
+
+	/**
+	 * Migrates shards 1 and up, drops their foreign key to account, moves misplaced messages and restarts every
+	 * shard's message_id sequence. Does nothing beyond the migrations when there is a single shard.
+	 *
+	 * @throws IllegalStateException if a shard could not be prepared
+	 */
+	public static synchronized void prepare() {
+		int shards = ConnectionUtil.getShardCount();
+		for (int shard = 1; shard < shards; shard++) {
+			ConnectionUtil.onShard(shard, SchemaMigrator::migrate);
+		}
+		if (shards == 1) {
+			lastMisplacedId = 0;
+			return;
+		}
+
+		try {
+			for (int shard = 1; shard < shards; shard++) {
+				onShard(shard, ShardManager::dropForeignKeys);
+			}
+			for (int shard = 0; shard < shards; shard++) {
+				moveMisplacedMessages(shard);
+			}
+
+			int maxId = 0;
+			int misplaced = 0;
+			for (int shard = 0; shard < shards; shard++) {
+				int current = shard;
+				maxId = Math.max(maxId, onShard(shard, connection -> queryInt(connection,
+						"SELECT COALESCE(MAX(message_id), 0) FROM message", null)));
+				misplaced = Math.max(misplaced, onShard(shard, connection -> queryInt(connection,
+						"SELECT COALESCE(MAX(message_id), 0) FROM message WHERE MOD(message_id - 1, ?) <> ?",
+						new int[] { shards, current })));
+			}
+			for (int shard = 0; shard < shards; shard++) {
+				// The first id above maxId that belongs to this shard
+				long start = maxId + 1L + Math.floorMod(shard - maxId, shards);
+				onShard(shard, connection -> {
+					try (Statement statement = connection.createStatement()) {
+						statement.execute("ALTER TABLE message ALTER COLUMN message_id RESTART WITH " + start);
+						statement.execute("ALTER TABLE message ALTER COLUMN message_id SET INCREMENT BY " + shards);
+					}
+					return null;
+				});
+			}
+			lastMisplacedId = misplaced;
+		} finally {
+			ConnectionUtil.releaseConnection();
+		}
+	}
+
+	/**
+	 * @return the highest message_id that may be stored on another shard than ConnectionUtil.shardForMessage()
+	 *         names; lookups of ids up to this one have to try every shard
+	 */
+	public static int getLastMisplacedId() {
+		return lastMisplacedId;
+	}
+
+// -------------------------------------------------------------------------------------
+
+	private static <T> T onShard(int shard, ShardWork<T> work) {
+		return ConnectionUtil.onShard(shard, () -> {
+			try {
+				return work.run(ConnectionUtil.getConnection());
+			} catch (SQLException e) {
+				throw new IllegalStateException("Could not prepare shard " + shard, e);
+			}
+		});
+	}
+
+	private static Void dropForeignKeys(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			List<String> names = new ArrayList<>();
+			try (ResultSet rs = statement.executeQuery("SELECT CONSTRAINT_NAME "
+					+ "FROM INFORMATION_SCHEMA.TABLE_CONSTRAINTS "
+					+ "WHERE TABLE_NAME = 'MESSAGE' AND CONSTRAINT_TYPE = 'FOREIGN KEY'")) {
+				while (rs.next()) {
+					names.add(rs.getString(1));
+				}
+			}
+			for (String name : names) {
+				statement.execute("ALTER TABLE message DROP CONSTRAINT \"" + name + "\"");
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Copies the messages on shard source whose poster belongs elsewhere to their shard, then deletes them from
+	 * source. A failure in between leaves a copy behind rather than losing the message.
+	 */
+	private static void moveMisplacedMessages(int source) {
+		List<int[]> keys = new ArrayList<>();
+		List<String> texts = new ArrayList<>();
+		List<Long> times = new ArrayList<>();
+		onShard(source, connection -> {
+			try (Statement statement = connection.createStatement();
+					ResultSet rs = statement.executeQuery(
+							"SELECT message_id, posted_by, message_text, time_posted_epoch FROM message")) {
+				while (rs.next()) {
+					int posted_by = rs.getInt("posted_by");
+					if (ConnectionUtil.shardForPoster(posted_by) != source) {
+						keys.add(new int[] { rs.getInt("message_id"), posted_by });
+						texts.add(rs.getString("message_text"));
+						times.add(rs.getLong("time_posted_epoch"));
+					}
+				}
+			}
+			return null;
+		});
+
+		for (int i = 0; i < keys.size(); i++) {
+			int[] key = keys.get(i);
+			String text = texts.get(i);
+			long time = times.get(i);
+			onShard(ConnectionUtil.shardForPoster(key[1]), connection -> {
+				PreparedStatement insert = connection.prepareStatement("INSERT INTO message "
+						+ "(message_id, posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?, ?)");
+				insert.setInt(1, key[0]);
+				insert.setInt(2, key[1]);
+				insert.setString(3, text);
+				insert.setLong(4, time);
+				return insert.executeUpdate();
+			});
+			onShard(source, connection -> {
+				PreparedStatement delete = connection.prepareStatement("DELETE FROM message WHERE message_id = ?");
+				delete.setInt(1, key[0]);
+				return delete.executeUpdate();
+			});
+		}
+		if (!keys.isEmpty()) {
+			System.out.println("Moved " + keys.size() + " messages from shard " + source + " to their posters' shards");
+		}
+	}
+
+	private static int queryInt(Connection connection, String sql, int[] parameters) throws SQLException {
+		PreparedStatement preparedStatement = connection.prepareStatement(sql);
+		if (parameters != null) {
+			for (int i = 0; i < parameters.length; i++) {
+				preparedStatement.setInt(i + 1, parameters[i]);
+			}
+		}
+		ResultSet rs = preparedStatement.executeQuery();
+		rs.next();
+		return rs.getInt(1);
+	}
+}
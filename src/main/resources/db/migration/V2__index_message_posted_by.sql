@@ -0,0 +1,2 @@
+-- Serves GET /accounts/{account_id}/messages without scanning the whole message table.
+create index if not exists message_posted_by_idx on message (posted_by);
@@ -0,0 +1,2 @@
+-- Serves per-user queries ordered or filtered by time (e.g. paging in time order) as an index range scan.
+create index if not exists message_posted_by_time_idx on message (posted_by, time_posted_epoch);
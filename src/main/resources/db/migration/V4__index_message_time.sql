@@ -0,0 +1,2 @@
+-- Serves time-range queries across all users (GET /messages?since=&until=) as an index range scan.
+create index if not exists message_time_idx on message (time_posted_epoch);
@@ -0,0 +1,10 @@
+-- Pages and streams sort by (time_posted_epoch, message_id), or by message_id or (time_posted_epoch, message_id)
+-- within one account. H2 only reads an ORDER BY straight off an index that holds every sort column in order, and it
+-- keeps choosing the narrower indexes of V2 to V4 while they exist, sorting everything after the cursor. These
+-- indexes hold the full sort keys and replace them.
+create index if not exists message_time_id_idx on message (time_posted_epoch, message_id);
+create index if not exists message_posted_by_id_idx on message (posted_by, message_id);
+create index if not exists message_posted_by_time_id_idx on message (posted_by, time_posted_epoch, message_id);
+drop index if exists message_time_idx;
+drop index if exists message_posted_by_time_idx;
+drop index if exists message_posted_by_idx;
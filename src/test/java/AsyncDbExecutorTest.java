@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.DbExecutor;
+import io.javalin.Javalin;
+
+/**
+ * Runs the API with server.asyncDb=true, so every service call goes through the DB executor.
+ */
+public class AsyncDbExecutorTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database and start the app in async mode with one DB thread and a queue of one.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        System.setProperty("server.asyncDb", "true");
+        System.setProperty("db.executor.threads", "1");
+        System.setProperty("db.executor.queueCapacity", "1");
+        try {
+            socialMediaController = new SocialMediaController();
+            app = socialMediaController.startAPI();
+        } finally {
+            System.clearProperty("server.asyncDb");
+            System.clearProperty("db.executor.threads");
+            System.clearProperty("db.executor.queueCapacity");
+        }
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Handlers answer as they do synchronously, with the work counted by the executor.
+     */
+    @Test
+    public void handlersRunOnDbExecutor() throws IOException, InterruptedException {
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, " +
+                        "\"message_text\": \"hello message\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> posted = webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, posted.statusCode());
+        Assert.assertEquals(new Message(2, 1, "hello message", 1669947792),
+                objectMapper.readValue(posted.body(), Message.class));
+
+        HttpResponse<String> all = get("/messages");
+        Assert.assertEquals(200, all.statusCode());
+        List<Message> messages = objectMapper.readValue(all.body(), new TypeReference<List<Message>>() {});
+        Assert.assertEquals(2, messages.size());
+
+        HttpResponse<String> missing = get("/messages/100");
+        Assert.assertEquals(200, missing.statusCode());
+        Assert.assertEquals("", missing.body());
+
+        Assert.assertEquals(400, get("/messages?cursor=not-a-cursor").statusCode());
+
+        DbExecutor executor = socialMediaController.getDbExecutor();
+        Assert.assertEquals(4, executor.getStats().getCompleted());
+        Assert.assertEquals(0, executor.getStats().getRejected());
+    }
+
+    /**
+     * With the DB thread busy and its queue full, a request is turned away with 503 instead of waiting.
+     */
+    @Test
+    public void fullQueueIsRejectedWith503() throws Exception {
+        DbExecutor executor = socialMediaController.getDbExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        executor.submit(() -> null);
+
+        Assert.assertEquals(503, get("/messages/1").statusCode());
+        Assert.assertEquals(1, executor.getStats().getRejected());
+
+        // Once both tasks are done the queue has room again
+        release.countDown();
+        while (executor.getStats().getCompleted() < 2) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(200, get("/messages/1").statusCode());
+    }
+
+    /**
+     * The service call runs on the DB executor, but the response is written, and the after handlers run, on a Jetty
+     * thread, so a slow client holds neither the DB thread nor its connection.
+     */
+    @Test
+    public void responsesAreWrittenOffTheDbExecutor() throws IOException, InterruptedException {
+        Map<String, String> writers = new ConcurrentHashMap<>();
+        app.after(ctx -> writers.put(ctx.fullUrl(), Thread.currentThread().getName()));
+
+        Assert.assertEquals(200, get("/messages/1").statusCode());
+        Assert.assertEquals(200, get("/messages?limit=10").statusCode());
+
+        Assert.assertTrue(writers.get("http://localhost:8080/messages/1").startsWith("JettyServerThreadPool"));
+        Assert.assertTrue(writers.get("http://localhost:8080/messages?limit=10").startsWith("JettyServerThreadPool"));
+        Assert.assertEquals(2, socialMediaController.getDbExecutor().getStats().getCompleted());
+    }
+}
@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.JdbcInstrumentation;
+import io.javalin.Javalin;
+
+public class ConditionalGetTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        ConnectionUtil.setInstrumentation(null);
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path, String ifNoneMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path));
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String etag(HttpResponse<String> response) {
+        return response.headers().firstValue("ETag").orElse(null);
+    }
+
+    /**
+     * Every message read carries an ETag, and sending it back gets a 304 without a body and without any SQL.
+     */
+    @Test
+    public void unchangedReadsAreNotModified() throws IOException, InterruptedException {
+        JdbcInstrumentation instrumentation = new JdbcInstrumentation(0, 10);
+        for (String path : new String[] { "/messages", "/messages/1", "/accounts/1/messages",
+                "/messages?limit=1", "/messages?since=1669947792" }) {
+            HttpResponse<String> first = get(path, null);
+            Assert.assertEquals(path, 200, first.statusCode());
+            String etag = etag(first);
+            Assert.assertNotNull(path, etag);
+
+            ConnectionUtil.setInstrumentation(instrumentation);
+            HttpResponse<String> second = get(path, "\"other\", " + etag);
+            ConnectionUtil.setInstrumentation(null);
+            Assert.assertEquals(path, 304, second.statusCode());
+            Assert.assertEquals(path, "", second.body());
+            Assert.assertEquals(path, etag, etag(second));
+        }
+        Assert.assertEquals(instrumentation.getQueryStats().toString(), 0, instrumentation.getQueryStats().size());
+    }
+
+    /**
+     * Inserts, updates and deletes each change the tag, so the next conditional read returns the new data.
+     */
+    @Test
+    public void writesChangeTheTag() throws IOException, InterruptedException {
+        String etag = etag(get("/messages/1", null));
+
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"hello\", \"time_posted_epoch\": 1669947800}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(postRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpResponse<String> afterInsert = get("/messages/1", etag);
+        Assert.assertEquals(200, afterInsert.statusCode());
+        Assert.assertNotEquals(etag, etag(afterInsert));
+        etag = etag(afterInsert);
+
+        HttpRequest patchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"changed\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(patchRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpResponse<String> afterUpdate = get("/messages/1", etag);
+        Assert.assertEquals(200, afterUpdate.statusCode());
+        Assert.assertTrue(afterUpdate.body(), afterUpdate.body().contains("changed"));
+        etag = etag(afterUpdate);
+
+        HttpRequest deleteRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .DELETE()
+                .build();
+        Assert.assertEquals(200, webClient.send(deleteRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpResponse<String> afterDelete = get("/messages/1", etag);
+        Assert.assertEquals(200, afterDelete.statusCode());
+        Assert.assertEquals("", afterDelete.body());
+
+        // A failed write changes nothing
+        etag = etag(afterDelete);
+        Assert.assertEquals(200, webClient.send(deleteRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals(304, get("/messages/1", etag).statusCode());
+    }
+
+    /**
+     * If-None-Match: * matches every message read, and a read that fails carries no ETag.
+     */
+    @Test
+    public void wildcardMatchesAndErrorsAreNotTagged() throws IOException, InterruptedException {
+        for (String path : new String[] { "/messages", "/messages/1", "/messages/100", "/accounts/1/messages",
+                "/messages?limit=1", "/messages?since=1669947792" }) {
+            HttpResponse<String> response = get(path, "*");
+            Assert.assertEquals(path, 304, response.statusCode());
+            Assert.assertEquals(path, etag(get(path, null)), etag(response));
+        }
+
+        HttpResponse<String> badCursor = get("/messages?cursor=not-a-cursor", null);
+        Assert.assertEquals(400, badCursor.statusCode());
+        Assert.assertNull(etag(badCursor));
+    }
+}
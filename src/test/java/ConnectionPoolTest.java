@@ -0,0 +1,128 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionPool;
+import Util.PoolStats;
+
+public class ConnectionPoolTest {
+    ConnectionPool pool;
+
+    /**
+     * Before every test, create a small pool over a private in-memory database.
+     */
+    @Before
+    public void setUp() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        pool = new ConnectionPool("test", dataSource, 2, 200, 60_000, 60_000, 2);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    /**
+     * A thread keeps the same connection until it releases its lease, and the released connection is reused.
+     */
+    @Test
+    public void sameThreadGetsSameConnectionUntilReleased() throws SQLException {
+        Connection first = pool.getConnection();
+        Assert.assertSame(first, pool.getConnection());
+        Assert.assertEquals(1, pool.getStats().getActive());
+
+        pool.release();
+        PoolStats stats = pool.getStats();
+        Assert.assertEquals(0, stats.getActive());
+        Assert.assertEquals(1, stats.getIdle());
+        Assert.assertTrue(first.isClosed());
+
+        pool.getConnection();
+        Assert.assertEquals(1, pool.getStats().getCreated());
+        pool.release();
+    }
+
+    /**
+     * Once every connection is leased, further checkouts time out instead of opening new connections.
+     */
+    @Test
+    public void checkoutTimesOutWhenPoolIsExhausted() throws Exception {
+        pool.getConnection();
+        Thread other = new Thread(() -> {
+            try {
+                pool.getConnection();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        other.start();
+        other.join();
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread third = new Thread(() -> {
+            try {
+                pool.getConnection();
+            } catch (SQLException e) {
+                failure.set(e);
+            }
+        });
+        third.start();
+        third.join();
+
+        Assert.assertTrue(failure.get() instanceof SQLTransientConnectionException);
+        Assert.assertEquals(1, pool.getStats().getTimeouts());
+        Assert.assertEquals(2, pool.getStats().getCreated());
+        pool.release();
+    }
+
+    /**
+     * Closing the connection handed out by the pool returns it, along with any statements left open.
+     */
+    @Test
+    public void closeReturnsConnectionAndClosesStatements() throws SQLException {
+        Connection connection = pool.getConnection();
+        java.sql.Statement statement = connection.createStatement();
+        statement.executeQuery("SELECT 1");
+
+        connection.close();
+
+        Assert.assertTrue(statement.isClosed());
+        Assert.assertEquals(0, pool.getStats().getActive());
+        Assert.assertEquals(1, pool.getStats().getIdle());
+    }
+
+    /**
+     * Preparing the same SQL again on the same physical connection is served from the statement cache, across
+     * leases, and the least recently used statement is evicted once the cache is full.
+     */
+    @Test
+    public void preparedStatementsAreCachedPerConnection() throws SQLException {
+        PreparedStatement first = pool.getConnection().prepareStatement("SELECT 1");
+        first.executeQuery();
+        pool.release();
+
+        PreparedStatement second = pool.getConnection().prepareStatement("SELECT 1");
+        Assert.assertSame(first, second);
+        ResultSet rs = second.executeQuery();
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals(1, pool.getStats().getStatementCacheHits());
+        Assert.assertEquals(1, pool.getStats().getStatementCacheMisses());
+
+        pool.getConnection().prepareStatement("SELECT 2");
+        pool.getConnection().prepareStatement("SELECT 3");
+        Assert.assertEquals(1, pool.getStats().getStatementCacheEvictions());
+        pool.release();
+    }
+}
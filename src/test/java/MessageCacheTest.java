@@ -0,0 +1,79 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Model.Message;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import Util.LruCache;
+
+public class MessageCacheTest {
+    MessageService messageService;
+
+    /**
+     * Before every test, reset the database and create a fresh MessageService with an empty cache.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageService = new MessageService();
+    }
+
+    @After
+    public void tearDown() {
+        ConnectionUtil.releaseConnection();
+    }
+
+    /**
+     * Repeated lookups of the same id, existing or not, only reach the database once.
+     */
+    @Test
+    public void repeatedLookupsAreServedFromCache() {
+        Message expected = new Message(1, 1, "test message 1", 1669947792);
+        Assert.assertEquals(expected, messageService.getMessageById(1));
+        Assert.assertEquals(expected, messageService.getMessageById(1));
+        Assert.assertNull(messageService.getMessageById(100));
+        Assert.assertFalse(messageService.messageExists(100));
+
+        LruCache<Integer, Message> cache = messageService.getMessageCache();
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(2, cache.getHits());
+    }
+
+    /**
+     * Inserts, updates and deletes replace exactly the cached entry they affect, including a cached miss.
+     */
+    @Test
+    public void writesKeepCacheCurrent() {
+        Assert.assertNull(messageService.getMessageById(2));
+
+        Message added = messageService.addMessage(new Message(1, "new", 1669947800));
+        Assert.assertEquals(2, added.getMessage_id());
+        Assert.assertEquals(added, messageService.getMessageById(2));
+
+        messageService.updateMessage(1, new Message(0, "edited", 0));
+        Assert.assertEquals("edited", messageService.getMessageById(1).getMessage_text());
+
+        messageService.deleteMessage(2);
+        Assert.assertNull(messageService.getMessageById(2));
+        Assert.assertEquals(1, messageService.getMessageCache().getMisses());
+    }
+
+    /**
+     * The cache holds at most its maximum size, and entries past their time-to-live are reloaded.
+     */
+    @Test
+    public void sizeBoundAndTtlAreEnforced() throws InterruptedException {
+        LruCache<Integer, String> cache = new LruCache<>(2, 50);
+        cache.getOrLoad(1, String::valueOf);
+        cache.getOrLoad(2, String::valueOf);
+        cache.getOrLoad(3, String::valueOf);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictions());
+
+        Thread.sleep(100);
+        cache.getOrLoad(3, String::valueOf);
+        Assert.assertEquals(4, cache.getMisses());
+    }
+}
@@ -0,0 +1,180 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Model.MessagePage;
+import Service.MessageReadModel;
+import Service.MessageService;
+import Service.PageCursor;
+import Util.ConnectionUtil;
+import Util.JdbcInstrumentation;
+
+/**
+ * Checks that in CQRS mode (messages.readModel=true) MessageService answers every read from memory, with the same
+ * results the database gives.
+ */
+public class MessageReadModelTest {
+    static final int ACCOUNTS = 4;
+
+    MessageDAO messageDAO;
+    MessageService messageService;
+
+    /**
+     * Before every test, reset the database, add accounts 2 to 4 next to the test user, and build a MessageService
+     * in CQRS mode.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        AccountDAO accountDAO = new AccountDAO();
+        for (int i = 2; i <= ACCOUNTS; i++) {
+            accountDAO.insertAccount(new Account("user" + i, "password"));
+        }
+        messageDAO = new MessageDAO();
+        System.setProperty("messages.readModel", "true");
+        try {
+            messageService = new MessageService(messageDAO, accountDAO);
+        } finally {
+            System.clearProperty("messages.readModel");
+        }
+        ConnectionUtil.releaseConnection();
+    }
+
+    @After
+    public void tearDown() {
+        ConnectionUtil.setInstrumentation(null);
+        ConnectionUtil.releaseConnection();
+    }
+
+    private List<Message> pageThrough(Integer posted_by, PageCursor.Order order) {
+        List<Message> messages = new ArrayList<>();
+        String cursor = null;
+        do {
+            MessagePage page = messageService.getMessagesPage(posted_by, 3, cursor, order);
+            messages.addAll(page.getMessages());
+            cursor = page.getNext_cursor();
+        } while (cursor != null);
+        return messages;
+    }
+
+    private void assertReadsMatchDatabase(int maxId) {
+        Assert.assertEquals(messageDAO.getAllMessages(), messageService.getAllMessages());
+        for (int account = 1; account <= ACCOUNTS + 1; account++) {
+            Assert.assertEquals(messageDAO.getUserMessages(account), messageService.getUserMessages(account));
+        }
+        for (int id = 1; id <= maxId + 1; id++) {
+            Assert.assertEquals(messageDAO.getMessageById(id), messageService.getMessageById(id));
+            Assert.assertEquals(messageDAO.messageExists(id), messageService.messageExists(id));
+        }
+        for (Integer posted_by : new Integer[] { null, 2 }) {
+            Assert.assertEquals(messageDAO.getMessagesPage(posted_by, false, 0, 0, 1000),
+                    pageThrough(posted_by, PageCursor.Order.ID));
+            Assert.assertEquals(messageDAO.getMessagesPage(posted_by, true, Long.MIN_VALUE, 0, 1000),
+                    pageThrough(posted_by, PageCursor.Order.TIME));
+
+            List<Message> fromDatabase = new ArrayList<>();
+            messageDAO.streamMessagesByTime(posted_by, 1669947800L, 1669947900L, fromDatabase::add);
+            Assert.assertEquals(fromDatabase, messageService.getMessagesByTime(posted_by, 1669947800L, 1669947900L));
+        }
+        ConnectionUtil.releaseConnection();
+    }
+
+    /**
+     * Random inserts at random times, updates and deletes leave every read identical to the database.
+     */
+    @Test
+    public void readModelFollowsRandomWrites() {
+        Random random = new Random(7);
+        int maxId = 1;
+        for (int step = 0; step < 200; step++) {
+            int choice = random.nextInt(10);
+            if (choice < 5) {
+                Message added = messageService.addMessage(new Message(1 + random.nextInt(ACCOUNTS),
+                        "message " + step, 1669947792L + random.nextInt(200)));
+                maxId = Math.max(maxId, added.getMessage_id());
+            } else if (choice < 8) {
+                messageService.updateMessage(1 + random.nextInt(maxId), new Message(0, "updated " + step, 0));
+            } else {
+                messageService.deleteMessage(1 + random.nextInt(maxId));
+            }
+            ConnectionUtil.releaseConnection();
+        }
+        assertReadsMatchDatabase(maxId);
+    }
+
+    /**
+     * Reads in CQRS mode run no SQL at all.
+     */
+    @Test
+    public void readsDoNotTouchTheDatabase() {
+        messageService.addMessage(new Message(2, "second message", 1669947800L));
+        ConnectionUtil.releaseConnection();
+
+        JdbcInstrumentation instrumentation = new JdbcInstrumentation(0, 10);
+        ConnectionUtil.setInstrumentation(instrumentation);
+
+        Assert.assertEquals(2, messageService.getAllMessages().size());
+        Assert.assertEquals("second message", messageService.getMessageById(2).getMessage_text());
+        Assert.assertTrue(messageService.messageExists(1));
+        Assert.assertEquals(1, messageService.getUserMessages(2).size());
+        Assert.assertEquals(2, pageThrough(null, PageCursor.Order.TIME).size());
+        Assert.assertEquals(1, messageService.getMessagesByTime(null, 1669947800L, null).size());
+        Assert.assertEquals(1, messageService.searchMessages("second", 10).size());
+
+        Assert.assertEquals(instrumentation.getQueryStats().toString(), 0, instrumentation.getQueryStats().size());
+    }
+
+    /**
+     * Readers running alongside a stream of updates to one message always find it, by id, in the listings and in
+     * time order, never as if it had been deleted in between.
+     */
+    @Test
+    public void readsDuringUpdatesAlwaysSeeTheMessage() throws InterruptedException {
+        MessageReadModel readModel = new MessageReadModel();
+        readModel.load(consumer -> {
+            for (int id = 1; id <= 10; id++) {
+                consumer.accept(new Message(id, 1 + id % 2, "text", 1669947790L + id));
+            }
+        });
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                while (!done.get() && failure.get() == null) {
+                    if (readModel.get(5) == null || !readModel.contains(5)) {
+                        failure.set("get/contains missed message 5");
+                    } else if (readModel.getMessages(null).size() != 10 || readModel.getMessages(2).size() != 5) {
+                        failure.set("listing missed message 5");
+                    } else if (readModel.getPage(null, true, 0, 0, 100).size() != 10) {
+                        failure.set("time order missed message 5");
+                    }
+                }
+            });
+            readers[i].start();
+        }
+        for (int i = 0; i < 200_000 && failure.get() == null; i++) {
+            readModel.onUpdate(new Message(5, 2, "version " + i, 1669947795L));
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        Assert.assertNull(failure.get(), failure.get());
+        Assert.assertEquals("version 199999", readModel.get(5).getMessage_text());
+        Assert.assertEquals("version 199999", readModel.getPage(2, true, 0, 0, 100).get(2).getMessage_text());
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import io.javalin.Javalin;
+
+public class MetricsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Requests are counted per route template and status code, and show up in GET /metrics.
+     */
+    @Test
+    public void requestsAreCountedPerRouteAndStatus() throws IOException, InterruptedException {
+        get("/messages/1");
+        get("/messages/2");
+        get("/messages?cursor=not-a-cursor");
+
+        HttpResponse<String> response = get("/metrics");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+
+        String body = response.body();
+        Assert.assertTrue(body, body.contains(
+                "http_requests_total{method=\"GET\",route=\"/messages/{message_id}\",status=\"200\"} 2\n"));
+        Assert.assertTrue(body, body.contains(
+                "http_requests_total{method=\"GET\",route=\"/messages\",status=\"400\"} 1\n"));
+        Assert.assertTrue(body, body.contains(
+                "http_request_duration_seconds_count{method=\"GET\",route=\"/messages/{message_id}\"} 2\n"));
+        Assert.assertTrue(body, body.contains(
+                "http_requests_in_flight{method=\"GET\",route=\"/messages/{message_id}\"} 0\n"));
+        Assert.assertTrue(body, body.contains("# TYPE db_pool_connections_active gauge\n"));
+    }
+
+    /**
+     * Quantiles read from the histogram are within its 1/16 bucket resolution of the exact values.
+     */
+    @Test
+    public void histogramQuantilesAreWithinBucketResolution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[100_000];
+        Random random = new Random(1);
+        for (int i = 0; i < values.length; i++) {
+            // Spread over five orders of magnitude, from 1 us to 100 ms
+            values[i] = (long) Math.pow(10, 3 + 5 * random.nextDouble());
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double quantile : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+            long exact = values[(int) Math.ceil(quantile * values.length) - 1];
+            long estimate = histogram.valueAtQuantile(quantile);
+            Assert.assertTrue(quantile + ": " + estimate + " vs " + exact,
+                    estimate >= exact && estimate <= exact + exact / 16 + 1);
+        }
+        Assert.assertEquals(values.length, histogram.getCount());
+        Assert.assertEquals(values[values.length - 1], histogram.getMax());
+    }
+}
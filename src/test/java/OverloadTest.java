@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConcurrencyLimiter;
+import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import io.javalin.Javalin;
+
+public class OverloadTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app with both concurrency limits enabled and pinned
+     * to 1, and create a new webClient.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        System.setProperty("server.limiter.enabled", "true");
+        System.setProperty("server.limiter.initialLimit", "1");
+        System.setProperty("server.limiter.minLimit", "1");
+        System.setProperty("server.limiter.maxLimit", "1");
+        try {
+            socialMediaController = new SocialMediaController();
+            app = socialMediaController.startAPI();
+        } finally {
+            System.clearProperty("server.limiter.enabled");
+            System.clearProperty("server.limiter.initialLimit");
+            System.clearProperty("server.limiter.minLimit");
+            System.clearProperty("server.limiter.maxLimit");
+        }
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * A read over the limit is turned away at once with 503 and Retry-After, while writes have a limit of their own.
+     */
+    @Test
+    public void requestsOverTheLimitAreShed() throws IOException, InterruptedException {
+        ConcurrencyLimiter reads = socialMediaController.getConcurrencyLimiter(false);
+        Assert.assertTrue(reads.tryAcquire());
+
+        HttpResponse<String> shed = get("/messages/1");
+        Assert.assertEquals(503, shed.statusCode());
+        Assert.assertEquals("1", shed.headers().firstValue("Retry-After").orElse(null));
+        Assert.assertEquals(1, reads.getRejected());
+
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"hello\", \"time_posted_epoch\": 1669947800}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(postRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        reads.release(0, false);
+        Assert.assertEquals(200, get("/messages/1").statusCode());
+        Assert.assertEquals(0, reads.getInFlight());
+    }
+
+    /**
+     * Registrations sent at once, each hashing a password for a while, go over the write limit: those that find it
+     * taken are shed with 503 and Retry-After through the after handler, the others succeed, and nothing is left in
+     * flight once they are done.
+     */
+    @Test
+    public void concurrentWritesAreShedAtTheRoute() throws InterruptedException, ExecutionException {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            HttpRequest register = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/register"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"user" + i + "\", \"password\": \"password\"}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            responses.add(webClient.sendAsync(register, HttpResponse.BodyHandlers.ofString()));
+        }
+
+        int shed = 0;
+        int registered = 0;
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            if (response.get().statusCode() == 503) {
+                Assert.assertEquals("1", response.get().headers().firstValue("Retry-After").orElse(null));
+                shed++;
+            } else {
+                Assert.assertEquals(200, response.get().statusCode());
+                registered++;
+            }
+        }
+        ConcurrencyLimiter writes = socialMediaController.getConcurrencyLimiter(true);
+        Assert.assertTrue(registered >= 1);
+        Assert.assertTrue(shed >= 1);
+        Assert.assertEquals(shed, writes.getRejected());
+        Assert.assertEquals(0, writes.getInFlight());
+    }
+
+    /**
+     * Without server.limiter.enabled there are no concurrency limits to shed requests.
+     */
+    @Test
+    public void limitsAreOffByDefault() {
+        SocialMediaController unlimited = new SocialMediaController();
+        unlimited.startAPI();
+        Assert.assertNull(unlimited.getConcurrencyLimiter(false));
+        Assert.assertNull(unlimited.getConcurrencyLimiter(true));
+    }
+
+    /**
+     * Clients hammer a resource that serves 4 requests at a time in 2 ms each, retrying 1 ms after a rejection.
+     * Measures the latency of the requests that ran, after a warm-up, with or without a limiter.
+     */
+    private LatencyHistogram overload(int clients, ConcurrencyLimiter limiter) throws InterruptedException {
+        Semaphore database = new Semaphore(4, true);
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder completed = new LongAdder();
+        long measureFrom = System.nanoTime() + 750_000_000L;
+        long end = measureFrom + 1_250_000_000L;
+
+        Thread[] threads = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < end) {
+                        if (limiter != null && !limiter.tryAcquire()) {
+                            Thread.sleep(1);
+                            continue;
+                        }
+                        long start = System.nanoTime();
+                        database.acquire();
+                        try {
+                            Thread.sleep(2);
+                        } finally {
+                            database.release();
+                        }
+                        long rtt = System.nanoTime() - start;
+                        if (limiter != null) {
+                            limiter.release(rtt, false);
+                        }
+                        if (start >= measureFrom) {
+                            latency.record(rtt);
+                            completed.increment();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(completed.sum() > 0);
+        return latency;
+    }
+
+    /**
+     * Without a limit, p99 latency grows with the number of clients. With one, the limit settles near what the
+     * resource can serve and p99 stays about the same however many clients there are, the excess being shed.
+     */
+    @Test
+    public void p99StaysStableUnderOverload() throws InterruptedException {
+        ConcurrencyLimiter moderate = new ConcurrencyLimiter("moderate", 20, 1, 200, 250);
+        ConcurrencyLimiter heavy = new ConcurrencyLimiter("heavy", 20, 1, 200, 250);
+        long limitedModerate = overload(16, moderate).valueAtQuantile(0.99);
+        long limitedHeavy = overload(64, heavy).valueAtQuantile(0.99);
+        long unlimitedHeavy = overload(64, null).valueAtQuantile(0.99);
+
+        String report = String.format("p99 limited 16 clients %.1f ms, 64 clients %.1f ms (limit %d), unlimited %.1f ms",
+                limitedModerate / 1e6, limitedHeavy / 1e6, heavy.getLimit(), unlimitedHeavy / 1e6);
+        System.out.println(report);
+        Assert.assertTrue(report, limitedHeavy < limitedModerate * 1.5);
+        Assert.assertTrue(report, unlimitedHeavy > limitedHeavy * 2);
+        Assert.assertTrue(report, heavy.getLimit() < 16);
+        Assert.assertTrue(report, heavy.getRejected() > 0);
+    }
+}
@@ -0,0 +1,216 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import DAO.AccountDAO;
+import Model.Account;
+import Service.AccountService;
+import Util.ConnectionUtil;
+import Util.PasswordHasher;
+import io.javalin.Javalin;
+
+/**
+ * Checks that passwords are stored as PBKDF2 hashes, that legacy plaintext rows and cheaper hashes are upgraded as
+ * their users log in, and that the hasher turns work away once its queue is full.
+ */
+public class PasswordHashingTest {
+    AccountDAO accountDAO;
+    AccountService accountService;
+
+    /**
+     * Before every test, reset the database and create an AccountService with a low cost so the tests run quickly.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        accountDAO = new AccountDAO();
+        accountService = new AccountService(accountDAO, new PasswordHasher(1000, 1, 10));
+    }
+
+    @After
+    public void tearDown() {
+        ConnectionUtil.releaseConnection();
+    }
+
+    private String storedPassword(String username) {
+        return accountDAO.getAccountByUsername(username).getPassword();
+    }
+
+    /**
+     * Registration stores a hash, never the password, and the account logs in with the password it was given.
+     */
+    @Test
+    public void registrationStoresAHash() {
+        Account added = accountService.addAccount(new Account("user2", "secret"));
+        Assert.assertEquals(new Account(2, "user2", "secret"), added);
+
+        String stored = storedPassword("user2");
+        Assert.assertTrue(stored, stored.startsWith("pbkdf2$1000$"));
+        Assert.assertFalse(stored.contains("secret"));
+
+        Assert.assertEquals(new Account(2, "user2", "secret"), accountService.getAccount("user2", "secret"));
+        Assert.assertNull(accountService.getAccount("user2", "wrong").getUsername());
+        Assert.assertNull(accountService.getAccount("nobody", "secret").getUsername());
+
+        // The same password hashes differently each time, thanks to the salt
+        accountService.addAccount(new Account("user3", "secret"));
+        Assert.assertNotEquals(stored.split("\\$")[3], storedPassword("user3").split("\\$")[3]);
+    }
+
+    /**
+     * The fixture's testuser1 has a plaintext password, as rows did before hashing. Its first login succeeds and
+     * replaces the row with a hash, which later logins check; a wrong password changes nothing.
+     */
+    @Test
+    public void legacyPasswordIsRehashedOnLogin() {
+        Assert.assertEquals("password", storedPassword("testuser1"));
+        Assert.assertNull(accountService.getAccount("testuser1", "wrong").getUsername());
+        Assert.assertEquals("password", storedPassword("testuser1"));
+
+        Assert.assertEquals(new Account(1, "testuser1", "password"), accountService.getAccount("testuser1", "password"));
+        String stored = storedPassword("testuser1");
+        Assert.assertTrue(stored, stored.startsWith("pbkdf2$1000$"));
+
+        Assert.assertTrue(accountService.verifyUser("testuser1", "password"));
+        Assert.assertFalse(accountService.verifyUser("testuser1", "wrong"));
+        Assert.assertEquals(stored, storedPassword("testuser1"));
+    }
+
+    /**
+     * Raising the cost upgrades hashes made with the old one at their next login, and leaves them alone otherwise.
+     */
+    @Test
+    public void cheaperHashIsRehashedWhenTheCostRises() {
+        accountService.addAccount(new Account("user2", "secret"));
+        String cheap = storedPassword("user2");
+
+        AccountService stronger = new AccountService(accountDAO, new PasswordHasher(2000, 1, 10));
+        Assert.assertEquals(cheap, storedPassword("user2"));
+        Assert.assertEquals(new Account(2, "user2", "secret"), stronger.getAccount("user2", "secret"));
+        String upgraded = storedPassword("user2");
+        Assert.assertTrue(upgraded, upgraded.startsWith("pbkdf2$2000$"));
+
+        // Both still verify the new hash, which records its own cost; only a lower cost is upgraded
+        Assert.assertTrue(accountService.verifyUser("user2", "secret"));
+        Assert.assertEquals(upgraded, storedPassword("user2"));
+    }
+
+    /**
+     * A malformed value in the password column matches nothing rather than failing the request.
+     */
+    @Test
+    public void malformedHashNeverMatches() {
+        PasswordHasher passwordHasher = accountService.getPasswordHasher();
+        Assert.assertFalse(passwordHasher.verify("secret", "pbkdf2$"));
+        Assert.assertFalse(passwordHasher.verify("secret", "pbkdf2$x$y$z"));
+        Assert.assertFalse(passwordHasher.verify("secret", "pbkdf2$1000$not base64$z"));
+        Assert.assertTrue(passwordHasher.needsRehash("pbkdf2$x$y$z"));
+    }
+
+    /**
+     * With one hasher thread and room for one more hash in the queue, a burst of expensive hashes has all but the
+     * first few turned away at once with RejectedExecutionException.
+     */
+    @Test
+    public void fullQueueRejects() throws InterruptedException {
+        PasswordHasher passwordHasher = new PasswordHasher(300_000, 1, 1);
+        CountDownLatch start = new CountDownLatch(1);
+        LongAdder rejected = new LongAdder();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    passwordHasher.hash("secret");
+                } catch (RejectedExecutionException e) {
+                    rejected.increment();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(rejected.sum() > 0);
+        Assert.assertEquals(rejected.sum(), passwordHasher.getRejected());
+        Assert.assertEquals(0, passwordHasher.getQueued());
+    }
+
+    /**
+     * More logins than the pool has connections wait on a one-thread hasher at a high cost. None of them holds a
+     * connection while it waits, so the pool is never exhausted and a GET is served in the meantime.
+     */
+    @Test
+    public void queuedLoginsDoNotPinConnections() throws IOException, InterruptedException {
+        System.setProperty("accounts.password.iterations", "300000");
+        System.setProperty("accounts.password.threads", "1");
+        Javalin app;
+        try {
+            app = new SocialMediaController().startAPI();
+        } finally {
+            System.clearProperty("accounts.password.iterations");
+            System.clearProperty("accounts.password.threads");
+        }
+        app.start(8080);
+        try {
+            HttpClient webClient = HttpClient.newHttpClient();
+            String credentials = "{\"username\": \"user2\", \"password\": \"secret\"}";
+            HttpRequest registerRequest = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/register"))
+                    .POST(HttpRequest.BodyPublishers.ofString(credentials))
+                    .header("Content-Type", "application/json")
+                    .build();
+            Assert.assertEquals(200, webClient.send(registerRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+            int maxSize = ConnectionUtil.getPoolStats().getMaxSize();
+            List<CompletableFuture<HttpResponse<String>>> logins = new ArrayList<>();
+            for (int i = 0; i < maxSize + 6; i++) {
+                HttpRequest loginRequest = HttpRequest.newBuilder()
+                        .uri(URI.create("http://localhost:8080/login"))
+                        .POST(HttpRequest.BodyPublishers.ofString(credentials))
+                        .header("Content-Type", "application/json")
+                        .build();
+                logins.add(webClient.sendAsync(loginRequest, HttpResponse.BodyHandlers.ofString()));
+            }
+            // Watch the pool while the logins queue up for the hasher
+            int mostActive = 0;
+            long watchUntil = System.nanoTime() + 300_000_000L;
+            while (System.nanoTime() < watchUntil) {
+                mostActive = Math.max(mostActive, ConnectionUtil.getPoolStats().getActive());
+                Thread.sleep(1);
+            }
+            Assert.assertTrue("most connections leased at once: " + mostActive, mostActive < maxSize);
+
+            HttpRequest getRequest = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/1"))
+                    .timeout(Duration.ofSeconds(5))
+                    .build();
+            Assert.assertEquals(200, webClient.send(getRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+            Assert.assertTrue(logins.stream().anyMatch(login -> !login.isDone()));
+
+            for (CompletableFuture<HttpResponse<String>> login : logins) {
+                Assert.assertEquals(200, login.join().statusCode());
+            }
+        } finally {
+            app.stop();
+        }
+    }
+}
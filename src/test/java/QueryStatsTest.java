@@ -0,0 +1,106 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.JdbcInstrumentation;
+import Util.QueryStats;
+
+public class QueryStatsTest {
+    MessageDAO messageDAO;
+
+    /**
+     * Before every test, reset the database and create a new MessageDAO.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageDAO = new MessageDAO();
+    }
+
+    @After
+    public void tearDown() {
+        ConnectionUtil.setInstrumentation(null);
+        ConnectionUtil.releaseConnection();
+    }
+
+    private static QueryStats find(List<QueryStats> stats, String caller) {
+        for (QueryStats queryStats : stats) {
+            if (queryStats.getCaller().equals(caller)) {
+                return queryStats;
+            }
+        }
+        Assert.fail("No stats for " + caller + " in " + stats);
+        return null;
+    }
+
+    /**
+     * Every execution is counted under the DAO method that prepared the statement, with the rows it read or wrote.
+     */
+    @Test
+    public void statementsAreTaggedWithTheirDaoMethod() {
+        ConnectionUtil.setInstrumentation(new JdbcInstrumentation(0, 10));
+
+        messageDAO.insertMessage(new Message(1, "second message", 1669947793L));
+        messageDAO.insertMessage(new Message(1, "third message", 1669947794L));
+        Assert.assertEquals(3, messageDAO.getUserMessages(1).size());
+        Assert.assertEquals(0, messageDAO.getUserMessages(2).size());
+
+        List<QueryStats> stats = ConnectionUtil.getQueryStats();
+
+        QueryStats insert = find(stats, "MessageDAO.insertMessage");
+        Assert.assertEquals(2, insert.getExecutions());
+        Assert.assertEquals(2, insert.getRows());
+        Assert.assertTrue(insert.getSql(), insert.getSql().startsWith("INSERT INTO message"));
+
+        QueryStats select = find(stats, "MessageDAO.getUserMessages");
+        Assert.assertEquals(2, select.getExecutions());
+        Assert.assertEquals(3, select.getRows());
+        Assert.assertEquals(0, select.getErrors());
+        Assert.assertEquals(0, select.getSlow());
+        Assert.assertTrue(select.getTotalMillis() > 0);
+        Assert.assertTrue(select.getMaxMillis() <= select.getTotalMillis());
+    }
+
+    /**
+     * Statements over the threshold are counted as slow, but no more than the limit are printed in one second.
+     */
+    @Test
+    public void slowQueryLogIsRateLimited() throws SQLException {
+        Connection connection = ConnectionUtil.getConnection();
+        connection.createStatement().execute("CREATE ALIAS IF NOT EXISTS SLEEP FOR 'java.lang.Thread.sleep'");
+
+        JdbcInstrumentation instrumentation = new JdbcInstrumentation(1, 2);
+        ConnectionUtil.setInstrumentation(instrumentation);
+
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+        try {
+            Statement statement = ConnectionUtil.getConnection().createStatement();
+            for (int i = 0; i < 5; i++) {
+                statement.execute("CALL SLEEP(5)");
+            }
+        } finally {
+            System.setOut(stdout);
+        }
+
+        QueryStats sleep = find(instrumentation.getQueryStats(), "QueryStatsTest.slowQueryLogIsRateLimited");
+        Assert.assertEquals(5, sleep.getExecutions());
+        Assert.assertEquals(5, sleep.getSlow());
+
+        // Two lines a second at most; the five calls may straddle a second boundary
+        long lines = captured.toString().lines().filter(line -> line.startsWith("Slow query")).count();
+        Assert.assertTrue(captured.toString(), lines >= 2 && lines <= 4);
+    }
+}
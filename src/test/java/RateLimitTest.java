@@ -0,0 +1,234 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.RateLimiter;
+import io.javalin.Javalin;
+
+public class RateLimitTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app allowing each account one message write per
+     * second in bursts of two, and create a new webClient. A second account is registered.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        System.setProperty("messages.rateLimit.perSecond", "1");
+        System.setProperty("messages.rateLimit.burst", "2");
+        try {
+            socialMediaController = new SocialMediaController();
+            app = socialMediaController.startAPI();
+        } finally {
+            System.clearProperty("messages.rateLimit.perSecond");
+            System.clearProperty("messages.rateLimit.burst");
+        }
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+
+        HttpRequest registerRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"testuser2\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(registerRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> post(int posted_by) throws IOException, InterruptedException {
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":" + posted_by
+                        + ", \"message_text\": \"hello\", \"time_posted_epoch\": 1669947800}"))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Once an account has used its burst, its next writes get a 429 with Retry-After and change nothing, while other
+     * accounts write as usual.
+     */
+    @Test
+    public void noisyAccountIsThrottled() throws IOException, InterruptedException {
+        Assert.assertEquals(200, post(1).statusCode());
+        Assert.assertEquals(200, post(1).statusCode());
+        HttpResponse<String> throttled = post(1);
+        Assert.assertEquals(429, throttled.statusCode());
+        Assert.assertEquals("1", throttled.headers().firstValue("Retry-After").orElse(null));
+
+        // Updating one of its messages is charged to the same account once the message is in memory
+        HttpRequest readRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .build();
+        webClient.send(readRequest, HttpResponse.BodyHandlers.ofString());
+        HttpRequest patchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"changed\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(429, webClient.send(patchRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        Assert.assertEquals(200, post(2).statusCode());
+
+        HttpRequest getRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .build();
+        Assert.assertTrue(webClient.send(getRequest, HttpResponse.BodyHandlers.ofString()).body().contains("test message 1"));
+        Assert.assertEquals(1, socialMediaController.getMetrics().route("POST", "/messages").getStatusCount(429));
+    }
+
+    private HttpResponse<String> postBatch(int... posters) throws IOException, InterruptedException {
+        StringBuilder body = new StringBuilder("[");
+        for (int posted_by : posters) {
+            body.append(body.length() > 1 ? "," : "").append("{\"posted_by\":").append(posted_by)
+                    .append(", \"message_text\": \"hello\", \"time_posted_epoch\": 1669947800}");
+        }
+        HttpRequest batchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(body.append("]").toString()))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(batchRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * A batch takes one token per message, so it is no way around the limit. When one poster is short, the batch
+     * is refused without charging the others, and a batch larger than a bucket is a 400.
+     */
+    @Test
+    public void batchIsChargedPerMessage() throws IOException, InterruptedException {
+        Assert.assertEquals(400, postBatch(1, 1, 1).statusCode());
+        Assert.assertEquals(200, postBatch(1, 1).statusCode());
+        Assert.assertEquals(429, post(1).statusCode());
+
+        Assert.assertEquals(429, postBatch(2, 1).statusCode());
+        Assert.assertEquals(200, post(2).statusCode());
+        Assert.assertEquals(200, post(2).statusCode());
+    }
+
+    /**
+     * tryAcquireAll() charges every key or none.
+     */
+    @Test
+    public void acquireAllIsAllOrNothing() {
+        RateLimiter limiter = new RateLimiter(0.01, 3);
+        Assert.assertEquals(0, limiter.tryAcquire(1, 3));
+        Assert.assertTrue(limiter.tryAcquireAll(new int[] { 2, 1 }, new int[] { 3, 1 }) > 0);
+        Assert.assertEquals(0, limiter.tryAcquireAll(new int[] { 2, 3 }, new int[] { 3, 2 }));
+        Assert.assertTrue(limiter.tryAcquire(2) > 0);
+        Assert.assertEquals(0, limiter.tryAcquire(3));
+        Assert.assertTrue(limiter.tryAcquire(3) > 0);
+    }
+
+    /**
+     * An update whose poster is not in memory is charged to the poster once the message has been read, not to the
+     * caller, and an update for an id that does not exist is charged to nobody.
+     */
+    @Test
+    public void uncachedUpdateIsChargedToPoster() throws IOException, InterruptedException {
+        HttpRequest unknownRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/99"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"changed\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(400, webClient.send(unknownRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        }
+
+        HttpRequest patchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"changed\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(patchRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals(200, post(1).statusCode());
+        HttpResponse<String> throttled = webClient.send(patchRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(429, throttled.statusCode());
+        Assert.assertEquals("1", throttled.headers().firstValue("Retry-After").orElse(null));
+
+        // Other accounts, whatever address they write from, keep their own buckets
+        Assert.assertEquals(200, post(2).statusCode());
+        Assert.assertEquals(200, post(2).statusCode());
+    }
+
+    /**
+     * Tokens come back at the configured rate.
+     */
+    @Test
+    public void bucketRefills() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(100, 1);
+        Assert.assertEquals(0, limiter.tryAcquire(7));
+        long wait = limiter.tryAcquire(7);
+        Assert.assertTrue(wait > 0 && wait <= 10_000_000);
+        Thread.sleep(20);
+        Assert.assertEquals(0, limiter.tryAcquire(7));
+        Assert.assertEquals(1, limiter.getThrottled());
+    }
+
+    /**
+     * Many threads writing as one account get exactly its burst between them, however the compare-and-sets
+     * interleave.
+     */
+    @Test
+    public void concurrentRequestsShareOneBucket() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(0.01, 50);
+        LongAdder admitted = new LongAdder();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    if (limiter.tryAcquire(1) == 0) {
+                        admitted.increment();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(50, admitted.sum());
+        Assert.assertEquals(80_000 - 50, limiter.getThrottled());
+    }
+
+    /**
+     * Full buckets are dropped when their table is rebuilt, so idle accounts take no memory.
+     */
+    @Test
+    public void idleBucketsAreEvicted() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(10, 1);
+        for (int account = 0; account < 100_000; account++) {
+            Assert.assertEquals(0, limiter.tryAcquire(account));
+        }
+        Assert.assertEquals(100_000, limiter.size());
+        Assert.assertEquals(0, limiter.getEvicted());
+
+        // Every bucket is full again after 100 ms, and the next accounts to write push them out
+        Thread.sleep(150);
+        for (int account = 100_000; account < 300_000; account++) {
+            Assert.assertEquals(0, limiter.tryAcquire(account));
+        }
+        Assert.assertEquals(200_000, limiter.size());
+        Assert.assertEquals(100_000, limiter.getEvicted());
+    }
+}
@@ -8,7 +8,9 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
+import org.h2.jdbc.JdbcConnection;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -18,6 +20,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import Controller.SocialMediaController;
+import DAO.MessageDAO;
 import Model.Message;
 import Util.ConnectionUtil;
 import io.javalin.Javalin;
@@ -110,4 +113,38 @@ public class RetrieveAllMessagesTest {
         }
     }
 
+    /**
+     * A read that fails after rows have been handed over surfaces as an exception rather than as a shorter list,
+     * for the whole list and for a time range alike.
+     */
+    @Test
+    public void failedStreamIsReported() {
+        MessageDAO messageDAO = new MessageDAO();
+        Consumer<Message> breakConnection = message -> {
+            try {
+                ConnectionUtil.getConnection().unwrap(JdbcConnection.class).close();
+            } catch (SQLException e) {
+                throw new AssertionError(e);
+            }
+        };
+
+        try {
+            messageDAO.streamMessages(null, breakConnection);
+            Assert.fail("the failed read was not reported");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getCause() instanceof SQLException);
+        } finally {
+            ConnectionUtil.releaseConnection();
+        }
+
+        try {
+            messageDAO.streamMessagesByTime(null, null, null, breakConnection);
+            Assert.fail("the failed read was not reported");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getCause() instanceof SQLException);
+        } finally {
+            ConnectionUtil.releaseConnection();
+        }
+    }
+
 }
@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.JdbcInstrumentation;
+import Util.QueryStats;
+import io.javalin.Javalin;
+
+public class RetrieveMessagesByTimeTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. A second account is registered and four more messages are added, posted
+     * at times out of id order.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+
+        HttpRequest registerRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"testuser2\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(registerRequest, HttpResponse.BodyHandlers.ofString());
+
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString("[" +
+                        "{\"posted_by\":1, \"message_text\": \"m2\", \"time_posted_epoch\": 1669947795}," +
+                        "{\"posted_by\":2, \"message_text\": \"m3\", \"time_posted_epoch\": 1669947791}," +
+                        "{\"posted_by\":1, \"message_text\": \"m4\", \"time_posted_epoch\": 1669947795}," +
+                        "{\"posted_by\":2, \"message_text\": \"m5\", \"time_posted_epoch\": 1669947799}]"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Integer> ids(String path) throws IOException, InterruptedException {
+        HttpResponse<String> response = get(path);
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> messages = objectMapper.readValue(response.body(), new TypeReference<List<Message>>() {});
+        return messages.stream().map(Message::getMessage_id).collect(Collectors.toList());
+    }
+
+    /**
+     * since is inclusive and until exclusive, either may be left out, and results come oldest first
+     */
+    @Test
+    public void getMessagesInTimeRange() throws IOException, InterruptedException {
+        // Fixture message 1 was posted at 1669947792
+        Assert.assertEquals(Arrays.asList(1, 2, 4), ids("/messages?since=1669947792&until=1669947799"));
+        Assert.assertEquals(Arrays.asList(2, 4, 5), ids("/messages?since=1669947795"));
+        Assert.assertEquals(Arrays.asList(3, 1), ids("/messages?until=1669947795"));
+        Assert.assertEquals(Arrays.asList(), ids("/messages?since=1669947800"));
+    }
+
+    /**
+     * The range can be scoped to one account
+     */
+    @Test
+    public void getUserMessagesInTimeRange() throws IOException, InterruptedException {
+        Assert.assertEquals(Arrays.asList(2, 4), ids("/accounts/1/messages?since=1669947793"));
+        Assert.assertEquals(Arrays.asList(3), ids("/accounts/2/messages?until=1669947799"));
+    }
+
+    /**
+     * Bad bounds, or a range mixed with paging parameters, are a 400
+     */
+    @Test
+    public void invalidRangeIsRejected() throws IOException, InterruptedException {
+        Assert.assertEquals(400, get("/messages?since=yesterday").statusCode());
+        Assert.assertEquals(400, get("/messages?since=1669947799&until=1669947792").statusCode());
+        Assert.assertEquals(400, get("/messages?since=1669947792&limit=2").statusCode());
+    }
+
+    /**
+     * Both shapes of the query are answered by an index range scan that also yields the rows in order, rather than
+     * a table scan or a sort. The statements explained are the ones the DAO actually ran.
+     */
+    @Test
+    public void rangeQueriesAreIndexSorted() throws SQLException {
+        ConnectionUtil.releaseConnection();
+        ConnectionUtil.setInstrumentation(new JdbcInstrumentation(10_000, 10));
+        try {
+            MessageDAO messageDAO = new MessageDAO();
+            messageDAO.streamMessagesByTime(null, 1L, 2L, message -> { });
+            messageDAO.streamMessagesByTime(1, 1L, null, message -> { });
+
+            List<String> plans = new ArrayList<>();
+            for (QueryStats queryStats : ConnectionUtil.getQueryStats()) {
+                if (queryStats.getCaller().equals("MessageDAO.openMessagesByTime")
+                        && queryStats.getSql().startsWith("SELECT")) {
+                    PreparedStatement explain = ConnectionUtil.getConnection().prepareStatement("EXPLAIN " + queryStats.getSql());
+                    for (int i = 1; i <= explain.getParameterMetaData().getParameterCount(); i++) {
+                        explain.setLong(i, 1);
+                    }
+                    ResultSet rs = explain.executeQuery();
+                    rs.next();
+                    plans.add(rs.getString(1));
+                }
+            }
+            Assert.assertEquals(2, plans.size());
+            for (String plan : plans) {
+                Assert.assertTrue(plan, plan.contains("/* index sorted */"));
+                Assert.assertTrue(plan, plan.contains("TIME_ID_IDX: "));
+            }
+        } finally {
+            ConnectionUtil.setInstrumentation(null);
+            ConnectionUtil.releaseConnection();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import Model.Message;
+import Model.MessagePage;
+import Util.ConnectionUtil;
+import Util.JdbcInstrumentation;
+import Util.QueryStats;
+import io.javalin.Javalin;
+
+public class RetrieveMessagesPageTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. Four more messages are added, posted at times out of id order.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString("[" +
+                        "{\"posted_by\":1, \"message_text\": \"m2\", \"time_posted_epoch\": 1669947795}," +
+                        "{\"posted_by\":1, \"message_text\": \"m3\", \"time_posted_epoch\": 1669947791}," +
+                        "{\"posted_by\":1, \"message_text\": \"m4\", \"time_posted_epoch\": 1669947795}," +
+                        "{\"posted_by\":1, \"message_text\": \"m5\", \"time_posted_epoch\": 1669947790}]"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private List<Integer> pageThrough(String path) throws IOException, InterruptedException {
+        return pageThrough(path, path);
+    }
+
+    private List<Integer> pageThrough(String firstPath, String nextPath) throws IOException, InterruptedException {
+        List<Integer> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            String uri = "http://localhost:8080" + (cursor == null ? firstPath : nextPath + "&cursor=" + cursor);
+            HttpResponse<String> response = webClient.send(HttpRequest.newBuilder().uri(URI.create(uri)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(200, response.statusCode());
+            MessagePage page = objectMapper.readValue(response.body(), MessagePage.class);
+            Assert.assertTrue(page.getMessages().size() <= 2);
+            for (Message message : page.getMessages()) {
+                ids.add(message.getMessage_id());
+            }
+            cursor = page.getNext_cursor();
+        } while (cursor != null);
+        return ids;
+    }
+
+    /**
+     * Paging through GET localhost:8080/messages?limit=2 returns every message exactly once, in message_id order
+     */
+    @Test
+    public void pageThroughAllMessagesById() throws IOException, InterruptedException {
+        Assert.assertEquals(List.of(1, 2, 3, 4, 5), pageThrough("/messages?limit=2"));
+    }
+
+    /**
+     * Paging through GET localhost:8080/accounts/1/messages?limit=2&order=time returns every message of the user
+     * exactly once, by time_posted_epoch with message_id breaking ties
+     */
+    @Test
+    public void pageThroughUserMessagesByTime() throws IOException, InterruptedException {
+        Assert.assertEquals(List.of(5, 3, 1, 2, 4), pageThrough("/accounts/1/messages?limit=2&order=time"));
+    }
+
+    /**
+     * A next_cursor sent back without the order it was issued for keeps paging in that order, while one sent with a
+     * different order is rejected with a 400
+     */
+    @Test
+    public void cursorCarriesItsOrder() throws IOException, InterruptedException {
+        Assert.assertEquals(List.of(5, 3, 1, 2, 4),
+                pageThrough("/accounts/1/messages?limit=2&order=time", "/accounts/1/messages?limit=2"));
+
+        HttpResponse<String> first = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?limit=2&order=time")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        String cursor = objectMapper.readValue(first.body(), MessagePage.class).getNext_cursor();
+        HttpResponse<String> conflicting = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?limit=2&order=id&cursor=" + cursor)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(400, conflicting.statusCode());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages with a cursor that was not issued by the server
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void invalidCursorIsRejected() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?limit=2&cursor=not-a-cursor"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(400, response.statusCode());
+    }
+
+    /**
+     * Every shape of page query the DAO runs reads its ORDER BY straight off an index, so a page costs the same
+     * wherever its cursor is, rather than sorting all the rows after the cursor. The statements explained are the
+     * ones the DAO actually ran, as recorded by the query stats.
+     */
+    @Test
+    public void pageQueriesAreIndexSorted() throws SQLException {
+        ConnectionUtil.releaseConnection();
+        ConnectionUtil.setInstrumentation(new JdbcInstrumentation(10_000, 10));
+        try {
+            MessageDAO messageDAO = new MessageDAO();
+            messageDAO.getMessagesPage(null, true, 0, 0, 2);
+            messageDAO.getMessagesPage(1, true, 0, 0, 2);
+            messageDAO.getMessagesPage(null, false, 0, 0, 2);
+            messageDAO.getMessagesPage(1, false, 0, 0, 2);
+
+            int explained = 0;
+            for (QueryStats queryStats : ConnectionUtil.getQueryStats()) {
+                if (queryStats.getCaller().equals("MessageDAO.getMessagesPage")) {
+                    String plan = explain(queryStats.getSql());
+                    Assert.assertTrue(plan, plan.contains("/* index sorted */"));
+                    explained++;
+                }
+            }
+            Assert.assertEquals(4, explained);
+        } finally {
+            ConnectionUtil.setInstrumentation(null);
+            ConnectionUtil.releaseConnection();
+        }
+    }
+
+    private static String explain(String sql) throws SQLException {
+        PreparedStatement explain = ConnectionUtil.getConnection().prepareStatement("EXPLAIN " + sql);
+        for (int i = 1; i <= explain.getParameterMetaData().getParameterCount(); i++) {
+            explain.setLong(i, 1);
+        }
+        ResultSet rs = explain.executeQuery();
+        rs.next();
+        return rs.getString(1);
+    }
+}
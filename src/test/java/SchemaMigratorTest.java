@@ -0,0 +1,77 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.ConnectionUtil;
+import Util.SchemaMigrator;
+
+public class SchemaMigratorTest {
+
+    @After
+    public void tearDown() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    private int count(String sql) throws SQLException {
+        ResultSet rs = ConnectionUtil.getConnection().createStatement().executeQuery(sql);
+        rs.next();
+        int count = rs.getInt(1);
+        ConnectionUtil.releaseConnection();
+        return count;
+    }
+
+    /**
+     * Migrating an up-to-date database applies nothing, and the performance indexes are in place.
+     */
+    @Test
+    public void migrateIsIdempotentAndCreatesIndexes() throws SQLException {
+        ConnectionUtil.resetTestDatabase();
+
+        Assert.assertEquals(0, SchemaMigrator.migrate());
+        Assert.assertEquals(5, count("SELECT COUNT(*) FROM schema_version"));
+        Assert.assertEquals(3, count("SELECT COUNT(*) FROM INFORMATION_SCHEMA.INDEXES WHERE INDEX_NAME IN "
+                + "('MESSAGE_TIME_ID_IDX', 'MESSAGE_POSTED_BY_ID_IDX', 'MESSAGE_POSTED_BY_TIME_ID_IDX')"));
+        // The narrower indexes they replace are gone, so the planner cannot prefer them
+        Assert.assertEquals(0, count("SELECT COUNT(*) FROM INFORMATION_SCHEMA.INDEXES WHERE INDEX_NAME IN "
+                + "('MESSAGE_POSTED_BY_IDX', 'MESSAGE_POSTED_BY_TIME_IDX', 'MESSAGE_TIME_IDX')"));
+    }
+
+    /**
+     * A database created by the old drop-and-recreate script, with no schema_version table, is upgraded in place
+     * without losing its rows.
+     */
+    @Test
+    public void legacyDatabaseIsUpgradedWithoutDataLoss() throws SQLException {
+        Connection connection = ConnectionUtil.getConnection();
+        connection.createStatement().execute("DROP ALL OBJECTS");
+        connection.createStatement().execute("create table account (account_id int primary key auto_increment, "
+                + "username varchar(255) unique, password varchar(255))");
+        connection.createStatement().execute("create table message (message_id int primary key auto_increment, "
+                + "posted_by int, message_text varchar(255), time_posted_epoch bigint, "
+                + "foreign key (posted_by) references account(account_id))");
+        connection.createStatement().execute("insert into account (username, password) values ('legacy', 'password')");
+        connection.createStatement().execute("insert into message (posted_by, message_text, time_posted_epoch) "
+                + "values (1, 'kept', 1669947792)");
+        ConnectionUtil.releaseConnection();
+
+        Assert.assertEquals(5, SchemaMigrator.migrate());
+        Assert.assertEquals(1, count("SELECT COUNT(*) FROM message WHERE message_text = 'kept'"));
+        Assert.assertEquals(1, count("SELECT COUNT(*) FROM account WHERE username = 'legacy'"));
+    }
+
+    /**
+     * Editing a migration after it has been applied stops the migrator rather than silently diverging.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void changedMigrationIsRejected() throws SQLException {
+        ConnectionUtil.resetTestDatabase();
+        ConnectionUtil.getConnection().createStatement().execute("UPDATE schema_version SET checksum = 'edited' WHERE version = 2");
+        ConnectionUtil.releaseConnection();
+
+        SchemaMigrator.migrate();
+    }
+}
@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.MessageSearchIndex;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import Util.JdbcInstrumentation;
+import Util.QueryStats;
+import io.javalin.Javalin;
+
+public class SearchMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. Three more messages are added next to the fixture's "test message 1".
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString("[" +
+                        "{\"posted_by\":1, \"message_text\": \"Coffee with friends\", \"time_posted_epoch\": 1669947795}," +
+                        "{\"posted_by\":1, \"message_text\": \"coffee, then a test run\", \"time_posted_epoch\": 1669947793}," +
+                        "{\"posted_by\":1, \"message_text\": \"friends and coffee!\", \"time_posted_epoch\": 1669947794}]"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> search(String query) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/search?" + query))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Integer> ids(HttpResponse<String> response) throws IOException {
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> messages = objectMapper.readValue(response.body(), new TypeReference<List<Message>>() {});
+        return messages.stream().map(Message::getMessage_id).collect(Collectors.toList());
+    }
+
+    /**
+     * Messages containing more of the words rank first, newer ones first among equals; the fixture message is found
+     * because the index was loaded from the database at startup.
+     */
+    @Test
+    public void searchRanksByMatchesThenRecency() throws IOException, InterruptedException {
+        Assert.assertEquals(Arrays.asList(2, 4, 3), ids(search("q=COFFEE+friends")));
+        Assert.assertEquals(Arrays.asList(3, 1), ids(search("q=test")));
+        Assert.assertEquals(Arrays.asList(2), ids(search("q=coffee+friends&limit=1")));
+        Assert.assertEquals(Arrays.asList(), ids(search("q=tea")));
+    }
+
+    /**
+     * Updates and deletes are reflected in the next search.
+     */
+    @Test
+    public void searchFollowsUpdatesAndDeletes() throws IOException, InterruptedException {
+        HttpRequest patchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/3"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"tea instead\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(patchRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpRequest deleteRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .DELETE()
+                .build();
+        Assert.assertEquals(200, webClient.send(deleteRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        Assert.assertEquals(Arrays.asList(4), ids(search("q=coffee")));
+        Assert.assertEquals(Arrays.asList(3), ids(search("q=tea")));
+        Assert.assertEquals(Arrays.asList(1), ids(search("q=test")));
+    }
+
+    /**
+     * A query without words or a limit out of range is a 400.
+     */
+    @Test
+    public void invalidSearchIsRejected() throws IOException, InterruptedException {
+        Assert.assertEquals(400, search("q=+!+").statusCode());
+        Assert.assertEquals(400, search("limit=5").statusCode());
+        Assert.assertEquals(400, search("q=coffee&limit=0").statusCode());
+        Assert.assertEquals(400, search("q=coffee&limit=x").statusCode());
+    }
+
+    /**
+     * Posting lists stay correct through out-of-order inserts, terms coming back in an update, and compaction.
+     */
+    @Test
+    public void indexHandlesOutOfOrderWritesAndStalePostings() {
+        MessageSearchIndex index = new MessageSearchIndex();
+        for (int id = 1; id <= 300; id += 2) {
+            index.onInsert(new Message(id, 1, "alpha beta", id));
+        }
+        index.onInsert(new Message(100, 1, "alpha", 100));
+        List<Integer> alpha = index.search("alpha gamma", 1000);
+        Assert.assertEquals(151, alpha.size());
+        Assert.assertEquals(Arrays.asList(101, 100, 99), alpha.subList(99, 102));
+
+        // Drop beta from most messages, forcing its list to be compacted, then bring it back to one of them
+        for (int id = 1; id <= 250; id += 2) {
+            index.onUpdate(new Message(id, 1, "alpha", id));
+        }
+        index.onUpdate(new Message(7, 1, "alpha beta", 7));
+        index.onDelete(new Message(299, 1, "alpha beta", 299));
+
+        List<Integer> beta = index.search("beta", 1000);
+        Assert.assertEquals(25, beta.size());
+        Assert.assertEquals(Integer.valueOf(297), beta.get(0));
+        Assert.assertEquals(Integer.valueOf(7), beta.get(24));
+        Assert.assertEquals(Arrays.asList(297, 295), index.search("alpha beta", 2));
+        Assert.assertEquals(150, index.size());
+    }
+
+    /**
+     * Without the message cache, the hits of a search are read with one query rather than one per hit.
+     */
+    @Test
+    public void hitsAreFetchedInOneQuery() {
+        System.setProperty("messages.cache.size", "0");
+        MessageService messageService;
+        try {
+            messageService = new MessageService();
+        } finally {
+            System.clearProperty("messages.cache.size");
+        }
+        ConnectionUtil.setInstrumentation(new JdbcInstrumentation(10_000, 10));
+        try {
+            List<Message> hits = messageService.searchMessages("coffee test", 10);
+            ConnectionUtil.releaseConnection();
+            Assert.assertEquals(Arrays.asList(3, 2, 4, 1),
+                    hits.stream().map(Message::getMessage_id).collect(Collectors.toList()));
+
+            long lookups = 0;
+            for (QueryStats queryStats : ConnectionUtil.getQueryStats()) {
+                if (queryStats.getCaller().startsWith("MessageDAO.getMessage")) {
+                    Assert.assertEquals("MessageDAO.getMessagesByIds", queryStats.getCaller());
+                    lookups += queryStats.getExecutions();
+                }
+            }
+            Assert.assertEquals(1, lookups);
+        } finally {
+            ConnectionUtil.setInstrumentation(null);
+        }
+    }
+
+    /**
+     * Searches running alongside a stream of inserts and updates, which rewrite the lists they read, stay ranked and
+     * never fail.
+     */
+    @Test
+    public void searchesRunDuringWrites() throws InterruptedException {
+        MessageSearchIndex index = new MessageSearchIndex();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            for (int id = 1; id <= 20_000; id++) {
+                index.onInsert(new Message(id, 1, "alpha beta", id));
+                if (id % 3 == 0) {
+                    index.onUpdate(new Message(id - 1, 1, "alpha", id - 1));
+                }
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            try {
+                List<Integer> hits = index.search("beta", 5);
+                for (int i = 1; i < hits.size(); i++) {
+                    Assert.assertTrue(hits.toString(), hits.get(i - 1) > hits.get(i));
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+        writer.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        Assert.assertEquals(Arrays.asList(20_000, 19_999, 19_998, 19_996), index.search("beta", 4));
+    }
+}
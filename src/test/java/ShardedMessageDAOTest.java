@@ -0,0 +1,315 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import DAO.ShardedMessageDAO;
+import Model.Account;
+import Model.Message;
+import Model.MessageBatchResult;
+import Service.MessageService;
+import Service.MessageWriteBehindQueue;
+import Util.ConnectionUtil;
+import Util.JdbcInstrumentation;
+import Util.QueryStats;
+import Util.ShardManager;
+
+/**
+ * Checks that with three shards every message lands on its poster's shard with a globally unique id, and that the
+ * reads over every account merge the shards into what a single database would return.
+ */
+public class ShardedMessageDAOTest {
+    static final int SHARDS = 3;
+    static final int ACCOUNTS = 6;
+
+    ShardedMessageDAO messageDAO;
+
+    /**
+     * Before every test, split the database into three shards, reset them, and add accounts 2 to 6 next to the test
+     * user so that every shard has posters.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.configureShards(SHARDS);
+        ConnectionUtil.resetTestDatabase();
+        AccountDAO accountDAO = new AccountDAO();
+        for (int i = 2; i <= ACCOUNTS; i++) {
+            accountDAO.insertAccount(new Account("user" + i, "password"));
+        }
+        ConnectionUtil.releaseConnection();
+        messageDAO = new ShardedMessageDAO();
+    }
+
+    @After
+    public void tearDown() {
+        ConnectionUtil.configureShards(1);
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    private List<Message> onShard(int shard) {
+        List<Message> messages = ConnectionUtil.onShard(shard, () -> new MessageDAO().getAllMessages());
+        ConnectionUtil.releaseConnection();
+        return messages;
+    }
+
+    private List<Message> addMessages() {
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            batch.add(new Message(1 + i % ACCOUNTS, "message " + i, 1669947800L - i % 7));
+        }
+        List<Message> inserted = messageDAO.insertMessages(batch);
+        inserted.add(messageDAO.insertMessage(new Message(5, "single", 1669947790L)));
+        ConnectionUtil.releaseConnection();
+        return inserted;
+    }
+
+    /**
+     * Messages are stored on the shard of their poster, and new ids carry the shard they were generated on.
+     */
+    @Test
+    public void messagesAreStoredOnTheirPostersShard() {
+        List<Message> inserted = addMessages();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            for (Message message : onShard(shard)) {
+                Assert.assertEquals(shard, ConnectionUtil.shardForPoster(message.getPosted_by()));
+            }
+        }
+        for (Message message : inserted) {
+            Assert.assertEquals(ConnectionUtil.shardForPoster(message.getPosted_by()),
+                    ConnectionUtil.shardForMessage(message.getMessage_id()));
+            Assert.assertEquals(message, messageDAO.getMessageById(message.getMessage_id()));
+        }
+        Assert.assertEquals(inserted.size(), inserted.stream().map(Message::getMessage_id).distinct().count());
+
+        // One lookup for many ids finds each on its shard
+        List<Integer> ids = inserted.stream().map(Message::getMessage_id).collect(Collectors.toList());
+        List<Message> fetched = messageDAO.getMessagesByIds(ids);
+        List<Message> expected = new ArrayList<>(inserted);
+        expected.sort((a, b) -> Integer.compare(a.getMessage_id(), b.getMessage_id()));
+        fetched.sort((a, b) -> Integer.compare(a.getMessage_id(), b.getMessage_id()));
+        Assert.assertEquals(expected, fetched);
+
+        // A poster without an account is refused on every shard
+        for (int posted_by = ACCOUNTS + 1; posted_by <= ACCOUNTS + SHARDS * 2; posted_by++) {
+            Assert.assertNull(messageDAO.insertMessage(new Message(posted_by, "nobody", 1669947800L)));
+        }
+        ConnectionUtil.releaseConnection();
+    }
+
+    /**
+     * A message stored on the wrong shard, as in a database that was not sharded before, is moved to its poster's
+     * shard with its id unchanged and is still found, updated and deleted by id.
+     */
+    @Test
+    public void movedMessageIsFoundById() {
+        // Account 4 belongs on shard 1, but this message is written straight to shard 0
+        Message misplaced = ConnectionUtil.onShard(0, () -> new MessageDAO().insertMessage(new Message(4, "old", 1669947792L)));
+        ConnectionUtil.releaseConnection();
+        Assert.assertEquals(1, ConnectionUtil.shardForPoster(4));
+        Assert.assertEquals(0, ConnectionUtil.shardForMessage(misplaced.getMessage_id()));
+
+        ShardManager.prepare();
+        Assert.assertEquals(Arrays.asList(misplaced), onShard(1));
+        Assert.assertEquals(misplaced.getMessage_id(), ShardManager.getLastMisplacedId());
+
+        Assert.assertEquals(misplaced, messageDAO.getMessageById(misplaced.getMessage_id()));
+        Assert.assertEquals(Arrays.asList(misplaced), messageDAO.getMessagesByIds(Arrays.asList(misplaced.getMessage_id())));
+        Assert.assertTrue(messageDAO.messageExists(misplaced.getMessage_id()));
+        Assert.assertEquals("updated", messageDAO.updateMessage(misplaced.getMessage_id(), new Message(0, "updated", 0)).getMessage_text());
+        Assert.assertEquals(misplaced.getMessage_id(), messageDAO.deleteMessage(misplaced.getMessage_id()).getMessage_id());
+        Assert.assertFalse(messageDAO.messageExists(misplaced.getMessage_id()));
+
+        // Ids handed out after the move stay above every existing one
+        Message next = messageDAO.insertMessage(new Message(4, "new", 1669947800L));
+        Assert.assertTrue(next.getMessage_id() > misplaced.getMessage_id());
+        Assert.assertEquals(1, ConnectionUtil.shardForMessage(next.getMessage_id()));
+        ConnectionUtil.releaseConnection();
+    }
+
+    /**
+     * Reads over every account equal the union of the shards in the order a single database would use, and reads of
+     * one account equal its shard's answer.
+     */
+    @Test
+    public void scatterReadsMergeEveryShard() {
+        addMessages();
+        List<Message> union = new ArrayList<>();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            union.addAll(onShard(shard));
+        }
+        union.sort((a, b) -> Integer.compare(a.getMessage_id(), b.getMessage_id()));
+        Assert.assertEquals(union, messageDAO.getAllMessages());
+
+        List<Message> streamed = new ArrayList<>();
+        messageDAO.streamMessages(null, streamed::add);
+        Assert.assertEquals(union, streamed);
+
+        // Keyset pages of 4 walk the whole merged order
+        List<Message> paged = new ArrayList<>();
+        List<Message> page;
+        do {
+            int afterId = paged.isEmpty() ? 0 : paged.get(paged.size() - 1).getMessage_id();
+            page = messageDAO.getMessagesPage(null, false, 0, afterId, 4);
+            paged.addAll(page);
+        } while (page.size() == 4);
+        Assert.assertEquals(union, paged);
+
+        List<Message> byTime = new ArrayList<>(union);
+        byTime.sort((a, b) -> a.getTime_posted_epoch() != b.getTime_posted_epoch()
+                ? Long.compare(a.getTime_posted_epoch(), b.getTime_posted_epoch())
+                : Integer.compare(a.getMessage_id(), b.getMessage_id()));
+        List<Message> expectedRange = new ArrayList<>();
+        for (Message message : byTime) {
+            if (message.getTime_posted_epoch() >= 1669947795L && message.getTime_posted_epoch() < 1669947799L) {
+                expectedRange.add(message);
+            }
+        }
+        List<Message> range = new ArrayList<>();
+        messageDAO.streamMessagesByTime(null, 1669947795L, 1669947799L, range::add);
+        Assert.assertEquals(expectedRange, range);
+        Assert.assertEquals(byTime.subList(0, 5), messageDAO.getMessagesPage(null, true, Long.MIN_VALUE, 0, 5));
+
+        for (int account = 1; account <= ACCOUNTS; account++) {
+            List<Message> expected = new ArrayList<>();
+            for (Message message : union) {
+                if (message.getPosted_by() == account) {
+                    expected.add(message);
+                }
+            }
+            Assert.assertEquals(expected, messageDAO.getUserMessages(account));
+        }
+        ConnectionUtil.releaseConnection();
+    }
+
+    /**
+     * A merged stream runs one query per shard, however many messages it returns, and closes them all afterwards.
+     */
+    @Test
+    public void mergedStreamQueriesEachShardOnce() {
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            batch.add(new Message(1 + i % ACCOUNTS, "message " + i, 1669947800L + i));
+        }
+        messageDAO.insertMessages(batch);
+        ConnectionUtil.releaseConnection();
+
+        ConnectionUtil.setInstrumentation(new JdbcInstrumentation(10_000, 10));
+        try {
+            List<Message> streamed = new ArrayList<>();
+            messageDAO.streamMessages(null, streamed::add);
+            Assert.assertEquals(1501, streamed.size());
+            List<Message> range = new ArrayList<>();
+            messageDAO.streamMessagesByTime(null, null, null, range::add);
+            Assert.assertEquals(1501, range.size());
+            ConnectionUtil.releaseConnection();
+
+            long byId = 0;
+            long byTime = 0;
+            for (QueryStats queryStats : ConnectionUtil.getQueryStats()) {
+                if (queryStats.getSql().startsWith("SELECT")) {
+                    byId += queryStats.getCaller().equals("MessageDAO.openMessages") ? queryStats.getExecutions() : 0;
+                    byTime += queryStats.getCaller().equals("MessageDAO.openMessagesByTime") ? queryStats.getExecutions() : 0;
+                }
+            }
+            Assert.assertEquals(SHARDS, byId);
+            Assert.assertEquals(SHARDS, byTime);
+            Assert.assertEquals(0, ConnectionUtil.getPoolStats().getActive());
+        } finally {
+            ConnectionUtil.setInstrumentation(null);
+        }
+    }
+
+    /**
+     * When one shard refuses its part of a batch, the parts committed on the other shards are reported as inserted,
+     * only the refused positions fail, and the write-behind queue retries only those, so nothing is stored twice.
+     */
+    @Test
+    public void failedShardLeavesOtherShardsCommitted() throws Exception {
+        // Shard 1 rejects every message with this text, which fails the whole batch sent to it
+        ConnectionUtil.onShard(1, () -> {
+            try {
+                ConnectionUtil.getConnection().createStatement()
+                        .execute("ALTER TABLE message ADD CONSTRAINT no_boom CHECK (message_text <> 'boom')");
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+            return null;
+        });
+        ConnectionUtil.releaseConnection();
+
+        List<Message> batch = new ArrayList<>();
+        for (int posted_by = 1; posted_by <= ACCOUNTS; posted_by++) {
+            batch.add(new Message(posted_by, "message " + posted_by, 1669947800L));
+        }
+        batch.add(new Message(4, "boom", 1669947800L));
+        List<Message> inserted = messageDAO.insertMessages(batch);
+        ConnectionUtil.releaseConnection();
+        Assert.assertEquals(batch.size(), inserted.size());
+        for (int i = 0; i < batch.size(); i++) {
+            boolean refused = ConnectionUtil.shardForPoster(batch.get(i).getPosted_by()) == 1;
+            Assert.assertEquals(refused, inserted.get(i) == null);
+        }
+        Assert.assertTrue(onShard(1).isEmpty());
+
+        MessageService messageService = new MessageService(new ShardedMessageDAO(), new AccountDAO(), null);
+        List<MessageBatchResult> results = messageService.addMessages(batch);
+        ConnectionUtil.releaseConnection();
+        for (int i = 0; i < batch.size(); i++) {
+            if (ConnectionUtil.shardForPoster(batch.get(i).getPosted_by()) == 1) {
+                Assert.assertEquals("Batch insert failed", results.get(i).getError());
+            } else {
+                Assert.assertNull(results.get(i).getError());
+                Assert.assertEquals(batch.get(i).getMessage_text(),
+                        messageDAO.getMessageById(results.get(i).getMessage_id()).getMessage_text());
+            }
+        }
+        ConnectionUtil.releaseConnection();
+
+        // Concurrent inserts are grouped into batches spanning the shards; the refused ones fail alone
+        int before = messageDAO.getAllMessages().size();
+        ConnectionUtil.releaseConnection();
+        MessageWriteBehindQueue queue = new MessageWriteBehindQueue(new ShardedMessageDAO(), new AccountDAO(), 1000, 50, 50);
+        ExecutorService callers = Executors.newFixedThreadPool(12);
+        try {
+            List<Future<Message>> futures = new ArrayList<>();
+            for (int i = 0; i < 60; i++) {
+                Message message = new Message(1 + i % ACCOUNTS, i % ACCOUNTS == 3 ? "boom" : "queued " + i, 1669947800L);
+                futures.add(callers.submit(() -> {
+                    try {
+                        return queue.insert(message);
+                    } finally {
+                        ConnectionUtil.releaseConnection();
+                    }
+                }));
+            }
+            int committed = 0;
+            for (Future<Message> future : futures) {
+                committed += future.get() == null ? 0 : 1;
+            }
+            Assert.assertEquals(50, committed);
+            Assert.assertEquals(50, queue.getRowsCommitted());
+            Assert.assertEquals(10, queue.getRowsRejected());
+        } finally {
+            callers.shutdown();
+            queue.shutdown();
+        }
+        List<Message> all = messageDAO.getAllMessages();
+        ConnectionUtil.releaseConnection();
+        Assert.assertEquals(before + 50, all.size());
+        List<String> queued = all.stream().map(Message::getMessage_text).filter(text -> text.startsWith("queued "))
+                .collect(Collectors.toList());
+        Assert.assertEquals(50, queued.stream().distinct().count());
+        Assert.assertEquals(50, queued.size());
+    }
+}
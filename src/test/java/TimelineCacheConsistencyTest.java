@@ -0,0 +1,145 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Service.MessageService;
+import Util.ConnectionUtil;
+
+/**
+ * Runs random sequences of writes through MessageService and checks after each step that every account's timeline,
+ * as served by the timeline cache, matches what the database returns.
+ */
+public class TimelineCacheConsistencyTest {
+    static final int ACCOUNTS = 4;
+
+    MessageDAO messageDAO;
+    MessageService messageService;
+
+    /**
+     * Before every test, reset the database and add accounts 2 to 4 next to the test user.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        AccountDAO accountDAO = new AccountDAO();
+        for (int i = 2; i <= ACCOUNTS; i++) {
+            accountDAO.insertAccount(new Account("user" + i, "password"));
+        }
+        messageDAO = new MessageDAO();
+        messageService = new MessageService(messageDAO, accountDAO);
+        ConnectionUtil.releaseConnection();
+    }
+
+    @After
+    public void tearDown() {
+        ConnectionUtil.releaseConnection();
+    }
+
+    private void assertTimelinesMatchDatabase() {
+        for (int account = 1; account <= ACCOUNTS; account++) {
+            Assert.assertEquals("timeline of account " + account,
+                    messageDAO.getUserMessages(account), messageService.getUserMessages(account));
+        }
+    }
+
+    /**
+     * Applies one random insert, update or delete.
+     */
+    private void randomWrite(Random random) {
+        int account = 1 + random.nextInt(ACCOUNTS);
+        int choice = random.nextInt(3);
+        if (choice == 0) {
+            messageService.addMessage(new Message(account, "text " + random.nextInt(), random.nextInt(1000)));
+        } else {
+            List<Message> timeline = messageDAO.getUserMessages(account);
+            if (timeline.isEmpty()) {
+                return;
+            }
+            int message_id = timeline.get(random.nextInt(timeline.size())).getMessage_id();
+            if (choice == 1) {
+                messageService.updateMessage(message_id, new Message(0, "edited " + random.nextInt(), 0));
+            } else {
+                messageService.deleteMessage(message_id);
+            }
+        }
+    }
+
+    /**
+     * After every write, each cached timeline equals the database, and reads after the first are served from memory.
+     */
+    @Test
+    public void sequentialWritesKeepTimelinesConsistent() {
+        Random random = new Random(42);
+        assertTimelinesMatchDatabase();
+        for (int i = 0; i < 300; i++) {
+            randomWrite(random);
+            assertTimelinesMatchDatabase();
+        }
+        Assert.assertEquals(ACCOUNTS, messageService.getTimelineCache().getMisses());
+    }
+
+    /**
+     * With a memory bound smaller than the data, cold accounts are evicted and reloaded, and results stay correct.
+     */
+    @Test
+    public void evictionUnderMemoryBoundKeepsTimelinesConsistent() {
+        System.setProperty("messages.timelineCache.maxMessages", "10");
+        try {
+            messageService = new MessageService(messageDAO, new AccountDAO());
+        } finally {
+            System.clearProperty("messages.timelineCache.maxMessages");
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            randomWrite(random);
+            assertTimelinesMatchDatabase();
+            Assert.assertTrue(messageService.getTimelineCache().getCachedMessages() <= 10);
+        }
+        Assert.assertTrue(messageService.getTimelineCache().getEvictions() > 0);
+    }
+
+    /**
+     * Concurrent readers and writers leave every cached timeline equal to the database once they have finished.
+     */
+    @Test
+    public void concurrentReadsAndWritesConverge() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            futures.add(workers.submit(() -> {
+                Random random = new Random(seed);
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        if (seed % 2 == 0) {
+                            randomWrite(random);
+                        } else {
+                            messageService.getUserMessages(1 + random.nextInt(ACCOUNTS));
+                        }
+                        ConnectionUtil.releaseConnection();
+                    }
+                } finally {
+                    ConnectionUtil.releaseConnection();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        workers.shutdown();
+
+        assertTimelinesMatchDatabase();
+    }
+}
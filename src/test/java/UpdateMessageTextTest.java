@@ -118,6 +118,31 @@ public class UpdateMessageTextTest {
     }
 
 
+    /**
+     * Sending an http request to PATCH localhost:8080/messages/1 (message text is only whitespace)
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON of the message with the whitespace as its text
+     */
+    @Test
+    public void updateMessageMessageStringWhitespace() throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{"+
+                        "\"message_text\": \"   \" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse response = webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+        int status = response.statusCode();
+
+        Assert.assertEquals(200, status);
+        Message expectedResult = new Message(1, 1, "   ", 1669947792);
+        Message actualResult = objectMapper.readValue(response.body().toString(), Message.class);
+        Assert.assertEquals(expectedResult, actualResult);
+    }
+
+
     /**
      * Sending an http request to PATCH localhost:8080/messages/1 (message text is too long) 
      * 
@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Message;
+import Service.MessageService;
+import Service.MessageWriteBehindQueue;
+import Util.ConnectionUtil;
+
+public class WriteBehindQueueTest {
+    MessageDAO messageDAO;
+    MessageWriteBehindQueue queue;
+    MessageService messageService;
+
+    /**
+     * Before every test, reset the database and create a MessageService that inserts through a write-behind queue.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageDAO = new MessageDAO();
+        AccountDAO accountDAO = new AccountDAO();
+        queue = new MessageWriteBehindQueue(messageDAO, accountDAO, 1000, 50, 50);
+        messageService = new MessageService(messageDAO, accountDAO, queue);
+    }
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+        ConnectionUtil.releaseConnection();
+    }
+
+    /**
+     * Concurrent inserts are group-committed in far fewer transactions than messages, and every caller still gets
+     * back its own message with a unique message_id.
+     */
+    @Test
+    public void concurrentInsertsAreGroupCommitted() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(40);
+        List<Future<Message>> futures = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Message message = new Message(1, "burst " + i, 1669947792 + i);
+            futures.add(clients.submit(() -> messageService.addMessage(message)));
+        }
+
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < futures.size(); i++) {
+            Message added = futures.get(i).get();
+            Assert.assertNotNull(added);
+            Assert.assertEquals("burst " + i, added.getMessage_text());
+            ids.add(added.getMessage_id());
+        }
+        clients.shutdown();
+
+        Assert.assertEquals(40, ids.size());
+        Assert.assertEquals(40, queue.getRowsCommitted());
+        Assert.assertTrue(queue.getBatchesCommitted() < 40);
+        Assert.assertEquals(41, messageDAO.getAllMessages().size());
+    }
+
+    /**
+     * A message from a poster that does not exist fails on its own without failing the rest of its group.
+     */
+    @Test
+    public void unknownPosterIsRejectedAlone() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        Future<Message> good = clients.submit(() -> messageService.addMessage(new Message(1, "good", 1669947792)));
+        Future<Message> bad = clients.submit(() -> messageService.addMessage(new Message(3, "bad", 1669947792)));
+
+        Assert.assertNotNull(good.get());
+        Assert.assertNull(bad.get());
+        Assert.assertEquals(1, queue.getRowsRejected());
+        clients.shutdown();
+    }
+
+    /**
+     * A caller interrupted while its group commits keeps waiting for the outcome instead of reporting a failure for
+     * a row that then commits, and the message reaches the in-memory state through the committer's hook either way.
+     */
+    @Test
+    public void interruptedCallerStillSeesItsCommit() throws Exception {
+        queue.shutdown();
+        MessageDAO slowDAO = new MessageDAO() {
+            @Override
+            public List<Message> insertMessages(List<Message> messages) {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.insertMessages(messages);
+            }
+        };
+        AccountDAO accountDAO = new AccountDAO();
+        queue = new MessageWriteBehindQueue(slowDAO, accountDAO, 1000, 50, 1);
+        messageService = new MessageService(slowDAO, accountDAO, queue);
+        String versionBefore = messageService.getVersionTag();
+
+        AtomicReference<Message> added = new AtomicReference<>();
+        AtomicBoolean stillInterrupted = new AtomicBoolean();
+        Thread caller = new Thread(() -> {
+            added.set(messageService.addMessage(new Message(1, "patient zebra", 1669947792)));
+            stillInterrupted.set(Thread.currentThread().isInterrupted());
+        });
+        caller.start();
+        Thread.sleep(100);
+        caller.interrupt();
+        caller.join();
+
+        Assert.assertNotNull(added.get());
+        Assert.assertTrue(stillInterrupted.get());
+        Assert.assertEquals(added.get(), messageService.getMessageById(added.get().getMessage_id()));
+        Assert.assertEquals(1, messageService.searchMessages("zebra", 10).size());
+        Assert.assertNotEquals(versionBefore, messageService.getVersionTag());
+    }
+
+    /**
+     * Shutting the service down commits the inserts still waiting for their group to fill, instead of leaving them
+     * to be dropped with the daemon committer.
+     */
+    @Test
+    public void shutdownCommitsQueuedInserts() throws Exception {
+        queue.shutdown();
+        AccountDAO accountDAO = new AccountDAO();
+        queue = new MessageWriteBehindQueue(messageDAO, accountDAO, 1000, 1000, 60_000);
+        messageService = new MessageService(messageDAO, accountDAO, queue);
+
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Message>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                Message message = new Message(1, "queued " + i, 1669947792);
+                futures.add(callers.submit(() -> messageService.addMessage(message)));
+            }
+            Thread.sleep(300);
+            Assert.assertEquals(0, queue.getRowsCommitted());
+
+            messageService.shutdown();
+            for (Future<Message> future : futures) {
+                Assert.assertNotNull(future.get());
+            }
+            Assert.assertEquals(4, queue.getRowsCommitted());
+            Assert.assertEquals(5, messageDAO.getAllMessages().size());
+        } finally {
+            callers.shutdown();
+        }
+    }
+}